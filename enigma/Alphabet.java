@@ -1,31 +1,73 @@
 package enigma;
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /**
  * An alphabet of encodable characters.  Provides a mapping from characters
- * to and from indices into the alphabet.
+ * to and from indices into the alphabet.  Characters are Unicode code
+ * points, so an alphabet may hold characters beyond the Basic
+ * Multilingual Plane, and it is case-sensitive.  Lookups take constant
+ * time whatever the size: through a dense array when the characters
+ * fall in a compact range, and otherwise through an open-addressing
+ * hash table.
  *
  * @author charlesellis
  */
 class Alphabet {
 
     /**
-     * A new alphabet containing CHARS.  Character number #k has index
-     * K (numbering from 0). No character may be duplicated.
+     * A new alphabet containing the code points of CHARS.  Character
+     * number #k has index K (numbering from 0). No character may be
+     * duplicated.
      */
     Alphabet(String chars) {
-        _chars = chars.toUpperCase();
-        for (int i = 0; i < _chars.length(); i++) {
-            for (int j = i + 1; j < _chars.length(); j++) {
-                if (_chars.charAt(i) == _chars.charAt(j)) {
+        this(chars.codePoints().toArray());
+    }
+
+    /**
+     * A new alphabet containing the code points CODEPOINTS, which must
+     * be distinct.  CODEPOINTS becomes mine.
+     */
+    Alphabet(int[] codePoints) {
+        myArray = codePoints;
+        int lo = Integer.MAX_VALUE;
+        int hi = Integer.MIN_VALUE;
+        for (int cp : myArray) {
+            if (!Character.isValidCodePoint(cp)) {
+                throw error("invalid character in alphabet");
+            }
+            lo = Math.min(lo, cp);
+            hi = Math.max(hi, cp);
+        }
+        if (myArray.length > 0
+            && (long) hi - lo < DENSITY * (long) myArray.length + SLACK) {
+            _base = lo;
+            _dense = new int[hi - lo + 1];
+            Arrays.fill(_dense, -1);
+            for (int i = 0; i < myArray.length; i++) {
+                if (_dense[myArray[i] - lo] >= 0) {
                     throw error("duplicate "
                             + "letters in alphabet");
                 }
+                _dense[myArray[i] - lo] = i;
+            }
+        } else {
+            int capacity = Integer.highestOneBit(
+                    Math.max(4, myArray.length * 2 - 1)) << 1;
+            _keys = new int[capacity];
+            _values = new int[capacity];
+            Arrays.fill(_keys, EMPTY);
+            _mask = capacity - 1;
+            for (int i = 0; i < myArray.length; i++) {
+                int slot = slot(myArray[i]);
+                if (_keys[slot] != EMPTY) {
+                    throw error("duplicate "
+                            + "letters in alphabet");
+                }
+                _keys[slot] = myArray[i];
+                _values[slot] = i;
             }
-        }
-        myArray = new char[_chars.length()];
-        for (int i = 0; i < _chars.length(); i++) {
-            myArray[i] = _chars.charAt(i);
         }
     }
 
@@ -44,23 +86,37 @@ class Alphabet {
     }
 
     /**
-     * Returns true if preprocess(CH) is in this alphabet.
+     * Returns true if CH is in this alphabet.
      */
     boolean contains(char ch) {
-        boolean myBool = false;
-        for (int i = 0; i < myArray.length; i++) {
-            if (ch == myArray[i]) {
-                myBool = true;
-            }
-        }
-        return myBool;
+        return contains((int) ch);
+    }
+
+    /**
+     * Returns true if code point CP is in this alphabet.
+     */
+    boolean contains(int cp) {
+        return indexOf(cp) >= 0;
     }
 
     /**
      * Returns character number INDEX in the alphabet, where
-     * 0 <= INDEX < size().
+     * 0 <= INDEX < size().  The character must lie in the Basic
+     * Multilingual Plane; see toCodePoint.
      */
     char toChar(int index) {
+        int cp = toCodePoint(index);
+        if (!Character.isBmpCodePoint(cp)) {
+            throw error("character is not a single char");
+        }
+        return (char) cp;
+    }
+
+    /**
+     * Returns code point number INDEX in the alphabet, where
+     * 0 <= INDEX < size().
+     */
+    int toCodePoint(int index) {
         if (0 <= index && index < myArray.length) {
             return myArray[index];
         } else {
@@ -69,16 +125,19 @@ class Alphabet {
     }
 
     /**
-     * Returns the index of character preprocess(CH), which must be in
-     * the alphabet. This is the inverse of toChar().
+     * Returns the index of character CH, which must be in the
+     * alphabet. This is the inverse of toChar().
      */
     int toInt(char ch) {
-        int ans = -1;
-        for (int i = 0; i < size(); i++) {
-            if (myArray[i] == ch) {
-                ans = i;
-            }
-        }
+        return toInt((int) ch);
+    }
+
+    /**
+     * Returns the index of code point CP, which must be in the
+     * alphabet. This is the inverse of toCodePoint().
+     */
+    int toInt(int cp) {
+        int ans = indexOf(cp);
         if (ans == -1) {
             throw error("character "
                     + "not in alpha");
@@ -87,12 +146,66 @@ class Alphabet {
     }
 
     /**
-     * Array of characters in alphabet.
+     * Return the index of code point CP, or -1 if it is not in the
+     * alphabet.
+     */
+    int indexOf(int cp) {
+        if (_dense != null) {
+            int i = cp - _base;
+            return i >= 0 && i < _dense.length ? _dense[i] : -1;
+        }
+        int slot = slot(cp);
+        return _keys[slot] == cp ? _values[slot] : -1;
+    }
+
+    /**
+     * Return the slot of _keys holding CP, or the empty slot where it
+     * would go.
+     */
+    private int slot(int cp) {
+        int h = cp * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & _mask;
+        while (_keys[slot] != EMPTY && _keys[slot] != cp) {
+            slot = (slot + 1) & _mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Largest ratio of the range of a dense alphabet to its size.
      */
-    private char[] myArray;
+    private static final int DENSITY = 4;
+    /**
+     * Range a dense alphabet may span beyond DENSITY times its size.
+     */
+    private static final int SLACK = 256;
+    /**
+     * Marks an unused slot of _keys; never a valid code point.
+     */
+    private static final int EMPTY = -1;
 
     /**
-     * String of characters in alphabet.
+     * Array of code points in alphabet.
+     */
+    private final int[] myArray;
+    /**
+     * Smallest code point, when _dense is in use.
+     */
+    private int _base;
+    /**
+     * Index of each code point from _base, or -1; null if sparse.
+     */
+    private int[] _dense;
+    /**
+     * Code points of a sparse alphabet, open-addressed; null if dense.
+     */
+    private int[] _keys;
+    /**
+     * Index of the code point in the same slot of _keys.
+     */
+    private int[] _values;
+    /**
+     * Number of slots in _keys, less one.
      */
-    private String _chars;
+    private int _mask;
 }
@@ -0,0 +1,132 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures how character lookup and conversion scale with alphabet
+ * size, for alphabets of 26, 256, 4,096 and 65,536 code points laid out
+ * both in one contiguous range and scattered over the code space.
+ * Usage: java enigma.AlphabetBenchmark [KEYSTROKES]
+ *
+ * @author charlesellis
+ */
+public final class AlphabetBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        for (int round = 0; round < 2; round += 1) {
+            for (int size : SIZES) {
+                run("dense", size, dense(size), count);
+                run("sparse", size, sparse(size), count);
+            }
+        }
+    }
+
+    /** Return SIZE consecutive code points from the start of the
+     *  supplementary planes. */
+    private static int[] dense(int size) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            result[i] = 0x10000 + i;
+        }
+        return result;
+    }
+
+    /** Return SIZE distinct code points scattered over the code
+     *  space. */
+    private static int[] sparse(int size) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            result[i] = (int) ((i * 1_000_003L + 17) % 0x110000);
+        }
+        return result;
+    }
+
+    /** Time COUNT lookups and keystrokes with the alphabet of code
+     *  points CPS, of SIZE characters laid out as described by
+     *  LAYOUT. */
+    private static void run(String layout, int size, int[] cps,
+                            int count) {
+        Random random = new Random(size);
+        Alphabet alpha = new Alphabet(cps.clone());
+        int[] text = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            text[i] = cps[random.nextInt(size)];
+        }
+
+        long start = System.nanoTime();
+        long sum = 0;
+        for (int cp : text) {
+            sum += alpha.toInt(cp);
+        }
+        long lookup = System.nanoTime() - start;
+
+        Machine machine = machine(alpha, random);
+        StringBuilder msg = new StringBuilder();
+        for (int cp : text) {
+            msg.appendCodePoint(cp);
+        }
+        start = System.nanoTime();
+        String out = machine.convert(msg.toString());
+        long convert = System.nanoTime() - start;
+        _sink += sum + out.length();
+
+        System.out.printf("%-6s %6d  lookup %6.1f ns  convert %7.1f ns"
+                + "  table %7d bytes%n", layout, size,
+                (double) lookup / count, (double) convert / count,
+                new IndexTable(size).bytes());
+    }
+
+    /** Return a five-slot machine over ALPHA with rotors wired at
+     *  random from RANDOM. */
+    private static Machine machine(Alphabet alpha, Random random) {
+        int size = alpha.size();
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        int[] reflect = new int[size];
+        for (int i = 0; i + 1 < size; i += 2) {
+            reflect[i] = i + 1;
+            reflect[i + 1] = i;
+        }
+        rotors.add(new Reflector("R", Permutation.fromTable(alpha,
+                reflect)));
+        String[] names = new String[5];
+        names[0] = "R";
+        for (int r = 1; r < 5; r += 1) {
+            int[] wiring = new int[size];
+            for (int i = 0; i < size; i += 1) {
+                wiring[i] = i;
+            }
+            for (int i = size - 1; i > 0; i -= 1) {
+                int j = random.nextInt(i + 1);
+                int t = wiring[i];
+                wiring[i] = wiring[j];
+                wiring[j] = t;
+            }
+            names[r] = "M" + r;
+            rotors.add(new MovingRotor(names[r], Permutation.fromTable(
+                    alpha, wiring), Character.toString(
+                    alpha.toCodePoint(size - 1))));
+        }
+        Machine machine = new Machine(alpha, 5, 3, rotors);
+        machine.insertRotors(names);
+        machine.setPlugboard(Permutation.fromTable(alpha, identity(size)));
+        return machine;
+    }
+
+    /** Return the identity table of SIZE entries. */
+    private static int[] identity(int size) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /** Alphabet sizes measured. */
+    private static final int[] SIZES = {26, 256, 4096, 65536};
+
+    /** Defeats dead-code elimination. */
+    private static volatile long _sink;
+}
@@ -0,0 +1,87 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the Alphabet class.
+ *
+ * @author charlesellis
+ */
+public class AlphabetTest {
+
+    /** Check that ALPHA holds exactly the code points CPS, in order. */
+    private void checkAlphabet(Alphabet alpha, int[] cps) {
+        assertEquals(cps.length, alpha.size());
+        for (int i = 0; i < cps.length; i += 1) {
+            assertTrue(alpha.contains(cps[i]));
+            assertEquals(i, alpha.toInt(cps[i]));
+            assertEquals(cps[i], alpha.toCodePoint(i));
+        }
+    }
+
+    @Test
+    public void testCaseSensitive() {
+        Alphabet alpha = new Alphabet("abcABC");
+        assertEquals(6, alpha.size());
+        assertEquals(0, alpha.toInt('a'));
+        assertEquals(3, alpha.toInt('A'));
+        assertFalse(alpha.contains('d'));
+        assertEquals('C', alpha.toChar(5));
+    }
+
+    @Test
+    public void testSupplementary() {
+        String chars = "😀😁😂XYZ";
+        Alphabet alpha = new Alphabet(chars);
+        checkAlphabet(alpha, chars.codePoints().toArray());
+        assertFalse(alpha.contains('\ud83d'));
+    }
+
+    @Test
+    public void testLargeAlphabets() {
+        int[] dense = new int[65536];
+        int[] sparse = new int[4096];
+        for (int i = 0; i < dense.length; i += 1) {
+            dense[i] = 0x10000 + i;
+        }
+        for (int i = 0; i < sparse.length; i += 1) {
+            sparse[i] = (i * 7919 + 13) % 0x10ffff;
+        }
+        checkAlphabet(new Alphabet(dense.clone()), dense);
+        Alphabet alpha = new Alphabet(sparse.clone());
+        checkAlphabet(alpha, sparse);
+        assertFalse(alpha.contains(14));
+    }
+
+    @Test(expected = EnigmaException.class)
+    public void testDuplicate() {
+        new Alphabet(new int[] {0x1F600, 65, 0x1F600});
+    }
+
+    @Test
+    public void testUnicodeMachine() {
+        String chars = "αβγδ😀😁";
+        Alphabet alpha = new Alphabet(chars);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("R", new Permutation(
+                "(α😀) (βγ) (δ😁)",
+                alpha)));
+        rotors.add(new MovingRotor("M", new Permutation(
+                "(αβ😁γ)", alpha), "😀"));
+        Machine machine = new Machine(alpha, 2, 1, rotors);
+        String settings = "* R M 😁 (αδ)";
+        String msg = chars.repeat(5);
+        machine.setUp(settings);
+        String cipher = machine.convert(msg);
+        assertEquals(msg.codePointCount(0, msg.length()),
+                cipher.codePointCount(0, cipher.length()));
+        assertNotEquals(msg, cipher);
+        machine.setUp(settings);
+        assertEquals(msg, machine.convert(cipher));
+    }
+
+}
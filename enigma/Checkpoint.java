@@ -0,0 +1,188 @@
+package enigma;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.*;
+import static enigma.EnigmaException.*;
+
+/**
+ * A record of how far a run of Main has got: the offsets in its input
+ * and output files of the next line to read and write, the settings
+ * line in force, the number of keystrokes made under it, and the
+ * positions of the machine's rotors.  Records are appended to a
+ * checkpoint file, each followed by a CRC, so that a record torn by a
+ * crash is recognized and the previous one used instead.
+ *
+ * @author charlesellis
+ */
+class Checkpoint {
+
+    /**
+     * A checkpoint at input offset INPUT and output offset OUTPUT,
+     * under settings line SETTINGS after KEYSTROKES keystrokes, with
+     * the rotors (reflector excluded) at POSITIONS.
+     */
+    Checkpoint(long input, long output, String settings, long keystrokes,
+               int[] positions) {
+        _input = input;
+        _output = output;
+        _settings = settings;
+        _keystrokes = keystrokes;
+        _positions = positions;
+    }
+
+    /**
+     * Return the offset of the next input line.
+     */
+    long input() {
+        return _input;
+    }
+
+    /**
+     * Return the offset of the next output byte.
+     */
+    long output() {
+        return _output;
+    }
+
+    /**
+     * Return the settings line in force.
+     */
+    String settings() {
+        return _settings;
+    }
+
+    /**
+     * Return the number of keystrokes made under settings().
+     */
+    long keystrokes() {
+        return _keystrokes;
+    }
+
+    /**
+     * Return the rotor positions, leftmost non-reflector rotor first.
+     */
+    int[] positions() {
+        return _positions.clone();
+    }
+
+    /**
+     * Append me to checkpoint file CHANNEL and force it to disk.
+     */
+    void write(FileChannel channel) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(_input);
+        out.writeLong(_output);
+        out.writeLong(_keystrokes);
+        out.writeUTF(_settings);
+        out.writeShort(_positions.length);
+        for (int p : _positions) {
+            out.writeInt(p);
+        }
+        byte[] body = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(body.length + 12);
+        record.putInt(MAGIC).putInt(body.length).put(body);
+        record.putInt((int) crc.getValue()).flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Return the last intact checkpoint in the file named NAME.
+     */
+    static Checkpoint readLast(String name) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(new File(name).toPath());
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", name);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        Checkpoint last = null;
+        while (buf.remaining() >= 12 && buf.getInt() == MAGIC) {
+            int length = buf.getInt();
+            if (length < 0 || buf.remaining() < length + 4) {
+                break;
+            }
+            byte[] body = new byte[length];
+            buf.get(body);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if (buf.getInt() != (int) crc.getValue()) {
+                break;
+            }
+            try {
+                DataInputStream in = new DataInputStream(
+                        new ByteArrayInputStream(body));
+                long input = in.readLong();
+                long output = in.readLong();
+                long keystrokes = in.readLong();
+                String settings = in.readUTF();
+                int[] positions = new int[in.readShort()];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = in.readInt();
+                }
+                last = new Checkpoint(input, output, settings, keystrokes,
+                        positions);
+            } catch (IOException excp) {
+                break;
+            }
+        }
+        if (last == null) {
+            throw error("no checkpoint in %s", name);
+        }
+        return last;
+    }
+
+    /**
+     * Return a channel appending to checkpoint file NAME.
+     */
+    static FileChannel open(String name) {
+        try {
+            return FileChannel.open(new File(name).toPath(), CREATE, WRITE,
+                    APPEND);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /**
+     * Marks the start of each record.
+     */
+    private static final int MAGIC = 0x454e4331;
+
+    /**
+     * Input offset.
+     */
+    private final long _input;
+    /**
+     * Output offset.
+     */
+    private final long _output;
+    /**
+     * Settings line.
+     */
+    private final String _settings;
+    /**
+     * Keystrokes under _settings.
+     */
+    private final long _keystrokes;
+    /**
+     * Rotor positions.
+     */
+    private final int[] _positions;
+}
@@ -0,0 +1,220 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the Checkpoint and LineReader
+ * classes, and for resuming runs of Main from checkpoints.
+ *
+ * @author charlesellis
+ */
+public class CheckpointTest {
+
+    /**
+     * Settings lines for the default configuration.
+     */
+    private static final String[] SETTINGS = {
+        "* B Beta I II III AAAA",
+        "* B Beta III IV I AXLE (YF) (ZH)",
+        "* C Gamma VI VIII V ZQRD BCDE (AM) (TQ) (NX) (BY)",
+    };
+
+    /**
+     * Return a new, empty temporary file.
+     */
+    private File temp(String suffix) throws IOException {
+        File result = File.createTempFile("checkpoint", suffix);
+        result.deleteOnExit();
+        return result;
+    }
+
+    /**
+     * Return the checkpoint numbered K in a run of tests.
+     */
+    private Checkpoint checkpoint(int k) {
+        return new Checkpoint(100L * k, 90L * k, SETTINGS[k % 3],
+                              1000L * k + 7, new int[] {k, 2 * k, 25, 0});
+    }
+
+    /**
+     * Assert that checkpoints EXPECTED and ACTUAL are the same.
+     */
+    private void assertCheckpoint(Checkpoint expected, Checkpoint actual) {
+        assertEquals(expected.input(), actual.input());
+        assertEquals(expected.output(), actual.output());
+        assertEquals(expected.settings(), actual.settings());
+        assertEquals(expected.keystrokes(), actual.keystrokes());
+        assertArrayEquals(expected.positions(), actual.positions());
+    }
+
+    /**
+     * Return the offsets just past each record of the checkpoint file
+     * whose contents are DATA.
+     */
+    private List<Integer> recordEnds(byte[] data) {
+        List<Integer> result = new ArrayList<>();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.remaining() >= 12) {
+            buf.getInt();
+            int length = buf.getInt();
+            buf.position(buf.position() + length + 4);
+            result.add(buf.position());
+        }
+        return result;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = temp(".ckpt");
+        for (int k = 1; k <= 3; k++) {
+            try (FileChannel channel = Checkpoint.open(file.getPath())) {
+                checkpoint(k).write(channel);
+            }
+            assertCheckpoint(checkpoint(k),
+                             Checkpoint.readLast(file.getPath()));
+        }
+        assertEquals(3, recordEnds(Files.readAllBytes(file.toPath()))
+                     .size());
+    }
+
+    @Test
+    public void testTornRecords() throws IOException {
+        File file = temp(".ckpt");
+        try (FileChannel channel = Checkpoint.open(file.getPath())) {
+            checkpoint(1).write(channel);
+            checkpoint(2).write(channel);
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        int first = recordEnds(data).get(0);
+        for (int cut = first; cut < data.length; cut++) {
+            Files.write(file.toPath(), Arrays.copyOf(data, cut));
+            assertCheckpoint(checkpoint(1),
+                             Checkpoint.readLast(file.getPath()));
+        }
+        byte[] corrupt = data.clone();
+        corrupt[data.length - 6] ^= 1;
+        Files.write(file.toPath(), corrupt);
+        assertCheckpoint(checkpoint(1), Checkpoint.readLast(file.getPath()));
+        byte[] garbage = Arrays.copyOf(data, data.length + 20);
+        Arrays.fill(garbage, data.length, garbage.length, (byte) 0x45);
+        Files.write(file.toPath(), garbage);
+        assertCheckpoint(checkpoint(2), Checkpoint.readLast(file.getPath()));
+
+        Files.write(file.toPath(), Arrays.copyOf(data, first - 1));
+        try {
+            Checkpoint.readLast(file.getPath());
+            fail("read a torn first checkpoint");
+        } catch (EnigmaException excp) {
+            assertEquals("no checkpoint in " + file.getPath(),
+                         excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testLineOffsets() {
+        String text = "* B\nAB CD\r\n\rEF\r\nGH";
+        byte[] bytes = text.getBytes(US_ASCII);
+        LineReader lines = new LineReader(new ByteArrayInputStream(bytes),
+                                          0);
+        String[] expected = {"* B", "AB CD", "", "EF", "GH"};
+        long[] offsets = {4, 11, 12, 16, 18};
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(lines.hasNextLine());
+            assertEquals(expected[i], lines.nextLine());
+            assertEquals(offsets[i], lines.position());
+            assertEquals(i + 1, lines.lineNumber());
+        }
+        assertFalse(lines.hasNextLine());
+
+        LineReader resumed = new LineReader(new ByteArrayInputStream(
+                bytes, 11, bytes.length - 11), 11);
+        assertEquals("", resumed.nextLine());
+        assertEquals("EF", resumed.nextLine());
+        assertEquals(16, resumed.position());
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        String conf = tempFile(".conf", DEFAULT_CONFIG).getPath();
+        Random random = new Random(31);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            if (i % 8 == 0) {
+                lines.add(SETTINGS[i / 8 % 3]);
+            }
+            StringBuilder line = new StringBuilder();
+            for (int j = random.nextInt(60); j > 0; j--) {
+                line.append((char) (j % 6 == 0 ? ' '
+                                    : 'A' + random.nextInt(26)));
+            }
+            lines.add(line.toString());
+        }
+        File input = temp(".in");
+        File expected = temp(".out");
+        File output = temp(".out");
+        File checkpoints = temp(".ckpt");
+        Files.writeString(input.toPath(), String.join("\n", lines) + "\n");
+        runMain(conf, input.getPath(), expected.getPath());
+        byte[] full = Files.readAllBytes(expected.toPath());
+
+        for (int k : new int[] {1, 6, 13, 27, lines.size() - 1}) {
+            File prefix = temp(".in");
+            Files.writeString(prefix.toPath(),
+                    String.join("\n", lines.subList(0, k)) + "\n");
+            checkpoints.delete();
+            runMain("--checkpoint=" + checkpoints.getPath(), conf,
+                    prefix.getPath(), output.getPath());
+            byte[] records = Files.readAllBytes(checkpoints.toPath());
+            byte[] torn = Arrays.copyOf(records, records.length + 9);
+            System.arraycopy(records, 0, torn, records.length, 9);
+            Files.write(checkpoints.toPath(), torn);
+            long written = Checkpoint.readLast(checkpoints.getPath())
+                .output();
+            assertEquals(Files.size(output.toPath()), written);
+            byte[] crashed = Arrays.copyOf(full,
+                    (int) Math.min(full.length, written + 7) + 3);
+            Files.write(output.toPath(), crashed);
+            List<String> unread = new ArrayList<>(lines);
+            for (int i = 0; i < k; i++) {
+                unread.set(i, "?".repeat(lines.get(i).length()));
+            }
+            Files.writeString(input.toPath(),
+                    String.join("\n", unread) + "\n");
+            runMain("--checkpoint=" + checkpoints.getPath(), "--resume",
+                    conf, input.getPath(), output.getPath());
+            assertEquals("resumed after line " + k,
+                         Files.readString(expected.toPath()),
+                         Files.readString(output.toPath()));
+        }
+    }
+
+    @Test
+    public void testInterval() {
+        for (String value : new String[] {"0", "-5", "x"}) {
+            try {
+                runMain("--checkpoint-interval=" + value, "config");
+                fail("accepted --checkpoint-interval=" + value);
+            } catch (EnigmaException excp) {
+                assertEquals("bad value for --checkpoint-interval: "
+                             + value, excp.getMessage());
+            }
+        }
+    }
+
+}
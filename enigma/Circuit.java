@@ -0,0 +1,22 @@
+package enigma;
+
+/**
+ * The stepping and signal path of a machine with one combination of
+ * rotors in its slots, whatever their positions, ring settings and
+ * plugboard, as generated by CircuitCompiler.
+ *
+ * @author charlesellis
+ */
+interface Circuit {
+
+    /**
+     * Convert in place TEXT[START .. END-1], each the index of a letter
+     * in the alphabet, as the machine would with plugboard PLUGBOARD
+     * (a table of its permutation), its rotors at SETTINGS and its
+     * ring settings RINGS, both indexed by slot.  SETTINGS is advanced
+     * past the keystrokes.
+     */
+    void convert(int[] text, int start, int end, int[] plugboard,
+                 int[] settings, int[] rings);
+
+}
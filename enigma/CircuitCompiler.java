@@ -0,0 +1,367 @@
+package enigma;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import enigma.ClassFileWriter.Code;
+
+import static enigma.ClassFileWriter.*;
+
+/**
+ * Generates a Circuit for each combination of rotors as it is first
+ * inserted, as a hidden class whose code is specialized to it.  Where
+ * Machine calls Rotor.convertForward and the like in loops over the
+ * slots, through call sites that see every kind of rotor, the generated
+ * code takes the signal through each slot in turn, unrolled, and steps
+ * only the rotors that can move.  The wirings, notches and arithmetic
+ * modulo the alphabet size become tables in static final fields, handed
+ * to the class as its class data, so that every pass through a rotor is
+ * two table lookups with no branches, whatever the size of the
+ * alphabet; positions and ring settings enter only as offsets.
+ * Generated circuits are cached by the wirings and notches of the
+ * rotors in each slot, so any two machines with the same rotor
+ * combination share one class.  The cache keeps the MAX_CIRCUITS
+ * circuits used most recently; a class dropped from it is unloaded once
+ * no machine holds its circuit.
+ *
+ * @author charlesellis
+ */
+final class CircuitCompiler {
+
+    /**
+     * Not instantiable.
+     */
+    private CircuitCompiler() {
+    }
+
+    /**
+     * Return the circuit of the rotors ROTORS, indexed by slot,
+     * generating it if it is not cached.  Threads that miss the cache
+     * at once generate outside the lock, and all but the first to
+     * finish use the first's circuit.
+     */
+    static Circuit circuit(Rotor[] rotors) {
+        String key = key(rotors);
+        synchronized (CIRCUITS) {
+            Circuit result = CIRCUITS.get(key);
+            if (result != null) {
+                return result;
+            }
+        }
+        Circuit result = define(rotors);
+        synchronized (CIRCUITS) {
+            Circuit first = CIRCUITS.putIfAbsent(key, result);
+            if (first != null) {
+                return first;
+            }
+            _generated += 1;
+            return result;
+        }
+    }
+
+    /**
+     * Return the number of circuits generated.
+     */
+    static int generated() {
+        synchronized (CIRCUITS) {
+            return _generated;
+        }
+    }
+
+    /**
+     * Return the table of the values of F at 0 .. SIZE-1.
+     */
+    private static int[] table(int size, IntUnaryOperator f) {
+        int[] result = new int[size];
+        for (int x = 0; x < size; x++) {
+            result[x] = f.applyAsInt(x);
+        }
+        return result;
+    }
+
+    /**
+     * Return the cache key of ROTORS: whether each moves, and its
+     * wiring and notches, each int as two characters.
+     */
+    private static String key(Rotor[] rotors) {
+        StringBuilder result = new StringBuilder();
+        for (Rotor rotor : rotors) {
+            int n = rotor.size();
+            result.append(rotor.rotates() ? 'M' : 'F');
+            append(result, n);
+            for (int p = 0; p < n; p++) {
+                append(result, rotor.permutation().permute(p));
+                result.append(rotor.notchAt(p) ? 'N' : '-');
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Append VALUE to KEY as two characters.
+     */
+    private static void append(StringBuilder key, int value) {
+        key.append((char) (value >>> 16)).append((char) value);
+    }
+
+    /**
+     * Return a new instance of a new hidden class implementing the
+     * circuit of ROTORS.
+     */
+    private static Circuit define(Rotor[] rotors) {
+        List<int[]> tables = new ArrayList<>();
+        byte[] bytes = generate(rotors, tables);
+        try {
+            Class<?> circuit = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(bytes,
+                        tables.toArray(new int[0][]), true)
+                .lookupClass();
+            return (Circuit) circuit.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException excp) {
+            throw new IllegalStateException("could not define circuit",
+                                            excp);
+        }
+    }
+
+    /**
+     * Return the class file of the circuit of ROTORS, adding to TABLES
+     * the tables its static initializer expects as its class data, in
+     * order.  Its convert
+     * method keeps each rotor's setting and ring offset in local
+     * variables while it runs.  For each letter, it first finds which
+     * rotors are carried, from the notch tables of their right
+     * neighbors, as Machine.step does, and advances them; then it takes
+     * the signal through the plugboard, each slot leftwards, each slot
+     * but the reflector rightwards and the plugboard again.
+     */
+    static byte[] generate(Rotor[] rotors, List<int[]> tables) {
+        int last = rotors.length - 1;
+        int n = rotors[0].size();
+        ClassFileWriter cls = new ClassFileWriter("enigma/GeneratedCircuit",
+                "java/lang/Object", "enigma/Circuit");
+        String self = cls.name();
+
+        Code init = cls.method(ACC_PUBLIC, "<init>", "()V");
+        init.local(ALOAD, 0);
+        init.op2(INVOKESPECIAL,
+                 cls.methodRef("java/lang/Object", "<init>", "()V"));
+        init.op(RETURN);
+        init.end(1, 1);
+
+        Code clinit = cls.method(ACC_STATIC, "<clinit>", "()V");
+        clinit.op2(INVOKESTATIC, cls.methodRef(
+                "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+        clinit.constant(cls.string("_"));
+        clinit.constant(cls.classRef("[[I"));
+        clinit.op2(INVOKESTATIC, cls.methodRef(
+                "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+                + "Ljava/lang/Class;)Ljava/lang/Object;"));
+        clinit.op2(CHECKCAST, cls.classRef("[[I"));
+        clinit.local(ASTORE, 0);
+        int wrap = staticTable(cls, clinit, tables, "WRAP",
+                               table(3 * n, x -> x % n));
+        int[] forward = new int[last + 1], backward = new int[last + 1],
+            notches = new int[last + 1];
+        for (int j = 0; j <= last; j++) {
+            Permutation perm = rotors[j].permutation();
+            forward[j] = staticTable(cls, clinit, tables, "F" + j,
+                                     table(n, perm::permute));
+            backward[j] = staticTable(cls, clinit, tables, "B" + j,
+                                      table(n, perm::invert));
+            if (j >= 2 && rotors[j - 1].rotates()) {
+                Rotor rotor = rotors[j];
+                notches[j] = staticTable(cls, clinit, tables, "N" + j,
+                        table(n, p -> rotor.notchAt(p) ? 1 : 0));
+            }
+        }
+        clinit.op(RETURN);
+        clinit.end(3, 1);
+
+        int setting = RINGS + 1, offset = setting + last + 1,
+            signal = offset + last + 1, carry = signal;
+        int locals = carry + Math.max(last, 1);
+        Code code = cls.method(ACC_PUBLIC, "convert", "([III[I[I[I)V");
+        for (int j = 0; j <= last; j++) {
+            code.local(ALOAD, SETTINGS);
+            code.push(j);
+            code.op(IALOAD);
+            code.local(ISTORE, setting + j);
+            code.push(n);
+            code.local(ALOAD, RINGS);
+            code.push(j);
+            code.op(IALOAD);
+            code.op(ISUB);
+            code.local(ISTORE, offset + j);
+        }
+        for (int v = signal; v < locals; v++) {
+            code.push(0);
+            code.local(ISTORE, v);
+        }
+        String[] frame = new String[locals];
+        Arrays.fill(frame, "I");
+        frame[0] = self;
+        frame[TEXT] = frame[PLUGBOARD] = frame[SETTINGS] = frame[RINGS] =
+            "[I";
+
+        code.frame(frame);
+        int loop = code.here();
+        code.local(ILOAD, INDEX);
+        code.local(ILOAD, END);
+        int exit = code.branchForward(IF_ICMPGE);
+
+        for (int i = 1; i < last; i++) {
+            if (notches[i + 1] != 0) {
+                code.op2(GETSTATIC, notches[i + 1]);
+                code.local(ILOAD, setting + i + 1);
+                code.op(IALOAD);
+                code.local(ISTORE, carry + i);
+            }
+        }
+        for (int j = 1; j <= last; j++) {
+            if (!rotors[j].rotates()) {
+                continue;
+            }
+            code.op2(GETSTATIC, wrap);
+            code.local(ILOAD, setting + j);
+            if (j == last) {
+                code.push(1);
+            } else {
+                boolean carried = false;
+                if (notches[j + 1] != 0) {
+                    code.local(ILOAD, carry + j);
+                    carried = true;
+                }
+                if (notches[j] != 0) {
+                    code.local(ILOAD, carry + j - 1);
+                    if (carried) {
+                        code.op(IOR);
+                    }
+                    carried = true;
+                }
+                if (!carried) {
+                    code.push(0);
+                }
+            }
+            code.op(IADD);
+            code.op(IALOAD);
+            code.local(ISTORE, setting + j);
+        }
+
+        code.local(ALOAD, PLUGBOARD);
+        code.local(ALOAD, TEXT);
+        code.local(ILOAD, INDEX);
+        code.op(IALOAD);
+        code.op(IALOAD);
+        code.local(ISTORE, signal);
+        for (int j = last; j >= 0; j--) {
+            pass(code, wrap, forward[j], signal, setting + j, offset + j, n);
+        }
+        for (int j = 1; j <= last; j++) {
+            pass(code, wrap, backward[j], signal, setting + j, offset + j,
+                 n);
+        }
+        code.local(ALOAD, TEXT);
+        code.local(ILOAD, INDEX);
+        code.local(ALOAD, PLUGBOARD);
+        code.local(ILOAD, signal);
+        code.op(IALOAD);
+        code.op(IASTORE);
+        code.iinc(INDEX, 1);
+        code.branch(GOTO, loop);
+
+        code.land(exit);
+        code.frame(frame);
+        for (int j = 1; j <= last; j++) {
+            code.local(ALOAD, SETTINGS);
+            code.push(j);
+            code.local(ILOAD, setting + j);
+            code.op(IASTORE);
+        }
+        code.op(RETURN);
+        code.end(6, locals);
+        return cls.toByteArray();
+    }
+
+    /**
+     * Add to CLS a static final table NAME, set by CLINIT to TABLE,
+     * which is added to the class data TABLES, and return its constant
+     * pool index.  CLINIT holds the class data in local 0.
+     */
+    private static int staticTable(ClassFileWriter cls, Code clinit,
+                                   List<int[]> tables, String name,
+                                   int[] table) {
+        cls.field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, name, "[I");
+        int field = cls.fieldRef(cls.name(), name, "[I");
+        clinit.local(ALOAD, 0);
+        clinit.push(tables.size());
+        clinit.op(AALOAD);
+        clinit.op2(PUTSTATIC, field);
+        tables.add(table);
+        return field;
+    }
+
+    /**
+     * Emit to CODE the passage of the signal in local SIGNAL through
+     * the rotor wiring in the static table at constant pool index
+     * TABLE, whose setting is in local SETTING and whose offset, the
+     * alphabet size N less its ring setting, is in local OFFSET.  The
+     * static table at constant pool index WRAP reduces numbers below
+     * 3N modulo N.
+     */
+    private static void pass(Code code, int wrap, int table, int signal,
+                             int setting, int offset, int n) {
+        code.op2(GETSTATIC, wrap);
+        code.op2(GETSTATIC, table);
+        code.op2(GETSTATIC, wrap);
+        code.local(ILOAD, signal);
+        code.local(ILOAD, setting);
+        code.op(IADD);
+        code.local(ILOAD, offset);
+        code.op(IADD);
+        code.op(IALOAD);
+        code.op(IALOAD);
+        code.local(ILOAD, setting);
+        code.op(ISUB);
+        code.local(ILOAD, offset);
+        code.op(ISUB);
+        code.push(2 * n);
+        code.op(IADD);
+        code.op(IALOAD);
+        code.local(ISTORE, signal);
+    }
+
+    /**
+     * The local variables holding the arguments of Circuit.convert.
+     */
+    private static final int TEXT = 1, INDEX = 2, END = 3, PLUGBOARD = 4,
+        SETTINGS = 5, RINGS = 6;
+
+    /**
+     * Most circuits cached.
+     */
+    static final int MAX_CIRCUITS = 256;
+
+    /**
+     * Generated circuits, by the key of their rotors, least recently
+     * used first.
+     */
+    private static final LinkedHashMap<String, Circuit> CIRCUITS =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Circuit> eldest) {
+                return size() > MAX_CIRCUITS;
+            }
+        };
+    /**
+     * Number of circuits generated and cached.
+     */
+    private static int _generated;
+}
@@ -0,0 +1,250 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the CircuitCompiler class, which
+ * check generated circuits against the machine's own engines.
+ *
+ * @author charlesellis
+ */
+public class CircuitCompilerTest {
+
+    /**
+     * A configuration with a fixed rotor, several notches on some
+     * rotors and none on another.
+     */
+    private static final String SMALL =
+        "ABCDEFGH\n"
+        + "5 3\n"
+        + "R R (AB) (CD) (EF) (GH)\n"
+        + "F N (ABCDEFGH)\n"
+        + "P MAE (ACEG) (BDFH)\n"
+        + "Q MBC (ABCDEFGH)\n"
+        + "S M (AH) (BGCF) (DE)\n"
+        + "T MGH (ABDC)\n";
+
+    /**
+     * Settings lines of the default configuration.
+     */
+    private static final String[] SETTINGS = {
+        "* B Beta I II III AAAA",
+        "* B Beta III IV I AXLE (YF) (ZH)",
+        "* C Gamma VI VIII V ZQRD BCDE (AM) (TQ) (NX) (BY)",
+    };
+
+    /**
+     * Return a random message of LENGTH letters from LETTERS, with a
+     * blank now and then.
+     */
+    private String message(String letters, int length) {
+        Random random = new Random(length);
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            result.append(i % 7 == 6 ? ' '
+                          : letters.charAt(random.nextInt(letters.length())));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Assert that machines configured by CONFIG with and without
+     * generated circuits convert a long message alike under each of
+     * SETTINGS, and remain in step for single keystrokes afterwards.
+     */
+    private void checkAgainstEngines(String config, String letters,
+                                     String... settings) {
+        Machine generated = Main.machine("test", config.toCharArray());
+        generated.setGenerated(true);
+        Machine direct = Main.machine("test", config.toCharArray());
+        String msg = message(letters, 5000);
+        for (String setting : settings) {
+            generated.setUp(setting);
+            direct.setUp(setting);
+            direct.setCompiled(false);
+            assertEquals(setting, direct.convert(msg),
+                         generated.convert(msg));
+            char[] chars = msg.toCharArray();
+            generated.convert(chars, 3, 1000);
+            assertEquals(setting, direct.convert(msg.substring(3, 1000)),
+                         new String(chars, 3, 997));
+            for (int i = 0; i < letters.length(); i++) {
+                assertEquals(direct.convert(i), generated.convert(i));
+            }
+        }
+    }
+
+    @Test
+    public void testDefaultConfig() {
+        checkAgainstEngines(DEFAULT_CONFIG, "ABCDEFGHIJKLMNOPQRSTUVWXYZ",
+                            SETTINGS);
+    }
+
+    @Test
+    public void testSmallConfig() {
+        checkAgainstEngines(SMALL, "ABCDEFGH", "* R F P Q T AAAA",
+                            "* R F S T P HDGA BCDE (AC) (FH)",
+                            "* R P Q S T ADHG",
+                            "* R Q S T P EBCG HHAB (BD)");
+    }
+
+    @Test
+    public void testLargeAlphabet() {
+        Random random = new Random(48);
+        int[] cps = new int[70000];
+        for (int i = 0, cp = 0x4e00; i < cps.length; cp++) {
+            if (cp < 0xd800 || cp > 0xdfff) {
+                cps[i++] = cp;
+            }
+        }
+        StringBuilder config = new StringBuilder();
+        config.append(new String(cps, 0, cps.length)).append("\n4 2\n");
+        int[] shuffled = shuffle(cps, random);
+        config.append("R R");
+        for (int i = 0; i < shuffled.length; i += 2) {
+            config.append(" (").appendCodePoint(shuffled[i])
+                .appendCodePoint(shuffled[i + 1]).append(')');
+        }
+        config.append("\nF N ").append(cycle(cps, random));
+        config.append("\nP M").appendCodePoint(cps[5]).appendCodePoint(cps[9])
+            .append(' ').append(cycle(cps, random));
+        config.append("\nQ M").appendCodePoint(cps[1])
+            .append(' ').append(cycle(cps, random)).append('\n');
+
+        Machine generated = Main.machine("test",
+                config.toString().toCharArray());
+        generated.setGenerated(true);
+        Machine direct = Main.machine("test", config.toString().toCharArray());
+        String setting = "* R F P Q " + new String(cps, 69999, 1)
+            + new String(cps, 4, 1) + new String(cps, 0, 1);
+        generated.setUp(setting);
+        direct.setUp(setting);
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            msg.appendCodePoint(cps[i % 7 == 0 ? cps.length - 1 - i
+                                    : random.nextInt(cps.length)]);
+        }
+        assertEquals(direct.convert(msg.toString()),
+                     generated.convert(msg.toString()));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(direct.convert(i), generated.convert(i));
+        }
+    }
+
+    /**
+     * Return a shuffled copy of CPS, using RANDOM.
+     */
+    private int[] shuffle(int[] cps, Random random) {
+        int[] result = cps.clone();
+        for (int i = result.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /**
+     * Return a random cycle of all of CPS, in cycle notation, using
+     * RANDOM.
+     */
+    private String cycle(int[] cps, Random random) {
+        int[] shuffled = shuffle(cps, random);
+        return "(" + new String(shuffled, 0, shuffled.length) + ")";
+    }
+
+    @Test
+    public void testCached() {
+        Machine first = Main.machine("test", SMALL.toCharArray());
+        Machine second = Main.machine("test", SMALL.toCharArray());
+        first.setUp("* R F P Q S BBBB");
+        Circuit circuit = CircuitCompiler.circuit(rotors(first, "R F P Q S"));
+        int generated = CircuitCompiler.generated();
+        assertSame(circuit,
+                   CircuitCompiler.circuit(rotors(second, "R F P Q S")));
+        assertNotSame(circuit,
+                      CircuitCompiler.circuit(rotors(second, "R F P S Q")));
+        assertEquals(generated + 1, CircuitCompiler.generated());
+        assertTrue(circuit.getClass().isHidden());
+    }
+
+    @Test
+    public void testBounded() {
+        Alphabet alpha = new Alphabet("ABCDEFGH");
+        Rotor[] choices = new Rotor[7];
+        for (int i = 0; i < choices.length; i++) {
+            choices[i] = new MovingRotor("M" + i, new Permutation(
+                    "(A" + alpha.toChar(i + 1) + ")", alpha), "A");
+        }
+        Rotor reflector = new Reflector("R", new Permutation(
+                "(AB) (CD) (EF) (GH)", alpha));
+        int generated = CircuitCompiler.generated();
+        Circuit first = null;
+        for (int k = 0; k < 7 * 7 * 7; k++) {
+            Circuit circuit = CircuitCompiler.circuit(new Rotor[] {
+                reflector, choices[k / 49], choices[k / 7 % 7],
+                choices[k % 7]});
+            if (k == 0) {
+                first = circuit;
+            }
+        }
+        assertTrue(7 * 7 * 7 > CircuitCompiler.MAX_CIRCUITS);
+        assertNotSame(first, CircuitCompiler.circuit(new Rotor[] {
+            reflector, choices[0], choices[0], choices[0]}));
+        assertEquals(generated + 7 * 7 * 7 + 1,
+                     CircuitCompiler.generated());
+    }
+
+    /**
+     * Return the rotors of MACHINE named by NAMES, separated by blanks.
+     */
+    private Rotor[] rotors(Machine machine, String names) {
+        String[] split = names.split(" ");
+        Rotor[] result = new Rotor[split.length];
+        for (int i = 0; i < split.length; i++) {
+            result[i] = machine.rotor(split[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Assert that Main, configured by CONFIG, prints the same for
+     * messages of LETTERS under each of SETTINGS with and without
+     * --generate.
+     */
+    private void checkMain(String config, String letters,
+                           String... settings) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (String setting : settings) {
+            text.append(setting).append('\n')
+                .append(message(letters, 200)).append("\n\n");
+        }
+        String conf = tempFile(".conf", config).getPath();
+        String input = tempFile(".in", text.toString()).getPath();
+        File expected = tempFile(".out", "");
+        File output = tempFile(".out", "");
+        runMain(conf, input, expected.getPath());
+        runMain("--generate", conf, input, output.getPath());
+        assertNotEquals("", Files.readString(expected.toPath()));
+        assertEquals(Files.readString(expected.toPath()),
+                     Files.readString(output.toPath()));
+    }
+
+    @Test
+    public void testMain() throws IOException {
+        checkMain(DEFAULT_CONFIG, "ABCDEFGHIJKLMNOPQRSTUVWXYZ", SETTINGS);
+        checkMain(SMALL, "ABCDEFGH", "* R F P Q T AAAA",
+                  "* R Q S T P EBCG HHAB (BD)");
+    }
+
+}
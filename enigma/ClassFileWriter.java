@@ -0,0 +1,475 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A writer of class files, just capable enough for CircuitCompiler: a
+ * class with static fields and methods whose code has no exception
+ * handlers.  The caller emits the bytecode itself, one instruction at a
+ * time, and marks each branch target with the frame the verifier is to
+ * assume there (a full frame, with an empty stack).
+ *
+ * @author charlesellis
+ */
+final class ClassFileWriter {
+
+    /** Access flags. */
+    static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002,
+        ACC_STATIC = 0x0008, ACC_FINAL = 0x0010, ACC_SUPER = 0x0020;
+
+    /** Opcodes. */
+    static final int ICONST_0 = 3, BIPUSH = 16, SIPUSH = 17, LDC = 18,
+        LDC_W = 19, ILOAD = 21, ALOAD = 25, IALOAD = 46, AALOAD = 50,
+        ISTORE = 54, ASTORE = 58, IASTORE = 79, IADD = 96, ISUB = 100,
+        IOR = 128, IINC = 132, IF_ICMPGE = 162, GOTO = 167, RETURN = 177,
+        GETSTATIC = 178, PUTSTATIC = 179, INVOKESPECIAL = 183,
+        INVOKESTATIC = 184, CHECKCAST = 192, WIDE = 196;
+
+    /**
+     * A writer of a class named NAME, in internal form, extending
+     * SUPERNAME and implementing INTERFACES.
+     */
+    ClassFileWriter(String name, String superName, String... interfaces) {
+        _name = name;
+        _this = classRef(name);
+        _super = classRef(superName);
+        _interfaces = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            _interfaces[i] = classRef(interfaces[i]);
+        }
+    }
+
+    /**
+     * Return my name, in internal form.
+     */
+    String name() {
+        return _name;
+    }
+
+    /**
+     * Return the constant pool index of the UTF-8 constant TEXT.
+     */
+    int utf8(String text) {
+        return constant("U" + text, out -> {
+            out.writeByte(1);
+            out.writeUTF(text);
+        });
+    }
+
+    /**
+     * Return the constant pool index of the class named NAME.
+     */
+    int classRef(String name) {
+        int utf8 = utf8(name);
+        return constant("C" + name, out -> {
+            out.writeByte(7);
+            out.writeShort(utf8);
+        });
+    }
+
+    /**
+     * Return the constant pool index of the string constant TEXT.
+     */
+    int string(String text) {
+        int utf8 = utf8(text);
+        return constant("S" + text, out -> {
+            out.writeByte(8);
+            out.writeShort(utf8);
+        });
+    }
+
+    /**
+     * Return the constant pool index of the int constant VALUE.
+     */
+    int integer(int value) {
+        return constant("I" + value, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    /**
+     * Return the constant pool index of the field NAME of type
+     * DESCRIPTOR in class OWNER.
+     */
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    /**
+     * Return the constant pool index of the method NAME of type
+     * DESCRIPTOR in class OWNER.
+     */
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    /**
+     * Return the constant pool index of the member reference with tag
+     * TAG to NAME of type DESCRIPTOR in class OWNER.
+     */
+    private int memberRef(int tag, String owner, String name,
+                          String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + " " + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant(tag + owner + "." + name + " " + descriptor, out -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    /**
+     * Something that writes itself to a class file.
+     */
+    private interface Entry {
+        /**
+         * Write me to OUT.
+         */
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Return the constant pool index of the constant identified by KEY,
+     * adding it, as written by ENTRY, if it is new.
+     */
+    private int constant(String key, Entry entry) {
+        Integer index = _constantIndex.get(key);
+        if (index == null) {
+            index = _constants.size() + 1;
+            _constants.add(entry);
+            _constantIndex.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Add a field NAME of type DESCRIPTOR with access flags ACCESS.
+     */
+    void field(int access, String name, String descriptor) {
+        int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+        _fields.add(out -> {
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(0);
+        });
+    }
+
+    /**
+     * Return the code of a new method NAME of type DESCRIPTOR with
+     * access flags ACCESS, to be emitted and then ended.
+     */
+    Code method(int access, String name, String descriptor) {
+        int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+        Code code = new Code();
+        _methods.add(out -> {
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+            code.write(out);
+        });
+        return code;
+    }
+
+    /**
+     * Return the class file.  The names of the attributes of methods
+     * are entered in the constant pool first, since the pool is written
+     * before the methods.
+     */
+    byte[] toByteArray() {
+        utf8("Code");
+        utf8("StackMapTable");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(_constants.size() + 1);
+            for (Entry constant : _constants) {
+                constant.write(out);
+            }
+            out.writeShort(ACC_FINAL | ACC_SUPER);
+            out.writeShort(_this);
+            out.writeShort(_super);
+            out.writeShort(_interfaces.length);
+            for (int index : _interfaces) {
+                out.writeShort(index);
+            }
+            writeAll(out, _fields);
+            writeAll(out, _methods);
+            out.writeShort(0);
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write the number of ENTRIES, and then each of them, to OUT.
+     */
+    private static void writeAll(DataOutputStream out,
+                                 ArrayList<Entry> entries)
+        throws IOException {
+        out.writeShort(entries.size());
+        for (Entry entry : entries) {
+            entry.write(out);
+        }
+    }
+
+    /**
+     * The code of one method, emitted an instruction at a time.
+     */
+    final class Code {
+
+        /**
+         * Emit the instruction OPCODE, followed by the bytes OPERANDS.
+         */
+        void op(int opcode, int... operands) {
+            _code.write(opcode);
+            for (int b : operands) {
+                _code.write(b);
+            }
+        }
+
+        /**
+         * Emit the instruction OPCODE with the two-byte operand INDEX,
+         * a constant pool index or a local variable with WIDE.
+         */
+        void op2(int opcode, int index) {
+            op(opcode, index >> 8, index & 0xff);
+        }
+
+        /**
+         * Emit an instruction pushing the int VALUE.
+         */
+        void push(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            } else if (value == (byte) value) {
+                op(BIPUSH, value & 0xff);
+            } else if (value == (short) value) {
+                op2(SIPUSH, value & 0xffff);
+            } else {
+                constant(integer(value));
+            }
+        }
+
+        /**
+         * Emit an instruction pushing the constant at INDEX in the
+         * constant pool.
+         */
+        void constant(int index) {
+            if (index < 256) {
+                op(LDC, index);
+            } else {
+                op2(LDC_W, index);
+            }
+        }
+
+        /**
+         * Emit the local variable instruction OPCODE on LOCAL.
+         */
+        void local(int opcode, int local) {
+            if (local < 256) {
+                op(opcode, local);
+            } else {
+                op(WIDE);
+                op2(opcode, local);
+            }
+        }
+
+        /**
+         * Emit an instruction adding DELTA, -128 <= DELTA < 128, to the
+         * int in LOCAL.
+         */
+        void iinc(int local, int delta) {
+            if (local < 256) {
+                op(IINC, local, delta & 0xff);
+            } else {
+                op(WIDE);
+                op(IINC, local >> 8, local & 0xff, delta >> 8 & 0xff,
+                   delta & 0xff);
+            }
+        }
+
+        /**
+         * Return the offset of the next instruction.
+         */
+        int here() {
+            return _code.size();
+        }
+
+        /**
+         * Emit the branch instruction OPCODE to TARGET, which precedes
+         * it.
+         */
+        void branch(int opcode, int target) {
+            int offset = target - here();
+            op2(opcode, offset & 0xffff);
+        }
+
+        /**
+         * Emit the branch instruction OPCODE to an offset to be given
+         * by a later call to land, and return the branch's offset.
+         */
+        int branchForward(int opcode) {
+            int at = here();
+            op2(opcode, 0);
+            return at;
+        }
+
+        /**
+         * Make the branch at BRANCH, emitted by branchForward, go to the
+         * next instruction.
+         */
+        void land(int branch) {
+            _code.patch(branch + 1, here() - branch);
+        }
+
+        /**
+         * Declare that the next instruction is a branch target, at
+         * which the local variables have the types LOCALS and the stack
+         * is empty.  Each type is "I" for an int or else the internal
+         * name of a class.
+         */
+        void frame(String... locals) {
+            int[] types = new int[locals.length];
+            for (int i = 0; i < locals.length; i++) {
+                types[i] = locals[i].equals("I") ? -1 : classRef(locals[i]);
+            }
+            _frameOffsets.add(here());
+            _frameTypes.add(types);
+        }
+
+        /**
+         * Finish my method, whose stack holds at most MAXSTACK values
+         * and which uses MAXLOCALS local variable slots.
+         */
+        void end(int maxStack, int maxLocals) {
+            _maxStack = maxStack;
+            _maxLocals = maxLocals;
+        }
+
+        /**
+         * Write my Code attribute to OUT.
+         */
+        private void write(DataOutputStream out) throws IOException {
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            DataOutputStream frameOut = new DataOutputStream(frames);
+            int previous = -1;
+            for (int i = 0; i < _frameOffsets.size(); i++) {
+                frameOut.writeByte(FULL_FRAME);
+                frameOut.writeShort(_frameOffsets.get(i) - previous - 1);
+                frameOut.writeShort(_frameTypes.get(i).length);
+                for (int type : _frameTypes.get(i)) {
+                    if (type < 0) {
+                        frameOut.writeByte(ITEM_INTEGER);
+                    } else {
+                        frameOut.writeByte(ITEM_OBJECT);
+                        frameOut.writeShort(type);
+                    }
+                }
+                frameOut.writeShort(0);
+                previous = _frameOffsets.get(i);
+            }
+            byte[] code = _code.toByteArray();
+            int stackMapLength =
+                _frameOffsets.isEmpty() ? 0 : 8 + frames.size();
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + code.length + stackMapLength);
+            out.writeShort(_maxStack);
+            out.writeShort(_maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);
+            if (_frameOffsets.isEmpty()) {
+                out.writeShort(0);
+            } else {
+                out.writeShort(1);
+                out.writeShort(utf8("StackMapTable"));
+                out.writeInt(2 + frames.size());
+                out.writeShort(_frameOffsets.size());
+                out.write(frames.toByteArray());
+            }
+        }
+
+        /**
+         * The bytecode emitted so far.
+         */
+        private final Bytes _code = new Bytes();
+        /**
+         * Offsets of the stack map frames declared so far.
+         */
+        private final ArrayList<Integer> _frameOffsets = new ArrayList<>();
+        /**
+         * Types of the local variables in each stack map frame, as
+         * constant pool indices of classes, or -1 for int.
+         */
+        private final ArrayList<int[]> _frameTypes = new ArrayList<>();
+        /**
+         * Stack depth and local variable slots of my method.
+         */
+        private int _maxStack, _maxLocals;
+    }
+
+    /**
+     * A byte array output stream whose contents can be patched.
+     */
+    private static final class Bytes extends ByteArrayOutputStream {
+        /**
+         * Overwrite the two bytes at OFFSET with VALUE, big-endian.
+         */
+        void patch(int offset, int value) {
+            buf[offset] = (byte) (value >> 8);
+            buf[offset + 1] = (byte) value;
+        }
+    }
+
+    /**
+     * Class file version written: that of Java 17.
+     */
+    private static final int VERSION = 61;
+    /**
+     * Stack map frame and verification type tags.
+     */
+    private static final int FULL_FRAME = 255, ITEM_INTEGER = 1,
+        ITEM_OBJECT = 7;
+
+    /**
+     * My name, in internal form.
+     */
+    private final String _name;
+    /**
+     * Constant pool indices of me, my superclass and my interfaces.
+     */
+    private final int _this, _super;
+    /**
+     * Constant pool indices of my interfaces.
+     */
+    private final int[] _interfaces;
+    /**
+     * My constant pool, whose first entry has index 1.
+     */
+    private final ArrayList<Entry> _constants = new ArrayList<>();
+    /**
+     * Indices in my constant pool, by constant.
+     */
+    private final HashMap<String, Integer> _constantIndex = new HashMap<>();
+    /**
+     * My fields and methods.
+     */
+    private final ArrayList<Entry> _fields = new ArrayList<>(),
+        _methods = new ArrayList<>();
+}
@@ -0,0 +1,346 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * The configuration of a long-running process, which may be reloaded
+ * while it runs.  Each version of the configuration is an immutable
+ * snapshot, a prototype machine whose rotors have all been compiled.
+ * Conversions run in sessions, each with its own copy of the machine of
+ * the snapshot current when it was opened, which it keeps until it is
+ * closed.  Opening a session takes no lock, and reloading, whether
+ * asked for or set off by watch when the file changes, reads and
+ * compiles the new configuration on the reloading thread and then
+ * publishes it with a single atomic swap, so no session ever waits for
+ * a reload.  A snapshot counts the sessions holding it, plus one while
+ * it is current, and drops its prototype when the count reaches zero;
+ * the machines of its sessions go with them.  A configuration that
+ * fails to load leaves the current one in place.
+ *
+ * @author charlesellis
+ */
+final class ConfigHolder implements Closeable {
+
+    /**
+     * A holder of the configuration in the file named NAME, compiling
+     * it with up to JOBS threads, loaded now.
+     */
+    ConfigHolder(String name, int jobs) {
+        _name = name;
+        _jobs = jobs;
+        _current.set(new Snapshot(Main.compiledMachine(name, jobs), 1));
+    }
+
+    /**
+     * A session using the snapshot current when it was opened.
+     */
+    static final class Session implements AutoCloseable {
+
+        /**
+         * A session holding SNAPSHOT, which has been retained for it.
+         */
+        private Session(Snapshot snapshot) {
+            _snapshot = snapshot;
+            _machine = snapshot._prototype.copy();
+        }
+
+        /**
+         * Return my machine, with no rotors inserted at first.
+         */
+        Machine machine() {
+            return _machine;
+        }
+
+        /**
+         * Return the version of my configuration: 1 for the one
+         * loaded first, and one more for each reload since.
+         */
+        int version() {
+            return _snapshot._version;
+        }
+
+        /**
+         * Release my snapshot.  Closing me twice has no further effect.
+         */
+        @Override
+        public void close() {
+            if (!_closed) {
+                _closed = true;
+                _snapshot.release();
+            }
+        }
+
+        /**
+         * The snapshot I hold.
+         */
+        private final Snapshot _snapshot;
+        /**
+         * My copy of its machine.
+         */
+        private final Machine _machine;
+        /**
+         * True iff I have been closed.
+         */
+        private boolean _closed;
+    }
+
+    /**
+     * Return a new session on the current configuration.
+     */
+    Session open() {
+        while (true) {
+            Snapshot snapshot = _current.get();
+            if (snapshot.retain()) {
+                return new Session(snapshot);
+            }
+            if (_closed) {
+                throw new IllegalStateException("configuration closed");
+            }
+        }
+    }
+
+    /**
+     * Return the version of the current configuration.
+     */
+    int version() {
+        return _current.get()._version;
+    }
+
+    /**
+     * Read and compile the configuration file again, and make it
+     * current, returning true, unless it fails to load, in which case
+     * keep the current one, record the error and return false.  Once I
+     * am closed, do nothing and return false.
+     */
+    synchronized boolean reload() {
+        if (_closed) {
+            return false;
+        }
+        Machine prototype;
+        try {
+            prototype = Main.compiledMachine(_name, _jobs);
+        } catch (EnigmaException excp) {
+            _error = excp;
+            _failures.incrementAndGet();
+            return false;
+        }
+        Snapshot old = _current.get();
+        _current.set(new Snapshot(prototype, old._version + 1));
+        old.release();
+        return true;
+    }
+
+    /**
+     * Return the number of reloads that have failed.
+     */
+    int failures() {
+        return _failures.get();
+    }
+
+    /**
+     * Return the error of the last reload that failed, or null.
+     */
+    EnigmaException error() {
+        return _error;
+    }
+
+    /**
+     * Return the number of snapshots not yet dropped: the current one
+     * and any still held by sessions.
+     */
+    int live() {
+        return _live.get();
+    }
+
+    /**
+     * Start watching the configuration file, reloading it on a daemon
+     * thread whenever it is written.  Writes that follow one another
+     * within SETTLE_MILLIS are taken as one, so that a file is not
+     * read while it is being written.
+     */
+    synchronized void watch() {
+        if (_watcher != null) {
+            return;
+        }
+        Path file = Paths.get(_name).toAbsolutePath();
+        try {
+            _watcher = file.getFileSystem().newWatchService();
+            file.getParent().register(_watcher, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException excp) {
+            throw EnigmaException.error("could not watch %s", _name);
+        }
+        WatchService watcher = _watcher;
+        Thread thread = new Thread(() -> watch(watcher, file.getFileName()),
+                                   "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reload whenever WATCHER reports a change to the file named NAME
+     * in the watched directory, until WATCHER is closed.
+     */
+    private void watch(WatchService watcher, Path name) {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    changed |= context == null || context.equals(name);
+                }
+                key.reset();
+                if (changed) {
+                    while ((key = watcher.poll(SETTLE_MILLIS,
+                                               TimeUnit.MILLISECONDS))
+                           != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException excp) {
+            return;
+        }
+    }
+
+    /**
+     * Return a report of my configuration versions.
+     */
+    String stats() {
+        return String.format("configuration version %d, %d reloads "
+                + "failed, %d snapshots live", version(), failures(),
+                live());
+    }
+
+    /**
+     * Stop watching the configuration file and release the current
+     * snapshot.  Open sessions keep theirs until they are closed.
+     */
+    @Override
+    public synchronized void close() {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        _current.get().release();
+        if (_watcher != null) {
+            try {
+                _watcher.close();
+            } catch (IOException excp) {
+                throw EnigmaException.error("could not stop watching %s",
+                                            _name);
+            }
+        }
+    }
+
+    /**
+     * One version of the configuration.
+     */
+    private final class Snapshot {
+
+        /**
+         * Version VERSION of the configuration, with prototype machine
+         * PROTOTYPE, held only by being current.
+         */
+        Snapshot(Machine prototype, int version) {
+            _prototype = prototype;
+            _version = version;
+            _live.incrementAndGet();
+        }
+
+        /**
+         * Count one more holder of me and return true, unless I have
+         * been dropped, in which case return false.
+         */
+        boolean retain() {
+            while (true) {
+                int holders = _holders.get();
+                if (holders == 0) {
+                    return false;
+                }
+                if (_holders.compareAndSet(holders, holders + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Count one holder of me fewer, dropping my prototype if it
+         * was the last.
+         */
+        void release() {
+            if (_holders.decrementAndGet() == 0) {
+                _prototype = null;
+                _live.decrementAndGet();
+            }
+        }
+
+        /**
+         * My prototype machine, or null once I am dropped.
+         */
+        private volatile Machine _prototype;
+        /**
+         * My version.
+         */
+        private final int _version;
+        /**
+         * Number of sessions holding me, plus one while I am current.
+         */
+        private final AtomicInteger _holders = new AtomicInteger(1);
+    }
+
+    /**
+     * Time for writes to the configuration file to settle, in
+     * milliseconds.
+     */
+    private static final long SETTLE_MILLIS = 50;
+
+    /**
+     * Name of the configuration file.
+     */
+    private final String _name;
+    /**
+     * Threads with which to compile configurations.
+     */
+    private final int _jobs;
+    /**
+     * The current snapshot.
+     */
+    private final AtomicReference<Snapshot> _current =
+        new AtomicReference<>();
+    /**
+     * Number of snapshots not yet dropped.
+     */
+    private final AtomicInteger _live = new AtomicInteger();
+    /**
+     * Number of reloads that have failed.
+     */
+    private final AtomicInteger _failures = new AtomicInteger();
+    /**
+     * Error of the last reload that failed, or null.
+     */
+    private volatile EnigmaException _error;
+    /**
+     * Watcher of the configuration file's directory, or null.
+     */
+    private WatchService _watcher;
+    /**
+     * True iff I have been closed.
+     */
+    private volatile boolean _closed;
+}
@@ -0,0 +1,193 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for the ConfigHolder class.
+ *
+ * @author charlesellis
+ */
+public class ConfigHolderTest {
+
+    /**
+     * A small configuration, with one moving rotor, I.
+     */
+    private static final String FIRST =
+        "ABCDEFGH\n"
+        + "3 1\n"
+        + "R R (AB) (CD) (EF) (GH)\n"
+        + "F N (ABCDEFGH)\n"
+        + "I MA (ACEG) (BDFH)\n";
+
+    /**
+     * FIRST with rotor I rewired.
+     */
+    private static final String SECOND =
+        "ABCDEFGH\n"
+        + "3 1\n"
+        + "R R (AB) (CD) (EF) (GH)\n"
+        + "F N (ABCDEFGH)\n"
+        + "I MA (AH) (BGCF) (DE)\n";
+
+    /**
+     * Settings line for FIRST and SECOND.
+     */
+    private static final String SETTING = "* R F I AA";
+
+    /**
+     * A message in FIRST's alphabet.
+     */
+    private static final String MSG = "ABCDEFGHHGFEDCBA";
+
+    /**
+     * Return a new temporary file containing TEXT.
+     */
+    private File config(String text) throws IOException {
+        File result = File.createTempFile("holder", ".conf");
+        result.deleteOnExit();
+        Files.writeString(result.toPath(), text);
+        return result;
+    }
+
+    /**
+     * Return the conversion of MSG by the machine of SESSION at
+     * SETTING.
+     */
+    private String convert(ConfigHolder.Session session) {
+        Machine machine = session.machine();
+        machine.setUp(SETTING);
+        return machine.convert(MSG);
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        File file = config(FIRST);
+        try (ConfigHolder configs = new ConfigHolder(file.getPath(), 1)) {
+            ConfigHolder.Session old = configs.open();
+            String first = convert(old);
+            assertEquals(1, configs.version());
+            assertEquals(1, configs.live());
+
+            Files.writeString(file.toPath(), SECOND);
+            assertTrue(configs.reload());
+            assertEquals(2, configs.version());
+            assertEquals(2, configs.live());
+            try (ConfigHolder.Session session = configs.open()) {
+                assertEquals(2, session.version());
+                assertNotEquals(first, convert(session));
+            }
+            assertEquals(1, old.version());
+            assertEquals(first, convert(old));
+
+            old.close();
+            old.close();
+            assertEquals(1, configs.live());
+        }
+    }
+
+    @Test
+    public void testFailedReload() throws IOException {
+        File file = config(FIRST);
+        try (ConfigHolder configs = new ConfigHolder(file.getPath(), 1)) {
+            Files.writeString(file.toPath(), "ABCDEFGH\n3\n");
+            assertFalse(configs.reload());
+            assertEquals(1, configs.version());
+            assertEquals(1, configs.failures());
+            assertNotNull(configs.error());
+            assertEquals(1, configs.live());
+            try (ConfigHolder.Session session = configs.open()) {
+                assertEquals(1, session.version());
+            }
+        }
+    }
+
+    @Test
+    public void testClose() throws IOException {
+        ConfigHolder configs = new ConfigHolder(config(FIRST).getPath(), 1);
+        ConfigHolder.Session session = configs.open();
+        configs.close();
+        assertFalse(configs.reload());
+        assertEquals(1, configs.live());
+        assertEquals(convert(session), convert(session));
+        session.close();
+        assertEquals(0, configs.live());
+        try {
+            configs.open();
+            fail("opened a closed configuration");
+        } catch (IllegalStateException excp) {
+            assertEquals("configuration closed", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testWatch() throws IOException, InterruptedException {
+        File file = config(FIRST);
+        try (ConfigHolder configs = new ConfigHolder(file.getPath(), 1)) {
+            configs.watch();
+            Files.writeString(file.toPath(), SECOND);
+            long deadline = System.currentTimeMillis() + 20000;
+            while (configs.version() == 1
+                   && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20);
+            }
+            assertEquals(2, configs.version());
+            assertEquals(0, configs.failures());
+        }
+    }
+
+    @Test
+    public void testOpenDuringReloads()
+        throws IOException, InterruptedException {
+        File file = config(FIRST);
+        String[] expected = new String[2];
+        List<String> outputs = new ArrayList<>();
+        AtomicBoolean failed = new AtomicBoolean();
+        try (ConfigHolder configs = new ConfigHolder(file.getPath(), 1)) {
+            try (ConfigHolder.Session session = configs.open()) {
+                expected[1] = convert(session);
+            }
+            Thread reader = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    try (ConfigHolder.Session session = configs.open()) {
+                        String output = convert(session);
+                        synchronized (outputs) {
+                            outputs.add(session.version() % 2 + output);
+                        }
+                    } catch (RuntimeException excp) {
+                        failed.set(true);
+                    }
+                }
+            });
+            reader.start();
+            for (int i = 0; i < 20; i++) {
+                Files.writeString(file.toPath(), i % 2 == 0 ? SECOND : FIRST);
+                configs.reload();
+            }
+            reader.join();
+            try (ConfigHolder.Session session = configs.open()) {
+                assertEquals(21, session.version());
+            }
+            Files.writeString(file.toPath(), SECOND);
+            configs.reload();
+            try (ConfigHolder.Session session = configs.open()) {
+                expected[0] = convert(session);
+            }
+            assertFalse(failed.get());
+            for (String output : outputs) {
+                assertEquals(expected[output.charAt(0) - '0'],
+                             output.substring(1));
+            }
+            assertEquals(1, configs.live());
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+package enigma;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A loader of the rotor descriptions that follow the header of a
+ * configuration file, which also serves as a lazy catalog of the
+ * rotors they describe.  Each description is a name, a type-and-notches
+ * token and a run of cycle tokens, and none depends on another.  One
+ * sequential pass records each rotor's name, type and notches and
+ * where its cycles start, checking the names for duplicates, but
+ * parses no cycles and compiles no wirings.  A rotor's wiring is
+ * compiled the first time the rotor is asked for, and the rotor is
+ * kept for later requests; any number of threads may ask at once.
+ * Compiling every rotor, as building a RotorCatalog needs, runs on a
+ * fork/join pool, and reports the first error in file order, just as
+ * if the file had been read sequentially.
+ *
+ * @author charlesellis
+ */
+final class ConfigLoader implements RotorSource {
+
+    /**
+     * A loader of the rotor descriptions read by CONFIG, which is just
+     * past the header, over ALPHABET, interning wirings in WIRINGS.
+     * The pass stops at the first description whose name, type or
+     * notches are bad; the error is reported by check or load.
+     */
+    ConfigLoader(Tokenizer config, Alphabet alphabet, WiringPool wirings) {
+        _alphabet = alphabet;
+        _wirings = wirings;
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<String> notches = new ArrayList<>();
+        ArrayList<Tokenizer> cycles = new ArrayList<>();
+        StringBuilder types = new StringBuilder();
+        while (config.hasNext()) {
+            String name = config.next();
+            names.add(name);
+            try {
+                if (_index.putIfAbsent(name, _index.size()) != null) {
+                    throw config.error("two rotors have same name");
+                }
+                String mnrNotches =
+                    config.next("configuration file truncated");
+                char type = mnrNotches.charAt(0);
+                if (type != 'M' && type != 'N' && type != 'R') {
+                    throw config.error("rotor type is not M, N, or R");
+                }
+                config.checkLetters(alphabet, 1, "notch");
+                types.append(type);
+                notches.add(mnrNotches.substring(1));
+            } catch (EnigmaException excp) {
+                _error = excp;
+                break;
+            }
+            cycles.add(config.copy());
+            while (config.hasNextCycles()) {
+                config.skipToken();
+            }
+        }
+        _size = cycles.size();
+        _names = names.toArray(new String[0]);
+        _notches = notches.toArray(new String[0]);
+        _cycles = cycles.toArray(new Tokenizer[0]);
+        _types = types.toString();
+        _rotors = new AtomicReferenceArray<>(_size);
+    }
+
+    /**
+     * Throw the error that stopped my pass over the descriptions, if
+     * any.
+     */
+    void check() {
+        if (_error != null) {
+            throw _error;
+        }
+    }
+
+    /**
+     * Return the number of rotors I describe, up to the first bad
+     * description.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return the number of my rotors compiled so far.
+     */
+    int compiled() {
+        int result = 0;
+        for (int k = 0; k < _size; k++) {
+            if (_rotors.get(k) != null) {
+                result += 1;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Rotor rotor(String name) {
+        Integer k = _index.get(name);
+        return k == null || k >= _size ? null : rotor(k);
+    }
+
+    /**
+     * Return rotor number K, in file order, compiling it if need be.
+     * Should two threads compile it at once, the first to finish wins.
+     */
+    Rotor rotor(int k) {
+        Rotor result = _rotors.get(k);
+        if (result == null) {
+            result = compile(k);
+            if (!_rotors.compareAndSet(k, null, result)) {
+                result = _rotors.get(k);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return every rotor described, in file order, using up to
+     * PARALLELISM threads to compile those not yet compiled.
+     */
+    List<Rotor> load(int parallelism) {
+        EnigmaException[] errors = new EnigmaException[_size];
+        Batch all = new Batch(0, _size, errors);
+        if (parallelism <= 1 || _size <= BATCH) {
+            all.compute();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(all);
+            } finally {
+                pool.shutdown();
+            }
+        }
+        for (EnigmaException error : errors) {
+            if (error != null) {
+                throw error;
+            }
+        }
+        check();
+        return new AbstractList<Rotor>() {
+            @Override
+            public Rotor get(int k) {
+                return _rotors.get(k);
+            }
+
+            @Override
+            public int size() {
+                return _size;
+            }
+        };
+    }
+
+    /**
+     * Return a new rotor number K, reading its cycles and compiling
+     * its wiring.
+     */
+    private Rotor compile(int k) {
+        Tokenizer def = _cycles[k].copy();
+        StringBuilder perm = new StringBuilder();
+        BitSet seen = new BitSet(_alphabet.size());
+        while (def.hasNextCycles()) {
+            perm.append(def.next()).append(' ');
+            def.checkCycles(_alphabet, seen);
+        }
+        Permutation wiring = _wirings.intern(perm.toString());
+        char type = _types.charAt(k);
+        if (type == 'M') {
+            return new MovingRotor(_names[k], wiring, _notches[k]);
+        } else if (type == 'N') {
+            return new FixedRotor(_names[k], wiring);
+        } else {
+            return new Reflector(_names[k], wiring);
+        }
+    }
+
+    /**
+     * The task of compiling the rotors of a range of descriptions,
+     * splitting while the range is larger than BATCH.
+     */
+    private final class Batch extends RecursiveAction {
+
+        /**
+         * A task compiling rotors LO .. HI-1, recording any error in
+         * ERRORS.
+         */
+        Batch(int lo, int hi, EnigmaException[] errors) {
+            _lo = lo;
+            _hi = hi;
+            _errors = errors;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > BATCH) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Batch(_lo, mid, _errors),
+                          new Batch(mid, _hi, _errors));
+                return;
+            }
+            for (int k = _lo; k < _hi; k++) {
+                try {
+                    rotor(k);
+                } catch (EnigmaException excp) {
+                    _errors[k] = excp;
+                }
+            }
+        }
+
+        /**
+         * First description in my range.
+         */
+        private final int _lo;
+        /**
+         * Index just past my range.
+         */
+        private final int _hi;
+        /**
+         * Errors, by description.
+         */
+        private final EnigmaException[] _errors;
+    }
+
+    /**
+     * Largest number of descriptions compiled by one task.
+     */
+    private static final int BATCH = 256;
+
+    /**
+     * Alphabet of the rotors.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Pool interning the rotor wirings.
+     */
+    private final WiringPool _wirings;
+    /**
+     * Index in file order of each rotor, by name.
+     */
+    private final HashMap<String, Integer> _index = new HashMap<>();
+    /**
+     * Number of good descriptions.
+     */
+    private final int _size;
+    /**
+     * Rotor names, in file order, including that of a bad description.
+     */
+    private final String[] _names;
+    /**
+     * Rotor types, 'M', 'N' or 'R', in file order.
+     */
+    private final String _types;
+    /**
+     * Rotor notches, in file order.
+     */
+    private final String[] _notches;
+    /**
+     * Tokenizers positioned at the cycles of each description.
+     */
+    private final Tokenizer[] _cycles;
+    /**
+     * Rotors compiled so far, in file order.
+     */
+    private final AtomicReferenceArray<Rotor> _rotors;
+    /**
+     * Error that stopped my pass over the descriptions, or null.
+     */
+    private EnigmaException _error;
+}
@@ -0,0 +1,130 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the ConfigLoader class.
+ *
+ * @author charlesellis
+ */
+public class ConfigLoaderTest {
+
+    /**
+     * Return the text of N rotor descriptions over UPPER, rotor I
+     * being a reflector and the rest moving rotors, with ERROR in
+     * place of the cycles of rotor BAD, if BAD is nonnegative.
+     */
+    private String descriptions(int n, int bad, String error) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            String cycles = "(" + UPPER_STRING.substring(i % 14, i % 14 + 6)
+                + ") (" + UPPER_STRING.charAt(25 - i % 5) + ")";
+            text.append(" R").append(i).append(i == 0 ? " R " : " MQ ")
+                .append(i == bad ? error : cycles).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Return the rotors described by TEXT, loaded with PARALLELISM
+     * threads.
+     */
+    private List<Rotor> load(String text, int parallelism) {
+        Tokenizer config = new Tokenizer("t", text.toCharArray(), 3);
+        return new ConfigLoader(config, UPPER, new WiringPool(UPPER))
+            .load(parallelism);
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        String text = descriptions(2000, -1, null);
+        List<Rotor> one = load(text, 1);
+        List<Rotor> four = load(text, 4);
+        assertEquals(2000, four.size());
+        for (int i = 0; i < one.size(); i++) {
+            assertEquals("R" + i, four.get(i).name());
+            assertEquals(one.get(i).rotates(), four.get(i).rotates());
+            assertArrayEquals(one.get(i).permutation().toArray(),
+                    four.get(i).permutation().toArray());
+        }
+    }
+
+    @Test
+    public void testFirstErrorWins() {
+        String text = descriptions(2000, -1, null)
+            + descriptions(700, 600, "(A?)");
+        String text2 = descriptions(2000, 1500, "(AB) (CA)")
+            + descriptions(700, -1, null);
+        for (int parallelism : new int[] {1, 4}) {
+            try {
+                load(text, parallelism);
+                fail("duplicate name accepted");
+            } catch (EnigmaException excp) {
+                assertEquals("t:2003:2: two rotors have same name",
+                        excp.getMessage());
+            }
+            try {
+                load(text2, parallelism);
+                fail("duplicate letter accepted");
+            } catch (EnigmaException excp) {
+                assertEquals("t:1503:18: duplicate letters in perm",
+                        excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testLazy() throws InterruptedException {
+        String text = descriptions(2000, 1500, "(AB) (CA)");
+        ConfigLoader loader = new ConfigLoader(
+            new Tokenizer("t", text.toCharArray(), 3), UPPER,
+            new WiringPool(UPPER));
+        ConfigLoader shared = loader;
+        loader.check();
+        assertEquals(2000, loader.size());
+        assertEquals(0, loader.compiled());
+        assertNull(loader.rotor("X"));
+        Rotor[] got = new Rotor[4];
+        Thread[] threads = new Thread[got.length];
+        for (int i = 0; i < threads.length; i++) {
+            int j = i;
+            threads[i] = new Thread(() -> got[j] = shared.rotor("R7"));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Rotor rotor : got) {
+            assertSame(got[0], rotor);
+        }
+        assertEquals(1, loader.compiled());
+        Machine machine = new Machine(UPPER, 3, 2, loader);
+        machine.setUp("* R0 R1 R2 AA");
+        assertEquals(4, loader.compiled());
+        try {
+            loader.rotor("R1500");
+            fail("bad rotor compiled");
+        } catch (EnigmaException excp) {
+            assertEquals("t:1503:18: duplicate letters in perm",
+                    excp.getMessage());
+        }
+        loader = new ConfigLoader(
+            new Tokenizer("t", " A R (AB)\n B X (AB)".toCharArray(), 1),
+            UPPER, new WiringPool(UPPER));
+        assertEquals(1, loader.size());
+        try {
+            loader.check();
+            fail("bad type accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("t:2:4: rotor type is not M, N, or R",
+                    excp.getMessage());
+        }
+    }
+
+}
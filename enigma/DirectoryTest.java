@@ -0,0 +1,122 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for converting directories of files with
+ * Main.
+ *
+ * @author charlesellis
+ */
+public class DirectoryTest {
+
+    /**
+     * The test cases written into the input tree: where each goes in
+     * the tree, its input, and its expected output, up to trailing
+     * whitespace.
+     */
+    private static final String[][] FILES = {
+        {"trivial.in", "* B Beta I II III AAAA\nHELLO WORLD\n",
+         "ILBDA AMTAZ"},
+        {"sub/ring.in", "* B Beta I II III AAAA ABBB\nAAAAA\n"
+         + "* B Beta I II III AAAA\nAAAAA\n", "EWTYX \nBDZGO"},
+        {"sub/deep/rotorVI.in", "* B Beta III II VI AAAZ\n"
+         + "AAAAAAAAAAAAAAAAAAAAAAAAAAAA\n",
+         "DNLER UIWXP EEQZT PZOMK SYZFI CQT"},
+        {"sub/deep/step.in", "* B Beta III II I AAEA\nAA\n", "JW"},
+    };
+
+    /**
+     * Write the default configuration to ROOT/default.conf, and the
+     * test cases in FILES into a tree under directory INPUT, and return
+     * the name of the configuration.
+     */
+    private String writeCases(Path root, Path input) throws IOException {
+        for (String[] file : FILES) {
+            Path target = input.resolve(file[0]);
+            Files.createDirectories(target.getParent());
+            Files.writeString(target, file[1]);
+        }
+        Path config = root.resolve("default.conf");
+        Files.writeString(config, DEFAULT_CONFIG);
+        return config.toString();
+    }
+
+    /**
+     * Assert that directory OUTPUT holds the expected conversion of each
+     * test case in FILES, up to trailing whitespace, which
+     * testing/test-correct ignores too.
+     */
+    private void assertOutputs(Path output) throws IOException {
+        for (String[] file : FILES) {
+            assertEquals(file[0], file[2],
+                         Files.readString(output.resolve(file[0]))
+                         .stripTrailing());
+        }
+    }
+
+    /**
+     * Delete the tree under DIR.
+     */
+    private void delete(Path dir) throws IOException {
+        try (Stream<Path> tree = Files.walk(dir)) {
+            tree.sorted(Comparator.reverseOrder())
+                .forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testTree() throws IOException {
+        Path root = Files.createTempDirectory("directory");
+        try {
+            Path input = root.resolve("in"), output = root.resolve("out");
+            String config = writeCases(root, input);
+            runMain("--jobs=2", config, input.toString(), output.toString());
+            assertOutputs(output);
+            assertTrue(Files.isDirectory(output.resolve("sub/deep")));
+        } finally {
+            delete(root);
+        }
+    }
+
+    @Test
+    public void testBadFile() throws IOException {
+        Path root = Files.createTempDirectory("directory");
+        PrintStream err = System.err;
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        try {
+            Path input = root.resolve("in"), output = root.resolve("out");
+            String config = writeCases(root, input);
+            Path bad = input.resolve("sub/bad.in");
+            Files.writeString(bad, "Message without a configuration.\n");
+            System.setErr(new PrintStream(errors, true));
+            try {
+                runMain("--jobs=2", config, input.toString(),
+                        output.toString());
+                fail("converted a directory with a bad file");
+            } catch (EnigmaException excp) {
+                assertEquals("1 of 5 files failed", excp.getMessage());
+            }
+            assertOutputs(output);
+            String reports = errors.toString();
+            assertTrue(reports, reports.startsWith("Error: " + bad + ": "));
+            assertEquals(reports, 1, reports.split("\n").length);
+        } finally {
+            System.setErr(err);
+            delete(root);
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+package enigma;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * The thresholds at which Main moves a key from one engine to the next,
+ * and a count of the moves.  Each engine costs more to set up than the
+ * one before and less per letter:
+ *
+ *   direct     Machine's direct engine, which runs each signal through
+ *              each rotor by Rotor.convertForward and convertBackward,
+ *              and sets up nothing.
+ *   compiled   Machine's compiled engine, whose tables are laid out and
+ *              whose inner path is computed before the first letter.
+ *   keystream  A Keystream of the key's first keystrokes, built once
+ *              and cached, which needs no rotor stepping at all.
+ *
+ * Every key starts on the direct engine.  Once the letters converted
+ * under a key, counting those of the message about to be converted,
+ * pass compileAt(), the key is promoted to the compiled engine; once a
+ * key used again has converted keystreamAt() letters, its keystream is
+ * built.  Each threshold is the number of letters whose savings repay
+ * the set-up cost of the faster engine.  The costs are measured by
+ * calibrate, a short benchmark on the machine at hand, or read from a
+ * profile file written by save.  Timings taken before the JIT compiler
+ * has warmed up favor the direct engine, so the benchmark discards its
+ * first rounds; since that takes longer than a short run, Main has it
+ * done by calibrateLater, on a background thread, and until it is done
+ * every key starts compiled and has its keystream built when first
+ * used again.  With a single processor, the benchmark would only slow
+ * the conversions it is meant to speed up, so there it is run only to
+ * write a profile.
+ *
+ * @author charlesellis
+ */
+final class EngineTiers {
+
+    /**
+     * Tiers that are to be calibrated, and until then compile every key
+     * and build its keystream when it is first used again.
+     */
+    EngineTiers() {
+    }
+
+    /**
+     * Tiers promoting keys to the compiled engine after COMPILEAT
+     * letters and to a keystream after KEYSTREAMAT.
+     */
+    EngineTiers(long compileAt, long keystreamAt) {
+        _compileAt = compileAt;
+        _keystreamAt = keystreamAt;
+        _calibrated = true;
+    }
+
+    /**
+     * Return tiers read from the profile file named NAME, as written
+     * by save.
+     */
+    static EngineTiers load(String name) {
+        Properties profile = new Properties();
+        try (InputStream in = new FileInputStream(name)) {
+            profile.load(in);
+        } catch (IOException excp) {
+            throw error("could not read engine profile %s", name);
+        }
+        try {
+            return new EngineTiers(
+                    Long.parseLong(profile.getProperty("compile", "")),
+                    Long.parseLong(profile.getProperty("keystream", "")));
+        } catch (NumberFormatException excp) {
+            throw error("bad engine profile %s", name);
+        }
+    }
+
+    /**
+     * Write my thresholds to the profile file named NAME.
+     */
+    void save(String name) {
+        Properties profile = new Properties();
+        profile.setProperty("compile", Long.toString(_compileAt));
+        profile.setProperty("keystream", Long.toString(_keystreamAt));
+        try (OutputStream out = new FileOutputStream(name)) {
+            profile.store(out, "enigma engine thresholds, in letters");
+        } catch (IOException excp) {
+            throw error("could not write engine profile %s", name);
+        }
+    }
+
+    /**
+     * Return true iff my thresholds are known.
+     */
+    boolean calibrated() {
+        return _calibrated;
+    }
+
+    /**
+     * Start a daemon thread that calibrates me as calibrate does,
+     * unless I am calibrated or being calibrated already, or there is
+     * no other processor for it to run on.
+     */
+    void calibrateLater(Machine machine, String settings,
+                        int keystreamLength) {
+        if (_calibrated || _calibrator != null || PROCESSORS < 2) {
+            return;
+        }
+        synchronized (this) {
+            if (_calibrator != null) {
+                return;
+            }
+            Machine probe = machine.copy();
+            _calibrator = new Thread(() ->
+                calibrate(probe, settings, keystreamLength), "calibration");
+            _calibrator.setDaemon(true);
+            _calibrator.start();
+        }
+    }
+
+    /**
+     * Set my thresholds, unless they are already known, by timing the
+     * engines on a copy of MACHINE set up by settings line SETTINGS,
+     * for keystreams of KEYSTREAMLENGTH keystrokes.  The best of a
+     * number of short rounds, after the warm-up rounds, is taken for
+     * each cost.
+     */
+    void calibrate(Machine machine, String settings, int keystreamLength) {
+        if (_calibrated) {
+            return;
+        }
+        Machine probe = machine.copy();
+        probe.setUp(settings);
+        Random random = new Random(0);
+        int[] text = new int[SAMPLE];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = random.nextInt(probe.alphabet().size());
+        }
+        double direct, compiled, compile, build, lookup;
+        direct = compiled = compile = build = lookup = Double.MAX_VALUE;
+        for (int round = -WARMUP; round < ROUNDS; round++) {
+            probe.setUp(settings);
+            probe.setCompiled(false);
+            double directRound = perLetter(probe, text);
+            probe.setUp(settings);
+            long start = System.nanoTime();
+            probe.setCompiled(true);
+            double compileRound = System.nanoTime() - start;
+            double compiledRound = perLetter(probe, text);
+            start = System.nanoTime();
+            Keystream keystream = probe.keystream(SAMPLE_KEYSTROKES);
+            double buildRound = (double) (System.nanoTime() - start)
+                / SAMPLE_KEYSTROKES;
+            double lookupRound = perLookup(keystream, text);
+            if (round >= 0) {
+                direct = Math.min(direct, directRound);
+                compile = Math.min(compile, compileRound);
+                compiled = Math.min(compiled, compiledRound);
+                build = Math.min(build, buildRound);
+                lookup = Math.min(lookup, lookupRound);
+            }
+        }
+        _compileAt = threshold(compile, direct - compiled);
+        _keystreamAt = threshold(build * keystreamLength, compiled - lookup);
+        _calibrated = true;
+    }
+
+    /**
+     * Calibrate me as calibrate does, and write my thresholds to the
+     * profile file named NAME, unless I am calibrated already.  Threads
+     * that call this together wait for the first, which alone times
+     * the engines and writes the file.
+     */
+    void calibrateOnce(Machine machine, String settings,
+                       int keystreamLength, String name) {
+        if (_calibrated) {
+            return;
+        }
+        synchronized (this) {
+            if (!_calibrated) {
+                calibrate(machine, settings, keystreamLength);
+                save(name);
+            }
+        }
+    }
+
+    /**
+     * Return the nanoseconds per letter MACHINE takes to convert TEXT.
+     */
+    private double perLetter(Machine machine, int[] text) {
+        long start = System.nanoTime();
+        int sum = 0;
+        for (int c : text) {
+            sum += machine.convert(c);
+        }
+        _sink += sum;
+        return (double) (System.nanoTime() - start) / text.length;
+    }
+
+    /**
+     * Return the nanoseconds per letter KEYSTREAM takes to look up the
+     * conversions of TEXT.
+     */
+    private double perLookup(Keystream keystream, int[] text) {
+        long start = System.nanoTime();
+        int sum = 0;
+        for (int i = 0; i < text.length; i++) {
+            sum += keystream.convert(i % keystream.length(), text[i]);
+        }
+        _sink += sum;
+        return (double) (System.nanoTime() - start) / text.length;
+    }
+
+    /**
+     * Return the number of letters after which saving SAVING
+     * nanoseconds a letter repays COST nanoseconds, or Long.MAX_VALUE
+     * if nothing is saved.
+     */
+    private static long threshold(double cost, double saving) {
+        if (saving <= 0) {
+            return Long.MAX_VALUE;
+        }
+        return (long) Math.min(Math.ceil(cost / saving), Long.MAX_VALUE);
+    }
+
+    /**
+     * Return the number of letters under one key after which it is
+     * converted by the compiled engine.
+     */
+    long compileAt() {
+        return _compileAt;
+    }
+
+    /**
+     * Return the number of letters under one key after which its
+     * keystream is worth building.
+     */
+    long keystreamAt() {
+        return _keystreamAt;
+    }
+
+    /**
+     * Record that a key started on the direct engine, unless COMPILED,
+     * in which case it started on the compiled engine, having earned
+     * it before.
+     */
+    void started(boolean compiled) {
+        (compiled ? _compiledStarts : _directStarts).incrementAndGet();
+    }
+
+    /**
+     * Record the promotion of a key under which LETTERS letters have
+     * been converted to ENGINE, "compiled" or "keystream".
+     */
+    void promoted(String engine, long letters) {
+        (engine.equals("keystream") ? _toKeystream : _toCompiled)
+            .incrementAndGet();
+        if (EnigmaEvents.enabled()) {
+            EnigmaEvents.Promotion event = new EnigmaEvents.Promotion();
+            event.engine = engine;
+            event.letters = letters;
+            event.commit();
+        }
+    }
+
+    /**
+     * Return a report of my thresholds and of the promotions made.
+     */
+    String stats() {
+        return String.format("engines: %d keys started direct, %d "
+                + "compiled; %d promoted to compiled, %d to keystream "
+                + "(%s)", _directStarts.get(), _compiledStarts.get(),
+                _toCompiled.get(), _toKeystream.get(),
+                !_calibrated ? "not yet calibrated"
+                : "thresholds " + show(_compileAt) + " and "
+                + show(_keystreamAt) + " letters");
+    }
+
+    /**
+     * Return THRESHOLD for printing.
+     */
+    private static String show(long threshold) {
+        return threshold == Long.MAX_VALUE ? "never"
+            : Long.toString(threshold);
+    }
+
+    /**
+     * Number of processors available.
+     */
+    private static final int PROCESSORS =
+        Runtime.getRuntime().availableProcessors();
+    /**
+     * Rounds of calibration, after WARMUP rounds whose timings are
+     * discarded.
+     */
+    private static final int ROUNDS = 64, WARMUP = 256;
+    /**
+     * Letters converted by each engine in a round of calibration.
+     */
+    private static final int SAMPLE = 512;
+    /**
+     * Keystrokes of the keystream built in a round of calibration.
+     */
+    private static final int SAMPLE_KEYSTROKES = 16;
+
+    /**
+     * Letters under a key after which it is compiled.
+     */
+    private volatile long _compileAt;
+    /**
+     * Letters under a key after which its keystream is built.
+     */
+    private volatile long _keystreamAt;
+    /**
+     * True iff my thresholds are known.
+     */
+    private volatile boolean _calibrated;
+    /**
+     * The thread started by calibrateLater, or null.
+     */
+    private volatile Thread _calibrator;
+    /**
+     * Keys started on each engine, and promotions to each.
+     */
+    private final AtomicLong _directStarts = new AtomicLong(),
+        _compiledStarts = new AtomicLong(), _toCompiled = new AtomicLong(),
+        _toKeystream = new AtomicLong();
+    /**
+     * Sink for benchmark results, so that they are not optimized away.
+     */
+    private long _sink;
+}
@@ -0,0 +1,171 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the EngineTiers class and the
+ * engines it chooses among.
+ *
+ * @author charlesellis
+ */
+public class EngineTiersTest {
+
+    /**
+     * Settings lines exercising rings and the plugboard.
+     */
+    private static final String[] SETTINGS = {
+        "* B Beta I II III AAAA",
+        "* B Beta III IV I AXLE (YF) (ZH)",
+        "* C Gamma VI VIII V ZQRD BCDE (AM) (TQ) (NX) (BY)",
+    };
+
+    /**
+     * A message long enough to turn over every moving rotor.
+     */
+    private static final String MESSAGE = "FROMHISSHOULDERHIAWATHA"
+        .repeat(40);
+
+    /**
+     * Return a machine configured by the default test configuration.
+     */
+    private Machine machine() {
+        return Main.machine("config", DEFAULT_CONFIG.toCharArray());
+    }
+
+    @Test
+    public void testEnginesAgree() {
+        Machine direct = machine(), compiled = machine(),
+            mixed = machine();
+        for (String settings : SETTINGS) {
+            direct.setUp(settings);
+            direct.setCompiled(false);
+            compiled.setUp(settings);
+            mixed.setUp(settings);
+            mixed.setCompiled(false);
+            String expected = compiled.convert(MESSAGE);
+            assertEquals(expected, direct.convert(MESSAGE));
+            StringBuilder switched = new StringBuilder();
+            for (int i = 0; i < MESSAGE.length(); i += 100) {
+                mixed.setCompiled(!mixed.compiled());
+                switched.append(mixed.convert(MESSAGE.substring(i,
+                        Math.min(i + 100, MESSAGE.length()))));
+            }
+            assertEquals(expected, switched.toString());
+        }
+    }
+
+    @Test
+    public void testCalibrate() {
+        EngineTiers tiers = new EngineTiers();
+        assertFalse(tiers.calibrated());
+        Machine machine = machine();
+        machine.setUp(SETTINGS[1]);
+        String before = machine.convert(MESSAGE);
+        machine.setUp(SETTINGS[1]);
+        tiers.calibrate(machine, SETTINGS[1], 1000);
+        assertTrue(tiers.calibrated());
+        assertTrue(tiers.compileAt() > 0);
+        assertTrue(tiers.keystreamAt() > 0);
+        assertEquals("calibration disturbed the machine",
+                     before, machine.convert(MESSAGE));
+    }
+
+    @Test
+    public void testCalibrateOnce() throws Exception {
+        File profile = File.createTempFile("tiers", ".profile");
+        profile.delete();
+        EngineTiers tiers = new EngineTiers();
+        long[][] seen = new long[4][];
+        Thread[] threads = new Thread[seen.length];
+        try {
+            for (int i = 0; i < threads.length; i++) {
+                int k = i;
+                Machine machine = machine();
+                threads[i] = new Thread(() -> {
+                    tiers.calibrateOnce(machine, SETTINGS[0], 1000,
+                                        profile.getPath());
+                    seen[k] = new long[] {
+                        tiers.compileAt(), tiers.keystreamAt()
+                    };
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            EngineTiers saved = EngineTiers.load(profile.getPath());
+            for (long[] thresholds : seen) {
+                assertEquals(saved.compileAt(), thresholds[0]);
+                assertEquals(saved.keystreamAt(), thresholds[1]);
+            }
+            profile.delete();
+            tiers.calibrateOnce(machine(), SETTINGS[0], 1000,
+                                profile.getPath());
+            assertFalse("calibrated twice", profile.exists());
+        } finally {
+            profile.delete();
+        }
+    }
+
+    @Test
+    public void testProfile() throws IOException {
+        File profile = File.createTempFile("tiers", ".profile");
+        try {
+            new EngineTiers(120, Long.MAX_VALUE).save(profile.getPath());
+            EngineTiers tiers = EngineTiers.load(profile.getPath());
+            assertEquals(120, tiers.compileAt());
+            assertEquals(Long.MAX_VALUE, tiers.keystreamAt());
+            Files.writeString(profile.toPath(), "compile=many\n");
+            try {
+                EngineTiers.load(profile.getPath());
+                fail("accepted a bad profile");
+            } catch (EnigmaException excp) {
+                assertEquals("bad engine profile " + profile.getPath(),
+                             excp.getMessage());
+            }
+        } finally {
+            profile.delete();
+        }
+    }
+
+    @Test
+    public void testPromotions() throws IOException {
+        File input = File.createTempFile("tiers", ".in");
+        File output = File.createTempFile("tiers", ".out");
+        File profile = File.createTempFile("tiers", ".profile");
+        PrintStream err = System.err;
+        ByteArrayOutputStream stats = new ByteArrayOutputStream();
+        try {
+            Files.writeString(input.toPath(),
+                    SETTINGS[0] + "\nHELLO WORLD\n"
+                    + SETTINGS[1] + "\nHELLO WORLD\n"
+                    + SETTINGS[0] + "\nHELLO WORLD\n"
+                    + SETTINGS[0] + "\nHELLO WORLD\nHELLO WORLD\n"
+                    + SETTINGS[0] + "\nHELLO WORLD\n");
+            new EngineTiers(25, 40).save(profile.getPath());
+            System.setErr(new PrintStream(stats, true));
+            runMain("--stats", "--engine-profile=" + profile.getPath(),
+                    tempFile(".conf", DEFAULT_CONFIG).getPath(),
+                    input.getPath(), output.getPath());
+        } finally {
+            System.setErr(err);
+            input.delete();
+            output.delete();
+            profile.delete();
+        }
+        assertTrue(stats.toString().contains("engines: 4 keys started "
+                + "direct, 0 compiled; 1 promoted to compiled, 1 to "
+                + "keystream (thresholds 25 and 40 letters)"));
+    }
+
+}
@@ -0,0 +1,213 @@
+package enigma;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Threshold;
+
+/**
+ * JDK Flight Recorder events for the simulator, so that a recording of
+ * a run shows where its time went: reading the configuration, setting
+ * up each settings line, converting each message, and promoting keys
+ * to faster engines, together with a periodic count of characters
+ * converted per second.  Loading an event class starts up the
+ * recorder's metadata, which takes longer than a short run does, so
+ * events are created only once the flight recorder has been
+ * initialized, whether at startup or later by jcmd; until then, the
+ * standing cost is a volatile read per event and adding each message's
+ * length to a LongAdder.  Message events have a threshold, so by
+ * default only the slower messages are recorded.
+ *
+ * @author charlesellis
+ */
+final class EnigmaEvents {
+
+    /**
+     * Not instantiable.
+     */
+    private EnigmaEvents() {
+    }
+
+    /**
+     * Return true iff the flight recorder has been initialized, so that
+     * events may be recorded.
+     */
+    static boolean enabled() {
+        return _enabled;
+    }
+
+    /**
+     * Record that N characters have been converted, for the periodic
+     * Throughput event.
+     */
+    static void converted(int n) {
+        CHARACTERS.add(n);
+    }
+
+    /**
+     * Reading a configuration file or rotor catalog.  Rotors are
+     * compiled as they are first used, so this covers the pass over
+     * the rotor descriptions but not the compilation of their wirings.
+     */
+    @Name("enigma.ConfigLoad")
+    @Label("Configuration Load")
+    @Category("Enigma")
+    static final class ConfigLoad extends Event {
+        /**
+         * Name of the configuration.
+         */
+        @Label("Source")
+        String source;
+        /**
+         * Number of rotors described.
+         */
+        @Label("Rotors")
+        int rotors;
+        /**
+         * Size of the configuration.
+         */
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Starting a message under a settings line.
+     */
+    @Name("enigma.SetUp")
+    @Label("Settings Line")
+    @Category("Enigma")
+    static final class SetUp extends Event {
+        /**
+         * Name of the input.
+         */
+        @Label("Source")
+        String source;
+        /**
+         * Line number of the settings line in the input.
+         */
+        @Label("Line")
+        int line;
+        /**
+         * Names of the rotors, separated by blanks.
+         */
+        @Label("Rotors")
+        String rotors;
+        /**
+         * True iff the keystream cache held the settings line, so the
+         * machine was not set up.
+         */
+        @Label("Cached")
+        @Description("The keystream of the settings line was cached")
+        boolean cached;
+    }
+
+    /**
+     * Converting one message line.
+     */
+    @Name("enigma.Encryption")
+    @Label("Message Conversion")
+    @Category("Enigma")
+    @Threshold("1 ms")
+    static final class Encryption extends Event {
+        /**
+         * Number of characters converted.
+         */
+        @Label("Characters")
+        int characters;
+    }
+
+    /**
+     * The promotion of a key to a faster engine (see EngineTiers).
+     */
+    @Name("enigma.Promotion")
+    @Label("Engine Promotion")
+    @Category("Enigma")
+    static final class Promotion extends Event {
+        /**
+         * Engine promoted to, "compiled" or "keystream".
+         */
+        @Label("Engine")
+        String engine;
+        /**
+         * Letters converted under the key so far.
+         */
+        @Label("Letters")
+        long letters;
+    }
+
+    /**
+     * The rate at which characters were converted since the last
+     * such event.
+     */
+    @Name("enigma.Throughput")
+    @Label("Conversion Throughput")
+    @Category("Enigma")
+    @Period("1 s")
+    static final class Throughput extends Event {
+        /**
+         * Characters converted since the last event.
+         */
+        @Label("Characters")
+        long characters;
+        /**
+         * Characters converted per second since the last event.
+         */
+        @Label("Rate")
+        @Frequency
+        double rate;
+    }
+
+    /**
+     * Commit a Throughput event for the characters converted since the
+     * last one.  Called by the recorder, on one thread.
+     */
+    private static void throughput() {
+        long now = System.nanoTime();
+        long total = CHARACTERS.sum();
+        Throughput event = new Throughput();
+        event.characters = total - _lastCharacters;
+        event.rate = now == _lastTime ? 0
+            : event.characters * 1e9 / (now - _lastTime);
+        event.commit();
+        _lastCharacters = total;
+        _lastTime = now;
+    }
+
+    /**
+     * Characters converted in all.
+     */
+    private static final LongAdder CHARACTERS = new LongAdder();
+    /**
+     * Value of CHARACTERS at the last Throughput event.
+     */
+    private static long _lastCharacters;
+    /**
+     * Time of the last Throughput event, as from System.nanoTime.
+     */
+    private static long _lastTime = System.nanoTime();
+    /**
+     * True iff the flight recorder has been initialized.
+     */
+    private static volatile boolean _enabled;
+
+    static {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                FlightRecorder.addPeriodicEvent(Throughput.class,
+                        EnigmaEvents::throughput);
+                _enabled = true;
+            }
+        });
+    }
+}
@@ -0,0 +1,117 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingStream;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the flight recorder events of
+ * EnigmaEvents.
+ *
+ * @author charlesellis
+ */
+public class EnigmaEventsTest {
+
+    /**
+     * Return the events named NAME among EVENTS.
+     */
+    private List<RecordedEvent> named(Map<String, List<RecordedEvent>> events,
+                                      String name) {
+        return events.getOrDefault(name, List.of());
+    }
+
+    @Test(timeout = 60000)
+    public void testEvents() throws IOException, InterruptedException {
+        File config = tempFile(".conf", DEFAULT_CONFIG);
+        File input = File.createTempFile("events", ".in");
+        File output = File.createTempFile("events", ".out");
+        File profile = File.createTempFile("events", ".profile");
+        new EngineTiers(0, 0).save(profile.getPath());
+        Files.writeString(input.toPath(),
+                "* B Beta III IV I AXLE (YF) (ZH)\n"
+                + "HELLO WORLD\n"
+                + "\n"
+                + "* B Beta III IV I AXLE (YF) (ZH)\n"
+                + "HELLO WORLD\n"
+                + "* B Beta III IV I AXLE (YF) (ZH)\n"
+                + "HELLO WORLD\n"
+                + "* B Beta I II III AAAA\n"
+                + "FROM HIS SHOULDER HIAWATHA\n");
+        Map<String, List<RecordedEvent>> events = new ConcurrentHashMap<>();
+        CountDownLatch recorded = new CountDownLatch(1 + 4 + 4 + 1);
+        CountDownLatch throughput = new CountDownLatch(1);
+        try (RecordingStream stream = new RecordingStream()) {
+            for (String name : new String[] {"enigma.ConfigLoad",
+                    "enigma.SetUp", "enigma.Encryption",
+                    "enigma.Promotion"}) {
+                stream.enable(name).withThreshold(Duration.ZERO);
+            }
+            stream.enable("enigma.Throughput")
+                .withPeriod(Duration.ofMillis(100));
+            stream.onEvent(event -> {
+                events.computeIfAbsent(event.getEventType().getName(),
+                        name -> new CopyOnWriteArrayList<>()).add(event);
+                if (!event.getEventType().getName()
+                    .equals("enigma.Throughput")) {
+                    recorded.countDown();
+                } else if (event.getLong("characters") > 0) {
+                    throughput.countDown();
+                }
+            });
+            stream.startAsync();
+            runMain("--engine-profile=" + profile.getPath(),
+                    config.getPath(), input.getPath(), output.getPath());
+            assertTrue(recorded.await(30, TimeUnit.SECONDS));
+            assertTrue(throughput.await(30, TimeUnit.SECONDS));
+        } finally {
+            input.delete();
+            output.delete();
+            profile.delete();
+        }
+
+        List<RecordedEvent> loads = named(events, "enigma.ConfigLoad");
+        assertEquals(1, loads.size());
+        assertEquals(config.getPath(), loads.get(0).getString("source"));
+        assertTrue(loads.get(0).getInt("rotors") >= 12);
+        assertEquals(config.length(), loads.get(0).getLong("bytes"));
+
+        List<RecordedEvent> setUps = named(events, "enigma.SetUp");
+        assertEquals(4, setUps.size());
+        setUps.sort((a, b) -> a.getInt("line") - b.getInt("line"));
+        assertEquals(1, setUps.get(0).getInt("line"));
+        assertEquals("B Beta III IV I", setUps.get(0).getString("rotors"));
+        assertFalse(setUps.get(0).getBoolean("cached"));
+        assertEquals(4, setUps.get(1).getInt("line"));
+        assertFalse(setUps.get(1).getBoolean("cached"));
+        assertEquals(6, setUps.get(2).getInt("line"));
+        assertTrue(setUps.get(2).getBoolean("cached"));
+        assertEquals("B Beta I II III", setUps.get(3).getString("rotors"));
+
+        List<RecordedEvent> messages = named(events, "enigma.Encryption");
+        assertEquals(4, messages.size());
+        assertEquals(3 * 10 + 23, messages.stream()
+                     .mapToInt(e -> e.getInt("characters")).sum());
+
+        List<RecordedEvent> promotions = named(events, "enigma.Promotion");
+        assertEquals(1, promotions.size());
+        assertEquals("keystream", promotions.get(0).getString("engine"));
+        assertEquals(10, promotions.get(0).getLong("letters"));
+    }
+
+}
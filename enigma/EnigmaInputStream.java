@@ -0,0 +1,79 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * An InputStream that converts the bytes read from another stream with
+ * a Machine, as an EnigmaReader converts characters.  Each byte is
+ * taken as the ISO-8859-1 character with the same value, so the
+ * machine's alphabet must lie within that character set.  Bulk reads
+ * allocate nothing.
+ *
+ * @author charlesellis
+ */
+class EnigmaInputStream extends InputStream {
+
+    /**
+     * A stream converting the bytes of IN with MACHINE, formatted in
+     * groups iff GROUPED.
+     */
+    EnigmaInputStream(InputStream in, Machine machine, boolean grouped) {
+        _reader = new EnigmaReader(new InputStreamReader(in, ISO_8859_1),
+                machine, grouped);
+    }
+
+    /**
+     * A stream converting the bytes of IN with MACHINE.
+     */
+    EnigmaInputStream(InputStream in, Machine machine) {
+        this(in, machine, false);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return _reader.read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        int n = 0;
+        do {
+            int got = _reader.read(_chars, 0,
+                    Math.min(len - n, _chars.length));
+            if (got < 0) {
+                break;
+            }
+            for (int i = 0; i < got; i++) {
+                b[off + n + i] = (byte) _chars[i];
+            }
+            n += got;
+        } while (n < len && _reader.ready());
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return _reader.skip(n);
+    }
+
+    @Override
+    public void close() throws IOException {
+        _reader.close();
+    }
+
+    /**
+     * Converting reader over the underlying stream.
+     */
+    private final EnigmaReader _reader;
+    /**
+     * Converted characters on their way to the caller.
+     */
+    private final char[] _chars = new char[EnigmaReader.BUFFER_SIZE];
+}
@@ -0,0 +1,73 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * An OutputStream that converts bytes with a Machine before writing
+ * them to another stream, as an EnigmaWriter converts characters.
+ * Each byte is taken as the ISO-8859-1 character with the same value,
+ * so the machine's alphabet must lie within that character set.  Bulk
+ * writes allocate nothing.
+ *
+ * @author charlesellis
+ */
+class EnigmaOutputStream extends OutputStream {
+
+    /**
+     * A stream converting bytes with MACHINE onto OUT, formatted in
+     * groups iff GROUPED.
+     */
+    EnigmaOutputStream(OutputStream out, Machine machine,
+                       boolean grouped) {
+        _writer = new EnigmaWriter(new OutputStreamWriter(out, ISO_8859_1),
+                machine, grouped);
+    }
+
+    /**
+     * A stream converting bytes with MACHINE onto OUT.
+     */
+    EnigmaOutputStream(OutputStream out, Machine machine) {
+        this(out, machine, false);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        _writer.write(b & 0xff);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _chars.length);
+            for (int i = 0; i < n; i++) {
+                _chars[i] = (char) (b[off + i] & 0xff);
+            }
+            _writer.write(_chars, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        _writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _writer.close();
+    }
+
+    /**
+     * Converting writer onto the underlying stream.
+     */
+    private final EnigmaWriter _writer;
+    /**
+     * Bytes widened to characters on their way to _writer.
+     */
+    private final char[] _chars = new char[EnigmaWriter.BUFFER_SIZE];
+}
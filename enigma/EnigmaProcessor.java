@@ -0,0 +1,335 @@
+package enigma;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A reactive stage that encrypts lines as Main does.  Each upstream
+ * item is a line of input: a settings line (first token "*") sets up
+ * the machine, and any other line is converted and formatted in groups
+ * of five, as Main.printMessageLine would print it.  Formatted lines,
+ * each ending in a newline, are gathered into chunks of up to about
+ * CHUNKSIZE characters, and the chunks are published to a single
+ * subscriber.
+ *
+ * Items are requested from upstream BATCH at a time, and only while the
+ * subscriber has unmet demand and no chunk is waiting, so a slow
+ * subscriber holds back the upstream publisher rather than filling a
+ * buffer.  The chunk under construction is published when it is full
+ * or when the last item of a batch arrives.
+ *
+ * @author charlesellis
+ */
+class EnigmaProcessor implements Flow.Processor<String, String> {
+
+    /**
+     * A processor converting with MACHINE, requesting BATCH items from
+     * upstream at a time and publishing chunks of about CHUNKSIZE
+     * characters.
+     */
+    EnigmaProcessor(Machine machine, int batch, int chunkSize) {
+        if (batch <= 0 || chunkSize <= 0) {
+            throw new IllegalArgumentException("bad batch or chunk size");
+        }
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _batch = batch;
+        _chunkSize = chunkSize;
+        _pending = new StringBuilder(chunkSize + 64);
+    }
+
+    /**
+     * A processor converting with MACHINE, with default batch and chunk
+     * sizes.
+     */
+    EnigmaProcessor(Machine machine) {
+        this(machine, DEFAULT_BATCH, DEFAULT_CHUNK);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super String> subscriber) {
+        if (_downstream != null) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException(
+                    "EnigmaProcessor allows only one subscriber"));
+            return;
+        }
+        _downstream = subscriber;
+        subscriber.onSubscribe(new Subscription());
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (_upstream != null) {
+            subscription.cancel();
+            return;
+        }
+        _upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (_done) {
+            return;
+        }
+        try {
+            if (Main.isSettings(line)) {
+                _machine.setUp(line);
+                _setUp = true;
+            } else if (!_setUp) {
+                throw error("input does not start with settings");
+            } else {
+                format(line);
+            }
+        } catch (EnigmaException excp) {
+            _upstream.cancel();
+            onError(excp);
+            return;
+        }
+        if (_outstanding.decrementAndGet() <= 0
+            || _pending.length() >= _chunkSize) {
+            flush();
+        }
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        if (_done) {
+            return;
+        }
+        flush();
+        _error = error;
+        _done = true;
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        if (_done) {
+            return;
+        }
+        flush();
+        _done = true;
+        drain();
+    }
+
+    /**
+     * Convert message line LINE and append it, in groups of five, to
+     * the chunk under construction.
+     */
+    private void format(String line) {
+        int count = 0;
+        for (int i = 0; i < line.length(); ) {
+            int ch = line.codePointAt(i);
+            i += Character.charCount(ch);
+            if (_alphabet.contains(ch)) {
+                _pending.appendCodePoint(_alphabet.toCodePoint(
+                        _machine.convert(_alphabet.toInt(ch))));
+                count += 1;
+                if (count % 5 == 0) {
+                    _pending.append(' ');
+                }
+            }
+        }
+        _pending.append('\n');
+    }
+
+    /**
+     * Queue the chunk under construction for publication, if it is not
+     * empty.
+     */
+    private void flush() {
+        if (_pending.length() > 0) {
+            _ready.offer(_pending.toString());
+            _pending.setLength(0);
+        }
+    }
+
+    /**
+     * Deliver ready chunks while there is demand, deliver the terminal
+     * signal once everything is delivered, or at once for a
+     * non-positive request, and request more items from upstream when
+     * there is demand and nothing to deliver.  Only one
+     * thread drains at a time; a thread that finds another draining
+     * leaves it a note to go round again.
+     */
+    private void drain() {
+        if (_wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super String> downstream = _downstream;
+            if (downstream != null) {
+                if (_cancelled) {
+                    _ready.clear();
+                    return;
+                }
+                if (_requestError != null && !_terminated) {
+                    _terminated = true;
+                    _cancelled = true;
+                    _ready.clear();
+                    downstream.onError(_requestError);
+                    return;
+                }
+                long delivered = 0;
+                long demand = _demand.get();
+                while (delivered != demand && !_cancelled) {
+                    String chunk = _ready.poll();
+                    if (chunk == null) {
+                        break;
+                    }
+                    downstream.onNext(chunk);
+                    delivered += 1;
+                }
+                if (delivered > 0 && demand != Long.MAX_VALUE) {
+                    _demand.addAndGet(-delivered);
+                }
+                if (_done && _ready.isEmpty() && !_terminated) {
+                    _terminated = true;
+                    if (_error != null) {
+                        downstream.onError(_error);
+                    } else {
+                        downstream.onComplete();
+                    }
+                } else if (!_done && _upstream != null
+                           && _demand.get() > 0 && _ready.isEmpty()
+                           && _outstanding.get() <= 0) {
+                    _outstanding.set(_batch);
+                    _upstream.request(_batch);
+                }
+            }
+            missed = _wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * The subscription handed to my subscriber.
+     */
+    private class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (_upstream != null) {
+                    _upstream.cancel();
+                }
+                _requestError = new IllegalArgumentException(
+                        "non-positive request");
+                drain();
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = _demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!_demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            if (_upstream != null) {
+                _upstream.cancel();
+            }
+        }
+    }
+
+    /**
+     * Default number of items requested from upstream at a time.
+     */
+    static final int DEFAULT_BATCH = 64;
+    /**
+     * Default chunk size, in characters.
+     */
+    static final int DEFAULT_CHUNK = 8192;
+
+    /**
+     * Machine doing the conversions.
+     */
+    private final Machine _machine;
+    /**
+     * Alphabet of _machine.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Number of items requested from upstream at a time.
+     */
+    private final int _batch;
+    /**
+     * Size at which a chunk is published.
+     */
+    private final int _chunkSize;
+    /**
+     * The chunk under construction.  Touched only by upstream signals,
+     * which arrive one at a time.
+     */
+    private final StringBuilder _pending;
+    /**
+     * Chunks waiting for demand.
+     */
+    private final ConcurrentLinkedQueue<String> _ready =
+        new ConcurrentLinkedQueue<>();
+    /**
+     * Unmet demand of my subscriber.
+     */
+    private final AtomicLong _demand = new AtomicLong();
+    /**
+     * Items requested from upstream and not yet received.
+     */
+    private final AtomicLong _outstanding = new AtomicLong();
+    /**
+     * Count of pending drain requests.
+     */
+    private final AtomicInteger _wip = new AtomicInteger();
+    /**
+     * Upstream subscription, or null before onSubscribe.
+     */
+    private volatile Flow.Subscription _upstream;
+    /**
+     * My subscriber, or null before subscribe.
+     */
+    private volatile Flow.Subscriber<? super String> _downstream;
+    /**
+     * True once upstream has completed or failed.
+     */
+    private volatile boolean _done;
+    /**
+     * True once a settings line has set up _machine.  Touched only by
+     * upstream signals.
+     */
+    private boolean _setUp;
+    /**
+     * Upstream failure, if any.
+     */
+    private volatile Throwable _error;
+    /**
+     * Failure of a non-positive request by my subscriber, if any.
+     */
+    private volatile Throwable _requestError;
+    /**
+     * True once my subscriber has cancelled.
+     */
+    private volatile boolean _cancelled;
+    /**
+     * True once a terminal signal has been delivered.
+     */
+    private boolean _terminated;
+}
@@ -0,0 +1,151 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Compares the throughput of an EnigmaProcessor pipeline with that of
+ * a pair of threads handing lines and results over blocking queues.
+ * Usage: java enigma.EnigmaProcessorBenchmark CONFIG [MESSAGES]
+ *
+ * @author charlesellis
+ */
+public final class EnigmaProcessorBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) throws Exception {
+        String config = args.length > 0 ? args[0]
+            : "testing/correct/default.conf";
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 500_000;
+        String[] lines = messages(count);
+        for (int round = 0; round < 3; round += 1) {
+            report("flow", lines, flow(Main.machine(config), lines));
+            report("queue", lines, queue(Main.machine(config), lines));
+        }
+    }
+
+    /** Return COUNT short random message lines under one key. */
+    private static String[] messages(int count) {
+        Random random = new Random(42);
+        String[] lines = new String[count + 1];
+        lines[0] = "* B Beta I II III AAAA (AB) (CD)";
+        for (int i = 1; i <= count; i += 1) {
+            char[] msg = new char[10 + random.nextInt(40)];
+            for (int k = 0; k < msg.length; k += 1) {
+                msg[k] = (char) ('A' + random.nextInt(26));
+            }
+            lines[i] = new String(msg);
+        }
+        return lines;
+    }
+
+    /** Print the throughput of converting LINES in NANOS under NAME. */
+    private static void report(String name, String[] lines, long nanos) {
+        long chars = 0;
+        for (String line : lines) {
+            chars += line.length();
+        }
+        System.out.printf("%-6s %8.0f msgs/s %10.0f chars/s%n", name,
+                lines.length * 1e9 / nanos, chars * 1e9 / nanos);
+    }
+
+    /** Return the time taken to push LINES through an EnigmaProcessor
+     *  using MACHINE. */
+    private static long flow(Machine machine, String[] lines)
+        throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        EnigmaProcessor processor = new EnigmaProcessor(machine);
+        processor.subscribe(new Flow.Subscriber<String>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(String chunk) {
+                _sink += chunk.length();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                error.printStackTrace();
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+        long start = System.nanoTime();
+        try (SubmissionPublisher<String> publisher =
+                 new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (String line : lines) {
+                publisher.submit(line);
+            }
+        }
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    /** Return the time taken to convert LINES with MACHINE on a worker
+     *  thread fed by, and feeding, blocking queues. */
+    private static long queue(Machine machine, String[] lines)
+        throws InterruptedException {
+        BlockingQueue<String> in = new ArrayBlockingQueue<>(1024);
+        BlockingQueue<String> out = new ArrayBlockingQueue<>(1024);
+        Thread worker = new Thread(() -> {
+            try {
+                for (String line = in.take(); line != END;
+                     line = in.take()) {
+                    if (Main.isSettings(line)) {
+                        machine.setUp(line);
+                        continue;
+                    }
+                    String msg = machine.convert(line).replace(" ", "");
+                    StringBuilder result = new StringBuilder();
+                    for (int i = 0; i < msg.length(); i += 1) {
+                        result.append(msg.charAt(i));
+                        if ((i + 1) % 5 == 0) {
+                            result.append(' ');
+                        }
+                    }
+                    out.put(result.toString());
+                }
+                out.put(END);
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Thread consumer = new Thread(() -> {
+            try {
+                for (String chunk = out.take(); chunk != END;
+                     chunk = out.take()) {
+                    _sink += chunk.length();
+                }
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        long start = System.nanoTime();
+        worker.start();
+        consumer.start();
+        for (String line : lines) {
+            in.put(line);
+        }
+        in.put(END);
+        consumer.join();
+        return System.nanoTime() - start;
+    }
+
+    /** Marks the end of the lines in a queue. */
+    private static final String END = new String("END");
+
+    /** Defeats dead-code elimination. */
+    private static volatile long _sink;
+}
@@ -0,0 +1,208 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the EnigmaProcessor class.
+ *
+ * @author charlesellis
+ */
+public class EnigmaProcessorTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine holding the naval rotors. */
+    private Machine machine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                UPPER)));
+        rotors.add(new FixedRotor("Beta", new Permutation(
+                NAVALA.get("Beta"), UPPER)));
+        String[] names = {"I", "II", "III"};
+        for (int i = 0; i < names.length; i += 1) {
+            rotors.add(new MovingRotor(names[i], new Permutation(
+                    NAVALA.get(names[i]), UPPER), "QEV".substring(i, i + 1)));
+        }
+        return new Machine(UPPER, 5, 3, rotors);
+    }
+
+    /** A subscriber that collects what it receives, requesting one
+     *  chunk at a time. */
+    private static class Collector implements Flow.Subscriber<String> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(String chunk) {
+            _received.append(chunk);
+            _chunks += 1;
+            _subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            _error = error;
+            _finished.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            _finished.countDown();
+        }
+
+        Flow.Subscription _subscription;
+        StringBuilder _received = new StringBuilder();
+        int _chunks;
+        Throwable _error;
+        CountDownLatch _finished = new CountDownLatch(1);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesMachine() throws InterruptedException {
+        String[] lines = {
+            "* B Beta I II III AAAA (AB)",
+            "HELLO WORLD",
+            "",
+            "THE QUICK BROWN FOX",
+            "* B Beta III II I QRST",
+            "JUMPS OVER THE LAZY DOG",
+        };
+        StringBuilder expected = new StringBuilder();
+        Machine direct = machine();
+        for (String line : lines) {
+            if (line.startsWith("*")) {
+                direct.setUp(line);
+                continue;
+            }
+            String msg = direct.convert(line).replace(" ", "");
+            for (int i = 0; i < msg.length(); i += 1) {
+                expected.append(msg.charAt(i));
+                if ((i + 1) % 5 == 0) {
+                    expected.append(' ');
+                }
+            }
+            expected.append('\n');
+        }
+
+        EnigmaProcessor processor = new EnigmaProcessor(machine(), 2, 16);
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        try (SubmissionPublisher<String> publisher =
+                 new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            for (String line : lines) {
+                publisher.submit(line);
+            }
+        }
+        assertTrue(collector._finished.await(5, TimeUnit.SECONDS));
+        assertNull(collector._error);
+        assertEquals(expected.toString(), collector._received.toString());
+        assertTrue("items not batched", collector._chunks < lines.length);
+    }
+
+    @Test
+    public void testBadSettings() throws InterruptedException {
+        EnigmaProcessor processor = new EnigmaProcessor(machine());
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        try (SubmissionPublisher<String> publisher =
+                 new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            publisher.submit("* B Beta I II NOSUCH AAAA");
+            publisher.submit("HELLO");
+        }
+        assertTrue(collector._finished.await(5, TimeUnit.SECONDS));
+        assertTrue(collector._error instanceof EnigmaException);
+    }
+
+    @Test
+    public void testMessageBeforeSettings() throws InterruptedException {
+        EnigmaProcessor processor = new EnigmaProcessor(machine());
+        Collector collector = new Collector();
+        processor.subscribe(collector);
+        try (SubmissionPublisher<String> publisher =
+                 new SubmissionPublisher<>()) {
+            publisher.subscribe(processor);
+            publisher.submit("HELLO");
+            publisher.submit("* B Beta I II III AAAA");
+            publisher.submit("WORLD");
+        }
+        assertTrue(collector._finished.await(5, TimeUnit.SECONDS));
+        assertTrue(collector._error instanceof EnigmaException);
+        assertEquals("input does not start with settings",
+                     collector._error.getMessage());
+        assertEquals("", collector._received.toString());
+    }
+
+    /** A subscriber that makes a non-positive request from inside
+     *  onNext, and notes whether onError arrives while it is there. */
+    private static class BadRequester extends Collector {
+        @Override
+        public void onNext(String chunk) {
+            _inside = true;
+            super.onNext(chunk);
+            _subscription.request(0);
+            _inside = false;
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            _overlapped |= _inside;
+            _errors += 1;
+            super.onError(error);
+        }
+
+        boolean _inside;
+        boolean _overlapped;
+        int _errors;
+    }
+
+    @Test
+    public void testNonPositiveRequest() {
+        EnigmaProcessor processor = new EnigmaProcessor(machine(), 1, 16);
+        boolean[] cancelled = new boolean[1];
+        processor.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+                cancelled[0] = true;
+            }
+        });
+        BadRequester requester = new BadRequester();
+        processor.subscribe(requester);
+        processor.onNext("* B Beta I II III AAAA");
+        processor.onNext("HELLO");
+        processor.onNext("WORLD");
+        processor.onComplete();
+        assertEquals(1, requester._chunks);
+        assertEquals(1, requester._errors);
+        assertTrue(requester._error instanceof IllegalArgumentException);
+        assertFalse("onError inside onNext", requester._overlapped);
+        assertTrue(cancelled[0]);
+    }
+
+}
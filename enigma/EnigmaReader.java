@@ -0,0 +1,135 @@
+package enigma;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A Reader that converts the characters read from another Reader with
+ * a Machine, optionally formatting them in groups of five as Main
+ * does.  The machine's rotors carry over from one read to the next.
+ * Bulk reads allocate nothing.
+ *
+ * @author charlesellis
+ */
+class EnigmaReader extends FilterReader {
+
+    /**
+     * A reader converting the characters of IN with MACHINE, formatted
+     * in groups iff GROUPED.
+     */
+    EnigmaReader(Reader in, Machine machine, boolean grouped) {
+        super(in);
+        _converter = new StreamConverter(machine, grouped);
+        _buffer = grouped ? new char[BUFFER_SIZE] : null;
+    }
+
+    /**
+     * A reader converting the characters of IN with MACHINE.
+     */
+    EnigmaReader(Reader in, Machine machine) {
+        this(in, machine, false);
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = read(_single, 0, 1);
+        return n < 0 ? -1 : _single[0];
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!_converter.grouped()) {
+            int n = in.read(cbuf, off, len);
+            if (n > 0) {
+                _converter.machine().convert(cbuf, off, off + n);
+            }
+            return n;
+        }
+        int n = 0;
+        while (n < len) {
+            if (_next == _limit && !_converter.pending()) {
+                if (n > 0 && !in.ready()) {
+                    break;
+                }
+                int got = in.read(_buffer, 0, _buffer.length);
+                if (got < 0) {
+                    break;
+                }
+                _next = 0;
+                _limit = got;
+            }
+            _next += _converter.convert(_buffer, _next, _limit,
+                    cbuf, off + n, off + len);
+            n += _converter.produced();
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            int got = read(_skipBuffer, 0,
+                    (int) Math.min(n - skipped, _skipBuffer.length));
+            if (got < 0) {
+                break;
+            }
+            skipped += got;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return _next < _limit || _converter.pending() || in.ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset not supported");
+    }
+
+    /**
+     * Size of my internal buffers.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Conversion and grouping state.
+     */
+    private final StreamConverter _converter;
+    /**
+     * Unconverted characters read ahead when grouping, else null.
+     */
+    private final char[] _buffer;
+    /**
+     * Index of the next unconverted character in _buffer.
+     */
+    private int _next;
+    /**
+     * Number of characters in _buffer.
+     */
+    private int _limit;
+    /**
+     * Target of single-character reads.
+     */
+    private final char[] _single = new char[1];
+    /**
+     * Target of skipped characters.
+     */
+    private final char[] _skipBuffer = new char[BUFFER_SIZE];
+}
@@ -0,0 +1,160 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+/**
+ * The suite of all JUnit tests for the Enigma reader, writer, and
+ * stream classes.
+ *
+ * @author charlesellis
+ */
+public class EnigmaStreamTest {
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /** Return a machine holding the naval rotors, set to AXLE. */
+    private Machine machine() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                UPPER)));
+        rotors.add(new FixedRotor("Beta", new Permutation(
+                NAVALA.get("Beta"), UPPER)));
+        String[] names = {"I", "II", "III"};
+        for (int i = 0; i < names.length; i += 1) {
+            rotors.add(new MovingRotor(names[i], new Permutation(
+                    NAVALA.get(names[i]), UPPER), "QEV".substring(i, i + 1)));
+        }
+        Machine M = new Machine(UPPER, 5, 3, rotors);
+        M.setUp("* B Beta I II III AXLE (HQ) (EX) (IP) (TG) (BY)");
+        return M;
+    }
+
+    /** Return MSG converted and grouped line by line as Main does. */
+    private String grouped(String msg) {
+        Machine M = machine();
+        StringBuilder result = new StringBuilder();
+        for (String line : msg.split("\n", -1)) {
+            String converted = M.convert(line).replaceAll(" ", "");
+            for (int i = 0; i < converted.length(); i += 1) {
+                result.append(converted.charAt(i));
+                if ((i + 1) % 5 == 0) {
+                    result.append(' ');
+                }
+            }
+            result.append('\n');
+        }
+        result.setLength(result.length() - 1);
+        return result.toString();
+    }
+
+    /** Return everything read from IN, CHUNK characters at a time. */
+    private String readAll(Reader in, int chunk) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buf = new char[chunk];
+        int n;
+        while ((n = in.read(buf, 0, chunk)) >= 0) {
+            result.append(buf, 0, n);
+        }
+        return result.toString();
+    }
+
+    /** A message of LINES lines of varying length. */
+    private String message(int lines) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < lines; i += 1) {
+            if (i > 0) {
+                result.append('\n');
+            }
+            for (int j = 0; j < i % 23; j += 1) {
+                result.append((char) ('A' + (i * 7 + j) % 26));
+                if (j % 4 == 3) {
+                    result.append(j % 8 == 3 ? ' ' : ',');
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testReaderUngrouped() throws IOException {
+        String msg = message(200);
+        String expected = machine().convert(msg.replace('\n', '#'));
+        for (int chunk : new int[] {1, 3, 64, 1 << 16}) {
+            String got = readAll(new EnigmaReader(new StringReader(msg),
+                    machine()), chunk);
+            assertEquals(msg.length(), got.length());
+            for (int i = 0; i < got.length(); i += 1) {
+                char ch = msg.charAt(i);
+                if (UPPER.contains(ch)) {
+                    assertEquals(expected.charAt(i), got.charAt(i));
+                } else {
+                    assertEquals(ch, got.charAt(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReaderGrouped() throws IOException {
+        String msg = message(200);
+        String expected = grouped(msg);
+        for (int chunk : new int[] {1, 2, 5, 6, 7, 1 << 16}) {
+            assertEquals("chunk " + chunk, expected,
+                    readAll(new EnigmaReader(new StringReader(msg),
+                            machine(), true), chunk));
+        }
+    }
+
+    @Test
+    public void testWriterGrouped() throws IOException {
+        String msg = message(200);
+        StringWriter out = new StringWriter();
+        Writer w = new EnigmaWriter(out, machine(), true);
+        for (int i = 0; i < msg.length(); i += 11) {
+            w.write(msg, i, Math.min(11, msg.length() - i));
+        }
+        w.close();
+        assertEquals(grouped(msg), out.toString());
+    }
+
+    @Test
+    public void testByteStreamsRoundTrip() throws IOException {
+        byte[] plain = message(2000).getBytes(ISO_8859_1);
+        ByteArrayOutputStream cipher = new ByteArrayOutputStream();
+        OutputStream out = new EnigmaOutputStream(cipher, machine());
+        out.write(plain, 0, 100);
+        out.write(plain[100]);
+        out.write(plain, 101, plain.length - 101);
+        out.close();
+        assertEquals(plain.length, cipher.size());
+
+        InputStream in = new EnigmaInputStream(
+                new ByteArrayInputStream(cipher.toByteArray()), machine());
+        byte[] buf = new byte[1 << 16];
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        int n;
+        while ((n = in.read(buf, 0, buf.length)) >= 0) {
+            result.write(buf, 0, n);
+        }
+        assertArrayEquals(plain, result.toByteArray());
+    }
+
+}
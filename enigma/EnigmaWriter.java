@@ -0,0 +1,81 @@
+package enigma;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A Writer that converts characters with a Machine, optionally
+ * formatting them in groups of five as Main does, before writing them
+ * to another Writer.  The machine's rotors carry over from one write
+ * to the next.  Bulk writes allocate nothing.
+ *
+ * @author charlesellis
+ */
+class EnigmaWriter extends FilterWriter {
+
+    /**
+     * A writer converting characters with MACHINE onto OUT, formatted
+     * in groups iff GROUPED.
+     */
+    EnigmaWriter(Writer out, Machine machine, boolean grouped) {
+        super(out);
+        _converter = new StreamConverter(machine, grouped);
+    }
+
+    /**
+     * A writer converting characters with MACHINE onto OUT.
+     */
+    EnigmaWriter(Writer out, Machine machine) {
+        this(out, machine, false);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        _single[0] = (char) c;
+        write(_single, 0, 1);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end || _converter.pending()) {
+            off += _converter.convert(cbuf, off, end,
+                    _buffer, 0, _buffer.length);
+            out.write(_buffer, 0, _converter.produced());
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            int n = Math.min(end - off, _chars.length);
+            str.getChars(off, off + n, _chars, 0);
+            write(_chars, 0, n);
+            off += n;
+        }
+    }
+
+    /**
+     * Size of my internal buffers.
+     */
+    static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Conversion and grouping state.
+     */
+    private final StreamConverter _converter;
+    /**
+     * Converted characters on their way to out.
+     */
+    private final char[] _buffer = new char[BUFFER_SIZE];
+    /**
+     * Characters copied out of strings being written.
+     */
+    private final char[] _chars = new char[BUFFER_SIZE];
+    /**
+     * Source of single-character writes.
+     */
+    private final char[] _single = new char[1];
+}
@@ -17,6 +17,11 @@ class FixedRotor extends Rotor {
         super(name, perm);
     }
 
+    @Override
+    Rotor copy() {
+        return new FixedRotor(name(), permutation());
+    }
+
     @Override
     boolean rotates() {
         return false;
@@ -0,0 +1,158 @@
+package enigma;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A table mapping each index 0 .. size-1 of an alphabet to another
+ * index, as used for permutations and rotor wirings.  Entries are
+ * held in a short[] (as unsigned values) when the alphabet has at most
+ * 65,535 characters, halving the footprint of the usual tables, and in
+ * an int[] otherwise.  A table may instead be a read-only view of
+ * entries laid out the same way in a ByteBuffer, such as a
+ * RotorCatalog arena.
+ *
+ * @author charlesellis
+ */
+final class IndexTable {
+
+    /**
+     * A table of SIZE entries, all 0.
+     */
+    IndexTable(int size) {
+        if (size <= MAX_NARROW) {
+            _narrow = new short[size];
+            _wide = null;
+        } else {
+            _narrow = null;
+            _wide = new int[size];
+        }
+        _size = size;
+        _buffer = null;
+        _offset = 0;
+    }
+
+    /**
+     * A read-only view of the SIZE entries starting at byte OFFSET of
+     * BUFFER, each occupying entryBytes(SIZE) bytes.
+     */
+    IndexTable(ByteBuffer buffer, int offset, int size) {
+        _narrow = null;
+        _wide = null;
+        _size = size;
+        _buffer = buffer;
+        _offset = offset;
+    }
+
+    /**
+     * Return the number of bytes each entry of a table of SIZE entries
+     * occupies.
+     */
+    static int entryBytes(int size) {
+        return size <= MAX_NARROW ? 2 : 4;
+    }
+
+    /**
+     * A table holding the entries of VALUES.
+     */
+    IndexTable(int[] values) {
+        this(values.length);
+        for (int x = 0; x < values.length; x++) {
+            set(x, values[x]);
+        }
+    }
+
+    /**
+     * Return my number of entries.
+     */
+    int size() {
+        return _size;
+    }
+
+    /**
+     * Return entry X.
+     */
+    int get(int x) {
+        if (_narrow != null) {
+            return _narrow[x] & 0xffff;
+        } else if (_wide != null) {
+            return _wide[x];
+        } else if (_size <= MAX_NARROW) {
+            return _buffer.getShort(_offset + 2 * x) & 0xffff;
+        } else {
+            return _buffer.getInt(_offset + 4 * x);
+        }
+    }
+
+    /**
+     * Set entry X to V.
+     */
+    void set(int x, int v) {
+        if (_narrow != null) {
+            _narrow[x] = (short) v;
+        } else if (_wide != null) {
+            _wide[x] = v;
+        } else {
+            throw new UnsupportedOperationException("read-only table");
+        }
+    }
+
+    /**
+     * Return my entries as a new array.
+     */
+    int[] toArray() {
+        int[] result = new int[_size];
+        for (int x = 0; x < _size; x++) {
+            result[x] = get(x);
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of bytes my entries occupy.
+     */
+    long bytes() {
+        return (long) entryBytes(_size) * _size;
+    }
+
+    /**
+     * Store my entries into BUFFER starting at byte OFFSET, laid out
+     * as a view of them would expect.
+     */
+    void store(ByteBuffer buffer, int offset) {
+        if (_size <= MAX_NARROW) {
+            for (int x = 0; x < _size; x++) {
+                buffer.putShort(offset + 2 * x, (short) get(x));
+            }
+        } else {
+            for (int x = 0; x < _size; x++) {
+                buffer.putInt(offset + 4 * x, get(x));
+            }
+        }
+    }
+
+    /**
+     * Largest size held in a short[].
+     */
+    static final int MAX_NARROW = 65535;
+
+    /**
+     * Entries of a table of at most MAX_NARROW entries, else null.
+     */
+    private final short[] _narrow;
+    /**
+     * Entries of a larger table, else null.
+     */
+    private final int[] _wide;
+    /**
+     * Number of entries.
+     */
+    private final int _size;
+    /**
+     * Buffer holding the entries of a view, else null.
+     */
+    private final ByteBuffer _buffer;
+    /**
+     * Offset of the first entry of a view in _buffer.
+     */
+    private final int _offset;
+}
@@ -0,0 +1,418 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjLongConsumer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static enigma.EnigmaException.*;
+
+/**
+ * A known-plaintext search for the starting keys of a machine.  A
+ * search specification names the candidate reflectors, the fixed rotors
+ * and their settings, the candidate moving rotors, the ring settings
+ * and plugboard, and a crib with its ciphertext.  Every key (reflector,
+ * order of moving rotors, and start position) is numbered, reflector
+ * by reflector in KeySpace order, and a range of key numbers is tried
+ * by setting a machine to each key and converting the crib, stopping at
+ * the first letter that does not match the ciphertext.
+ *
+ * A specification is a sequence of whitespace-separated tokens:
+ *
+ *     reflectors B C
+ *     fixed Beta A
+ *     moving I II III IV V
+ *     rings AAAA
+ *     plugboard (AB) (CD)
+ *     crib WETTERVORHERSAGE
+ *     cipher QBLTWLDAHHYEOEFP
+ *
+ * where "fixed" is followed by name and setting pairs, and "rings" and
+ * "plugboard" may be left out.  The number of moving rotors in a key
+ * is the machine's number of pawls.
+ *
+ * Large searches are shared out by a SearchCoordinator among
+ * SearchWorkers, which may run in other processes and on other hosts.
+ * This class's main method runs either:
+ *
+ *     java enigma.KeySearch coordinate CONFIG SPEC PORT [CHECKPOINT]
+ *     java enigma.KeySearch work HOST:PORT [THREADS]
+ *     java enigma.KeySearch local CONFIG SPEC WORKERS [CHECKPOINT]
+ *
+ * The coordinator prints each key found as a settings line, and a
+ * report of each worker's throughput to the standard error.  "local"
+ * runs a coordinator on a free port of this host together with WORKERS
+ * worker processes.  The coordinator takes the options --lease=N (keys
+ * per lease, default 100000) and --lease-timeout=MS (default 60000),
+ * after which a lease not finished is handed out again.
+ *
+ * @author charlesellis
+ */
+public final class KeySearch {
+
+    /**
+     * A search on MACHINE, whose rotors are drawn on in turn, as SPEC
+     * describes.  SPEC is called SOURCE in error messages.
+     */
+    KeySearch(Machine machine, String source, String spec) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        Tokenizer s = new Tokenizer(source, spec.toCharArray(), 1);
+        ArrayList<String> reflectors = new ArrayList<>();
+        ArrayList<String> fixed = new ArrayList<>();
+        ArrayList<String> fixedSettings = new ArrayList<>();
+        ArrayList<String> moving = new ArrayList<>();
+        StringBuilder plugboard = new StringBuilder();
+        String crib = null;
+        String cipher = null;
+        String rings = null;
+        String section = null;
+        while (s.hasNext()) {
+            String token = s.next();
+            if (SECTIONS.contains(token)) {
+                section = token;
+                continue;
+            }
+            if (section == null) {
+                throw s.error("expected one of %s", SECTIONS);
+            }
+            switch (section) {
+            case "reflectors":
+                reflectors.add(token);
+                break;
+            case "fixed":
+                fixed.add(token);
+                fixedSettings.add(s.next("missing setting of " + token));
+                s.checkLetters(_alphabet, 0, "setting");
+                break;
+            case "moving":
+                moving.add(token);
+                break;
+            case "rings":
+                s.checkLetters(_alphabet, 0, "ring setting");
+                rings = token;
+                break;
+            case "plugboard":
+                plugboard.append(token).append(' ');
+                break;
+            case "crib":
+                s.checkLetters(_alphabet, 0, "crib letter");
+                crib = token;
+                break;
+            default:
+                s.checkLetters(_alphabet, 0, "cipher letter");
+                cipher = token;
+                break;
+            }
+        }
+        if (reflectors.isEmpty() || moving.isEmpty()
+            || crib == null || cipher == null) {
+            throw s.errorAhead("search needs reflectors, moving rotors, "
+                    + "crib and cipher");
+        }
+        _crib = indices(crib);
+        _cipher = indices(cipher);
+        if (_crib.length != _cipher.length) {
+            throw s.errorAhead("crib and cipher differ in length");
+        }
+        int slots = machine.numRotors();
+        if (1 + fixed.size() + machine.numPawls() != slots) {
+            throw s.errorAhead("search needs %d fixed rotors",
+                    slots - 1 - machine.numPawls());
+        }
+        _rings = rings != null ? rings
+            : Character.toString(_alphabet.toCodePoint(0))
+              .repeat(slots - 1);
+        if (_rings.codePointCount(0, _rings.length()) != slots - 1) {
+            throw s.errorAhead("search needs %d ring settings", slots - 1);
+        }
+        _plugboard = new Permutation(plugboard.toString(), _alphabet);
+        _plugboardText = plugboard.toString().trim();
+
+        Rotor[] fixedRotors = new Rotor[fixed.size()];
+        for (int i = 0; i < fixedRotors.length; i++) {
+            fixedRotors[i] = rotor(fixed.get(i));
+            fixedRotors[i].set(_alphabet.toInt(
+                    fixedSettings.get(i).codePointAt(0)));
+        }
+        List<Rotor> movingRotors = new ArrayList<>();
+        for (String name : moving) {
+            movingRotors.add(rotor(name));
+        }
+        _spaces = new KeySpace[reflectors.size()];
+        for (int r = 0; r < _spaces.length; r++) {
+            _spaces[r] = new KeySpace(rotor(reflectors.get(r)),
+                    fixedRotors, movingRotors, machine.numPawls());
+        }
+        _perReflector = _spaces[0].estimateSize();
+    }
+
+    /**
+     * Return the rotor named NAME of my machine.
+     */
+    private Rotor rotor(String name) {
+        Rotor result = _machine.rotor(name);
+        if (result == null) {
+            throw error("rotor %s not in collection", name);
+        }
+        return result;
+    }
+
+    /**
+     * Return the alphabet indices of the characters of TEXT.
+     */
+    private int[] indices(String text) {
+        return text.codePoints().map(_alphabet::toInt).toArray();
+    }
+
+    /**
+     * Return the number of keys in my search.
+     */
+    long size() {
+        return _perReflector * _spaces.length;
+    }
+
+    /**
+     * Try keys LO (inclusive) to HI (exclusive), passing the settings
+     * line and number of each key that converts the crib into the
+     * cipher to HITS.  Return the number of keys tried.
+     */
+    long search(long lo, long hi, ObjLongConsumer<String> hits) {
+        lo = Math.max(lo, 0);
+        hi = Math.min(hi, size());
+        for (long base = lo - lo % _perReflector; base < hi;
+             base += _perReflector) {
+            long first = base;
+            KeySpace space = _spaces[(int) (base / _perReflector)].range(
+                    Math.max(lo, base) - base,
+                    Math.min(hi, base + _perReflector) - base);
+            while (space.tryAdvance(c -> trial(first, c, hits))) {
+                continue;
+            }
+        }
+        return Math.max(hi - lo, 0);
+    }
+
+    /**
+     * Try candidate C, numbered BASE plus its index, passing it to HITS
+     * if it is a hit.
+     */
+    private void trial(long base, KeySpace.Candidate c,
+                       ObjLongConsumer<String> hits) {
+        String[] rotors = c.rotors();
+        if (!Arrays.equals(rotors, _inserted)) {
+            _machine.insertRotors(rotors);
+            _machine.setRings(_rings);
+            _machine.setPlugboard(_plugboard);
+            _inserted = rotors;
+        }
+        _machine.setRotors(c.setting());
+        for (int i = 0; i < _crib.length; i++) {
+            if (_machine.convert(_crib[i]) != _cipher[i]) {
+                return;
+            }
+        }
+        String line = "* " + String.join(" ", rotors) + " " + c.setting()
+            + " " + _rings;
+        if (!_plugboardText.isEmpty()) {
+            line += " " + _plugboardText;
+        }
+        hits.accept(line, base + c.index());
+    }
+
+    /**
+     * Run a coordinator, worker or local search, as described in the
+     * class comment, from ARGS.
+     */
+    public static void main(String... args) {
+        try {
+            ArrayList<String> files = new ArrayList<>();
+            long lease = DEFAULT_LEASE;
+            long timeout = DEFAULT_TIMEOUT;
+            for (String arg : args) {
+                if (arg.startsWith("--lease=")) {
+                    lease = Long.parseLong(arg.substring(8));
+                } else if (arg.startsWith("--lease-timeout=")) {
+                    timeout = Long.parseLong(arg.substring(16));
+                } else if (arg.startsWith("--")) {
+                    throw error("unknown option %s", arg);
+                } else {
+                    files.add(arg);
+                }
+            }
+            String mode = files.isEmpty() ? "" : files.get(0);
+            if (mode.equals("work") && files.size() >= 2) {
+                work(files.get(1),
+                     files.size() > 2 ? Integer.parseInt(files.get(2)) : 1);
+            } else if ((mode.equals("coordinate") || mode.equals("local"))
+                       && files.size() >= 4 && files.size() <= 5) {
+                String checkpoint = files.size() > 4 ? files.get(4) : null;
+                int number = Integer.parseInt(files.get(3));
+                boolean local = mode.equals("local");
+                coordinate(files.get(1), files.get(2), local ? 0 : number,
+                           local ? number : 0, checkpoint, lease, timeout);
+            } else {
+                throw error("usage: KeySearch coordinate CONFIG SPEC PORT "
+                        + "[CHECKPOINT] | work HOST:PORT [THREADS] | "
+                        + "local CONFIG SPEC WORKERS [CHECKPOINT]");
+            }
+        } catch (NumberFormatException excp) {
+            System.err.printf("Error: bad number: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Coordinate the search of the machine configured in file CONFIG
+     * described in file SPEC on PORT, checkpointing to CHECKPOINT if it
+     * is not null, in leases of LEASE keys that expire after TIMEOUT
+     * milliseconds, and starting WORKERS worker processes on this host.
+     * Print the hits.
+     */
+    private static void coordinate(String config, String spec, int port,
+                                   int workers, String checkpoint,
+                                   long lease, long timeout) {
+        ArrayList<Process> processes = new ArrayList<>();
+        try (SearchCoordinator coordinator = new SearchCoordinator(config,
+                read(config), read(spec), port, checkpoint, lease,
+                timeout)) {
+            coordinator.start();
+            String java = Paths.get(System.getProperty("java.home"),
+                    "bin", "java").toString();
+            for (int i = 0; i < workers; i++) {
+                processes.add(new ProcessBuilder(java, "-cp",
+                        System.getProperty("java.class.path"),
+                        KeySearch.class.getName(), "work",
+                        "localhost:" + coordinator.port())
+                        .inheritIO().start());
+            }
+            while (!coordinator.awaitDone(1, TimeUnit.SECONDS)) {
+                if (workers > 0
+                    && processes.stream().noneMatch(Process::isAlive)) {
+                    throw error("all workers have exited");
+                }
+            }
+            for (Map.Entry<Long, String> hit
+                     : coordinator.hits().entrySet()) {
+                System.out.println(hit.getValue());
+            }
+            System.err.print(coordinator.stats());
+        } catch (IOException excp) {
+            throw error("coordinator failed: %s", excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("interrupted");
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Run THREADS workers for the coordinator at ADDRESS, HOST:PORT,
+     * until the search is done.
+     */
+    private static void work(String address, int threads) {
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            throw error("worker needs HOST:PORT");
+        }
+        String host = address.substring(0, colon);
+        int port = Integer.parseInt(address.substring(colon + 1));
+        SearchWorker[] workers = new SearchWorker[threads];
+        Thread[] running = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new SearchWorker(host, port,
+                    ProcessHandle.current().pid() + "." + i);
+            running[i] = new Thread(workers[i]);
+            running[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            try {
+                running[i].join();
+            } catch (InterruptedException excp) {
+                throw error("interrupted");
+            }
+            if (workers[i].failure() != null) {
+                throw workers[i].failure();
+            }
+        }
+    }
+
+    /**
+     * Return the contents of the file named NAME.
+     */
+    private static String read(String name) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(name)), UTF_8);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /**
+     * Keywords starting each part of a search specification.
+     */
+    private static final List<String> SECTIONS =
+        List.of("reflectors", "fixed", "moving", "rings", "plugboard",
+                "crib", "cipher");
+    /**
+     * Default number of keys in a lease.
+     */
+    static final long DEFAULT_LEASE = 100_000;
+    /**
+     * Default lease timeout, in milliseconds.
+     */
+    static final long DEFAULT_TIMEOUT = 60_000;
+
+    /**
+     * Machine making the trials.
+     */
+    private final Machine _machine;
+    /**
+     * Alphabet of _machine.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Key spaces, by reflector.
+     */
+    private final KeySpace[] _spaces;
+    /**
+     * Number of keys per reflector.
+     */
+    private final long _perReflector;
+    /**
+     * Ring settings.
+     */
+    private final String _rings;
+    /**
+     * Plugboard.
+     */
+    private final Permutation _plugboard;
+    /**
+     * Plugboard cycles as written in the specification.
+     */
+    private final String _plugboardText;
+    /**
+     * Crib, as alphabet indices.
+     */
+    private final int[] _crib;
+    /**
+     * Ciphertext of the crib, as alphabet indices.
+     */
+    private final int[] _cipher;
+    /**
+     * Rotor names last inserted into _machine.
+     */
+    private String[] _inserted;
+}
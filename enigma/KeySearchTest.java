@@ -0,0 +1,201 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * The suite of all JUnit tests for KeySearch and its coordinator and
+ * workers.
+ *
+ * @author charlesellis
+ */
+public class KeySearchTest {
+
+    /**
+     * A configuration with four slots and two pawls.
+     */
+    private static final String CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 4 2\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " V MZ      (AVOLDRWFIUQ) (BZKSMNHYC) (EGTJPX)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n"
+        + " C R       (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "           (QZ) (SX) (UY)\n";
+
+    /**
+     * A search for the key "* C Beta IV II BCD AAA (AB) (XY)", which
+     * converts the crib below to the cipher.
+     */
+    private static final String SPEC =
+        "reflectors B C\nfixed Beta B\nmoving I II III IV V\n"
+        + "rings AAA\nplugboard (AB) (XY)\n"
+        + "crib WETTERVORHERSAGE\ncipher DZWWZWANPRJSTNEC\n";
+
+    /**
+     * The key searched for.
+     */
+    private static final String KEY = "* C Beta IV II BCD AAA (AB) (XY)";
+
+    /**
+     * Return a search on a fresh machine configured by CONFIG, as
+     * SPEC describes.
+     */
+    private KeySearch search(String spec) {
+        return new KeySearch(Main.machine("config", CONFIG.toCharArray()),
+                "spec", spec);
+    }
+
+    @Test
+    public void testSearch() {
+        KeySearch search = search(SPEC);
+        assertEquals(2 * 20 * 26 * 26, search.size());
+        SortedMap<Long, String> all = new TreeMap<>();
+        assertEquals(search.size(), search.search(0, search.size(),
+                (line, key) -> all.put(key, line)));
+        assertEquals(1, all.size());
+        assertEquals(KEY, all.get(all.firstKey()));
+
+        SortedMap<Long, String> pieces = new TreeMap<>();
+        long tried = 0;
+        for (long lo = 0; lo < search.size(); lo += 777) {
+            tried += search.search(lo, lo + 777,
+                    (line, key) -> pieces.put(key, line));
+        }
+        assertEquals(search.size(), tried);
+        assertEquals(all, pieces);
+    }
+
+    @Test
+    public void testRandomKeys() {
+        String[] moving = {"I", "II", "III", "IV", "V"};
+        String crib = "WETTERVORHERSAGE";
+        Random random = new Random(44);
+        for (int trial = 0; trial < 300; trial++) {
+            List<String> order = new ArrayList<>(Arrays.asList(moving));
+            Collections.shuffle(order, random);
+            List<String> chosen = order.subList(0, 2);
+            String reflector = random.nextBoolean() ? "B" : "C";
+            String setting = "B";
+            for (int i = 0; i < 2; i++) {
+                setting += (char) ('A' + random.nextInt(26));
+            }
+            String key = "* " + reflector + " Beta "
+                + String.join(" ", chosen) + " " + setting
+                + " AAA (AB) (XY)";
+            Machine machine = Main.machine("config", CONFIG.toCharArray());
+            machine.setUp(key);
+            String cipher = machine.convert(crib);
+            KeySearch search = search("reflectors B C\nfixed Beta B\n"
+                    + "moving " + String.join(" ", chosen) + "\n"
+                    + "rings AAA\nplugboard (AB) (XY)\n"
+                    + "crib " + crib + "\ncipher " + cipher + "\n");
+            List<String> hits = new ArrayList<>();
+            search.search(0, search.size(), (line, k) -> hits.add(line));
+            assertTrue(key + " not found", hits.contains(key));
+        }
+    }
+
+    @Test
+    public void testSpecErrors() {
+        String[] bad = {
+            "reflectors B moving I II crib A cipher B",
+            "reflectors B fixed Beta B moving I II rings AA "
+                + "crib A cipher B",
+            "reflectors B fixed Beta B moving I II crib AB cipher B",
+            "reflectors B fixed Gamma B moving I II crib A cipher B",
+            "fixed Beta B reflectors B moving I II crib A",
+            "B fixed Beta B",
+        };
+        for (String spec : bad) {
+            try {
+                search(spec);
+                fail("accepted " + spec);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testCoordinated() throws Exception {
+        try (SearchCoordinator coordinator = new SearchCoordinator(
+                "config", CONFIG, SPEC, 0, null, 1000, 200)) {
+            long[] stalled = coordinator.lease();
+            assertEquals(0, stalled[1]);
+            coordinator.start();
+            List<Thread> threads = new ArrayList<>();
+            List<SearchWorker> workers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                SearchWorker worker =
+                    new SearchWorker("localhost", coordinator.port(),
+                                     "w" + i);
+                workers.add(worker);
+                threads.add(new Thread(worker));
+                threads.get(i).start();
+            }
+            assertTrue(coordinator.awaitDone(50, TimeUnit.SECONDS));
+            long tried = 0;
+            for (int i = 0; i < threads.size(); i++) {
+                threads.get(i).join();
+                assertNull(workers.get(i).failure());
+                tried += workers.get(i).tried();
+            }
+            assertTrue(tried >= coordinator.size());
+            assertEquals(1, coordinator.hits().size());
+            assertEquals(KEY, coordinator.hits().values().iterator().next());
+            assertNull(coordinator.lease());
+        }
+    }
+
+    @Test
+    public void testCheckpoint() throws IOException {
+        File file = File.createTempFile("search", ".ckpt");
+        try {
+            try (SearchCoordinator first = new SearchCoordinator(
+                    "config", CONFIG, SPEC, 0, file.getPath(), 1000, 60000)) {
+                for (int i = 0; i < 5; i++) {
+                    long[] lease = first.lease();
+                    if (i != 2) {
+                        first.complete((int) lease[0], "w", 1000, 1);
+                    }
+                }
+                first.hit(42, "* hit");
+            }
+            try (SearchCoordinator second = new SearchCoordinator(
+                    "config", CONFIG, SPEC, 0, file.getPath(), 1000, 60000)) {
+                assertEquals("* hit", second.hits().get(42L));
+                assertEquals(2, second.lease()[0]);
+                assertEquals(5, second.lease()[0]);
+            }
+            try {
+                new SearchCoordinator("config", CONFIG,
+                        SPEC.replace("B C", "C"), 0, file.getPath(), 1000,
+                        60000).close();
+                fail("restored a checkpoint of another search");
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        } finally {
+            Files.deleteIfExists(file.toPath());
+        }
+    }
+
+}
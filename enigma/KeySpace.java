@@ -0,0 +1,465 @@
+package enigma;
+
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * An enumeration of the starting keys of a machine: every ordering of
+ * a set of moving rotors in the pawl slots, combined with every start
+ * position of those rotors.  Within one rotor order, positions are
+ * visited in reflected Gray-code order, so consecutive candidates
+ * differ in the setting of exactly one rotor, and only the part of the
+ * signal path from that rotor outwards is recomputed.  The enumeration
+ * splits into independent ranges for parallel streams.
+ *
+ * @author charlesellis
+ */
+class KeySpace implements Spliterator<KeySpace.Candidate> {
+
+    /**
+     * A key space for machines whose slots hold REFLECTOR, then the
+     * rotors FIXED at their current settings, then PAWLS distinct
+     * rotors drawn from MOVING in every order and at every position.
+     */
+    KeySpace(Rotor reflector, Rotor[] fixed, List<Rotor> moving,
+             int pawls) {
+        if (!reflector.reflecting()) {
+            throw error("first rotor isn't reflecting");
+        }
+        if (pawls < 1 || pawls > moving.size()) {
+            throw error("bad number of pawls");
+        }
+        _alphabet = reflector.alphabet();
+        _size = _alphabet.size();
+        _pawls = pawls;
+        _first = fixed.length + 1;
+        _slots = _first + pawls;
+
+        _names = new String[moving.size()];
+        _forward = new int[moving.size()][];
+        _backward = new int[moving.size()][];
+        for (int r = 0; r < moving.size(); r++) {
+            Rotor rotor = moving.get(r);
+            if (!rotor.rotates()) {
+                throw error("rotor %s does not rotate", rotor.name());
+            }
+            _names[r] = rotor.name();
+            _forward[r] = wiring(rotor, true);
+            _backward[r] = wiring(rotor, false);
+        }
+
+        _prefix = new String[_first];
+        _prefix[0] = reflector.name();
+        _fixedSettings = new int[fixed.length];
+        int[] level = wiring(reflector, true);
+        for (int j = 0; j < fixed.length; j++) {
+            Rotor rotor = fixed[j];
+            if (rotor.reflecting()) {
+                throw error("Non 1-rotors is reflecting");
+            }
+            _prefix[j + 1] = rotor.name();
+            _fixedSettings[j] = rotor.setting();
+            int[] next = new int[_size];
+            for (int x = 0; x < _size; x++) {
+                next[x] = rotor.convertBackward(
+                        level[rotor.convertForward(x)]);
+            }
+            level = next;
+        }
+        _base = level;
+
+        long positions = 1;
+        for (int i = 0; i < pawls; i++) {
+            positions *= _size;
+        }
+        long orders = 1;
+        for (int i = 0; i < pawls; i++) {
+            orders *= moving.size() - i;
+        }
+        _positions = positions;
+        _lo = 0;
+        _hi = orders * positions;
+    }
+
+    /**
+     * A key space sharing the rotor tables of BASE, covering candidate
+     * indices LO (inclusive) to HI (exclusive).
+     */
+    private KeySpace(KeySpace base, long lo, long hi) {
+        _alphabet = base._alphabet;
+        _size = base._size;
+        _pawls = base._pawls;
+        _first = base._first;
+        _slots = base._slots;
+        _names = base._names;
+        _forward = base._forward;
+        _backward = base._backward;
+        _prefix = base._prefix;
+        _fixedSettings = base._fixedSettings;
+        _base = base._base;
+        _positions = base._positions;
+        _lo = lo;
+        _hi = hi;
+    }
+
+    /**
+     * Return the table of ROTOR at setting 0, in the FORWARD direction
+     * or else backwards.
+     */
+    private static int[] wiring(Rotor rotor, boolean forward) {
+        int[] table = new int[rotor.size()];
+        for (int x = 0; x < table.length; x++) {
+            table[x] = forward ? rotor.wiring(x) : rotor.inverseWiring(x);
+        }
+        return table;
+    }
+
+    /**
+     * Return the number of candidates per rotor order.
+     */
+    long positions() {
+        return _positions;
+    }
+
+    /**
+     * Return a key space sharing my tables that covers just candidate
+     * indices LO (inclusive) to HI (exclusive) of my whole range.
+     */
+    KeySpace range(long lo, long hi) {
+        if (lo < 0 || lo > hi || hi > _positions * orders()) {
+            throw new IndexOutOfBoundsException("bad key range");
+        }
+        return new KeySpace(this, lo, hi);
+    }
+
+    /**
+     * Return the number of rotor orders.
+     */
+    private long orders() {
+        long result = 1;
+        for (int i = 0; i < _pawls; i++) {
+            result *= _names.length - i;
+        }
+        return result;
+    }
+
+    /**
+     * Return a stream of my remaining candidates, PARALLEL or not.
+     */
+    Stream<Candidate> stream(boolean parallel) {
+        return StreamSupport.stream(this, parallel);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Candidate> action) {
+        if (_lo >= _hi) {
+            return false;
+        }
+        long order = _lo / _positions;
+        long rank = _lo % _positions;
+        if (_levels == null || rank == 0) {
+            position(order, rank);
+        } else {
+            step(rank);
+        }
+        _lo += 1;
+        action.accept(new Candidate(_lo - 1, _rotorNames,
+                settingString(), _levels[_pawls].clone()));
+        return true;
+    }
+
+    @Override
+    public Spliterator<Candidate> trySplit() {
+        long remaining = _hi - _lo;
+        if (remaining < 2 * MIN_SPLIT) {
+            return null;
+        }
+        long mid = _lo + remaining / 2;
+        KeySpace prefix = new KeySpace(this, _lo, mid);
+        _lo = mid;
+        _levels = null;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return _hi - _lo;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    /**
+     * Set up the rotor order numbered ORDER at Gray-code position RANK,
+     * computing every level of the signal path from scratch.
+     */
+    private void position(long order, long rank) {
+        _chosen = new int[_pawls];
+        boolean[] used = new boolean[_names.length];
+        long rest = order;
+        long radix = 1;
+        for (int i = 1; i < _pawls; i++) {
+            radix *= _names.length - i;
+        }
+        for (int i = 0; i < _pawls; i++) {
+            int digit = (int) (rest / radix);
+            rest %= radix;
+            if (i + 1 < _pawls) {
+                radix /= _names.length - i - 1;
+            }
+            int r = 0;
+            while (used[r] || digit > 0) {
+                if (!used[r]) {
+                    digit -= 1;
+                }
+                r += 1;
+            }
+            used[r] = true;
+            _chosen[i] = r;
+        }
+        _rotorNames = new String[_slots];
+        System.arraycopy(_prefix, 0, _rotorNames, 0, _first);
+        for (int i = 0; i < _pawls; i++) {
+            _rotorNames[_first + i] = _names[_chosen[i]];
+        }
+        _digits = gray(rank);
+        _levels = new int[_pawls + 1][_size];
+        _levels[0] = _base;
+        recompute(0);
+    }
+
+    /**
+     * Move from the previous Gray-code position to RANK, which differs
+     * from it in exactly one digit, recomputing only the levels that
+     * depend on that digit.
+     */
+    private void step(long rank) {
+        int[] next = gray(rank);
+        int changed = 0;
+        while (next[changed] == _digits[changed]) {
+            changed += 1;
+        }
+        _digits = next;
+        recompute(changed);
+    }
+
+    /**
+     * Recompute the levels of the signal path for moving rotors FROM
+     * to the rightmost.  Level I+1 is the path seen by a signal entering
+     * the I-th moving rotor from the right.
+     */
+    private void recompute(int from) {
+        for (int i = from; i < _pawls; i++) {
+            int[] fwd = _forward[_chosen[i]];
+            int[] bwd = _backward[_chosen[i]];
+            int[] inner = _levels[i];
+            int[] outer = _levels[i + 1];
+            int s = _digits[i];
+            for (int x = 0; x < _size; x++) {
+                int y = wrap(fwd[wrap(x + s)] - s);
+                y = inner[y];
+                outer[x] = wrap(bwd[wrap(y + s)] - s);
+            }
+        }
+    }
+
+    /**
+     * Return the digits, most significant first, of position RANK in
+     * the reflected Gray code of _pawls digits base _size.
+     */
+    private int[] gray(long rank) {
+        int[] digits = new int[_pawls];
+        long rest = rank;
+        for (int i = _pawls - 1; i >= 0; i--) {
+            digits[i] = (int) (rest % _size);
+            rest /= _size;
+        }
+        boolean reversed = false;
+        for (int i = 0; i < _pawls; i++) {
+            int b = digits[i];
+            if (reversed) {
+                digits[i] = _size - 1 - b;
+            }
+            int carry = _size % 2 == 1 && reversed ? 1 : 0;
+            reversed = (carry + b) % 2 == 1;
+        }
+        return digits;
+    }
+
+    /**
+     * Return the settings of my current candidate as a setting string.
+     */
+    private String settingString() {
+        StringBuilder result = new StringBuilder();
+        for (int s : _fixedSettings) {
+            result.appendCodePoint(_alphabet.toCodePoint(s));
+        }
+        for (int d : _digits) {
+            result.appendCodePoint(_alphabet.toCodePoint(d));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Return P modulo the alphabet size.
+     */
+    private int wrap(int p) {
+        int r = p % _size;
+        return r < 0 ? r + _size : r;
+    }
+
+    /**
+     * One starting key and the signal path (without plugboard) through
+     * the machine with its rotors at that key.
+     */
+    static final class Candidate {
+
+        /**
+         * A candidate numbered INDEX that puts the rotors ROTORS at
+         * SETTING, where the signal path maps x to PATH[x].
+         */
+        Candidate(long index, String[] rotors, String setting,
+                  int[] path) {
+            _index = index;
+            _rotors = rotors;
+            _setting = setting;
+            _path = path;
+        }
+
+        /**
+         * Return my position in the key space.
+         */
+        long index() {
+            return _index;
+        }
+
+        /**
+         * Return the rotor names, reflector first, as accepted by
+         * Machine.insertRotors.
+         */
+        String[] rotors() {
+            return _rotors.clone();
+        }
+
+        /**
+         * Return my setting string, as accepted by Machine.setRotors.
+         */
+        String setting() {
+            return _setting;
+        }
+
+        /**
+         * Return the conversion of C by the rotors at my setting.
+         */
+        int convert(int c) {
+            return _path[c];
+        }
+
+        @Override
+        public String toString() {
+            return String.join(" ", _rotors) + " " + _setting;
+        }
+
+        /**
+         * Index of this candidate.
+         */
+        private final long _index;
+        /**
+         * Names of the rotors in slot order.
+         */
+        private final String[] _rotors;
+        /**
+         * Setting string.
+         */
+        private final String _setting;
+        /**
+         * Signal path through all rotors.
+         */
+        private final int[] _path;
+    }
+
+    /**
+     * Smallest range worth splitting off for another thread.
+     */
+    private static final long MIN_SPLIT = 1024;
+
+    /**
+     * Common alphabet of the rotors.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+    /**
+     * Number of moving rotors in a candidate.
+     */
+    private final int _pawls;
+    /**
+     * Slot index of the leftmost moving rotor.
+     */
+    private final int _first;
+    /**
+     * Total number of rotor slots, including the reflector.
+     */
+    private final int _slots;
+    /**
+     * Names of the candidate moving rotors.
+     */
+    private final String[] _names;
+    /**
+     * Forward tables of the candidate moving rotors at setting 0.
+     */
+    private final int[][] _forward;
+    /**
+     * Backward tables of the candidate moving rotors at setting 0.
+     */
+    private final int[][] _backward;
+    /**
+     * Names of the reflector and fixed rotors.
+     */
+    private final String[] _prefix;
+    /**
+     * Settings of the fixed rotors.
+     */
+    private final int[] _fixedSettings;
+    /**
+     * Signal path through the fixed rotors and the reflector.
+     */
+    private final int[] _base;
+    /**
+     * Number of positions per rotor order.
+     */
+    private final long _positions;
+    /**
+     * Index of my next candidate.
+     */
+    private long _lo;
+    /**
+     * Index just past my last candidate.
+     */
+    private long _hi;
+    /**
+     * Indices into _names of the moving rotors in the current order.
+     */
+    private int[] _chosen;
+    /**
+     * Rotor names of the current order.
+     */
+    private String[] _rotorNames;
+    /**
+     * Settings of the moving rotors at the current position.
+     */
+    private int[] _digits;
+    /**
+     * Partial signal paths, innermost first; null until positioned.
+     */
+    private int[][] _levels;
+}
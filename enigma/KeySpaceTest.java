@@ -0,0 +1,173 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the KeySpace class.
+ *
+ * @author charlesellis
+ */
+public class KeySpaceTest {
+
+    /** Testing time limit. */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(60);
+
+    /* ***** TESTING UTILITIES ***** */
+
+    private Rotor reflector = new Reflector("B",
+            new Permutation(NAVALA.get("B"), UPPER));
+    private Rotor beta = new FixedRotor("Beta",
+            new Permutation(NAVALA.get("Beta"), UPPER));
+    private List<Rotor> moving = new ArrayList<>();
+
+    {
+        for (String name : new String[] {"I", "II", "III", "IV", "V"}) {
+            moving.add(new MovingRotor(name,
+                    new Permutation(NAVALA.get(name), UPPER), ""));
+        }
+    }
+
+    /** Return the rotor named NAME. */
+    private Rotor rotor(String name) {
+        if (name.equals("B")) {
+            return reflector;
+        } else if (name.equals("Beta")) {
+            return beta;
+        }
+        for (Rotor r : moving) {
+            if (r.name().equals(name)) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    /** Check that C maps every letter as the rotors it names would. */
+    private void checkCandidate(KeySpace.Candidate c) {
+        String[] names = c.rotors();
+        Rotor[] slots = new Rotor[names.length];
+        for (int i = 0; i < names.length; i += 1) {
+            slots[i] = rotor(names[i]);
+            if (i > 0) {
+                slots[i].set(c.setting().charAt(i - 1));
+            }
+        }
+        for (int x = 0; x < 26; x += 1) {
+            int y = x;
+            for (int i = slots.length - 1; i >= 0; i -= 1) {
+                y = slots[i].convertForward(y);
+            }
+            for (int i = 1; i < slots.length; i += 1) {
+                y = slots[i].convertBackward(y);
+            }
+            assertEquals(msg(c.toString(), "wrong path of %d", x),
+                    y, c.convert(x));
+        }
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void checkPathsAndGrayOrder() {
+        KeySpace space = new KeySpace(reflector, new Rotor[] {beta},
+                moving, 3);
+        assertEquals(26 * 26 * 26 * 60, space.estimateSize());
+        KeySpace.Candidate[] prev = new KeySpace.Candidate[1];
+        int[] count = new int[1];
+        while (count[0] < 3 * 26 * 26 * 26 && space.tryAdvance(c -> {
+            if (count[0] % 97 == 0) {
+                checkCandidate(c);
+            }
+            if (prev[0] != null
+                && String.join(" ", prev[0].rotors())
+                   .equals(String.join(" ", c.rotors()))) {
+                int changed = 0;
+                for (int i = 0; i < 4; i += 1) {
+                    if (prev[0].setting().charAt(i)
+                        != c.setting().charAt(i)) {
+                        changed += 1;
+                    }
+                }
+                assertEquals("not a Gray step", 1, changed);
+            }
+            prev[0] = c;
+            count[0] += 1;
+        })) {
+            continue;
+        }
+    }
+
+    @Test
+    public void checkParallelCount() {
+        int size = 26 * 26 * 26 * 60;
+        KeySpace space = new KeySpace(reflector, new Rotor[] {beta},
+                moving, 3);
+        long[] indices = space.stream(true)
+            .mapToLong(KeySpace.Candidate::index).sorted().toArray();
+        assertEquals(size, indices.length);
+        for (int i = 0; i < size; i += 1) {
+            assertEquals(i, indices[i]);
+        }
+        Map<Long, String> sampled = new KeySpace(reflector,
+                new Rotor[] {beta}, moving, 3).stream(true)
+            .filter(c -> c.index() % 1009 == 0)
+            .collect(Collectors.toMap(KeySpace.Candidate::index,
+                    c -> c + " " + c.convert(0) + " " + c.convert(25)));
+        Map<Long, String> sequential = new KeySpace(reflector,
+                new Rotor[] {beta}, moving, 3).stream(false)
+            .filter(c -> c.index() % 1009 == 0)
+            .collect(Collectors.toMap(KeySpace.Candidate::index,
+                    c -> c + " " + c.convert(0) + " " + c.convert(25)));
+        assertEquals(sequential, sampled);
+        Spliterator<KeySpace.Candidate> half = new KeySpace(reflector,
+                new Rotor[] {beta}, moving, 3).trySplit();
+        assertEquals(26 * 26 * 26 * 30, half.estimateSize());
+    }
+
+    @Test
+    public void checkSplits() {
+        int size = 26 * 26 * 26 * 60;
+        ArrayList<Spliterator<KeySpace.Candidate>> pieces =
+            new ArrayList<>();
+        pieces.add(new KeySpace(reflector, new Rotor[] {beta}, moving, 3));
+        for (int i = 0; i < pieces.size() && pieces.size() < 64; ) {
+            Spliterator<KeySpace.Candidate> prefix = pieces.get(i).trySplit();
+            if (prefix == null) {
+                i += 1;
+            } else {
+                pieces.add(prefix);
+            }
+        }
+        assertTrue("too few splits", pieces.size() >= 16);
+        BitSet seen = new BitSet(size);
+        long sizes = 0;
+        for (Spliterator<KeySpace.Candidate> piece : pieces) {
+            long estimate = piece.estimateSize();
+            sizes += estimate;
+            long[] count = new long[1];
+            piece.forEachRemaining(c -> {
+                assertFalse("seen twice: " + c, seen.get((int) c.index()));
+                seen.set((int) c.index());
+                count[0] += 1;
+            });
+            assertEquals(estimate, count[0]);
+        }
+        assertEquals(size, sizes);
+        assertEquals(size, seen.cardinality());
+    }
+
+}
@@ -0,0 +1,96 @@
+package enigma;
+
+/**
+ * The sequence of composite permutations a machine applies to
+ * successive keystrokes from one starting key, plugboard included.
+ * Converting with a Keystream involves no rotor stepping or traversal:
+ * keystroke number K maps C to one entry of a contiguous table.
+ *
+ * @author charlesellis
+ */
+class Keystream {
+
+    /**
+     * A keystream over ALPHA of LENGTH keystrokes, whose keystroke K
+     * maps C to TABLE[K * ALPHA.size() + C].
+     */
+    Keystream(Alphabet alpha, int[] table, int length) {
+        _alphabet = alpha;
+        _size = alpha.size();
+        _table = table;
+        _length = length;
+    }
+
+    /**
+     * Return the number of keystrokes I cover.
+     */
+    int length() {
+        return _length;
+    }
+
+    /**
+     * Return the number of bytes my table occupies.
+     */
+    long bytes() {
+        return 4L * _table.length;
+    }
+
+    /**
+     * Return the conversion of C at keystroke number POSITION.
+     */
+    int convert(int position, int c) {
+        return _table[position * _size + c];
+    }
+
+    /**
+     * Convert in place TEXT[START .. END-1], letter indices, as
+     * Machine.convert would when TEXT[START] is keystroke number
+     * POSITION.  They must fit within my length.
+     */
+    void convert(int[] text, int start, int end, int position) {
+        int base = position * _size;
+        for (int i = start; i < end; i++) {
+            text[i] = _table[base + text[i]];
+            base += _size;
+        }
+    }
+
+    /**
+     * Returns the encoding/decoding of MSG, as Machine.convert would
+     * produce it when the first character of MSG is keystroke number
+     * POSITION.  MSG must fit within my length.
+     */
+    String convert(String msg, int position) {
+        StringBuilder result = new StringBuilder(msg.length());
+        int base = position * _size;
+        for (int i = 0; i < msg.length(); ) {
+            int myKey = msg.codePointAt(i);
+            i += Character.charCount(myKey);
+            if (_alphabet.contains(myKey)) {
+                result.appendCodePoint(_alphabet.toCodePoint(
+                        _table[base + _alphabet.toInt(myKey)]));
+                base += _size;
+            } else {
+                result.append(' ');
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Common alphabet.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Size of the alphabet.
+     */
+    private final int _size;
+    /**
+     * Permutations of successive keystrokes, one row of _size each.
+     */
+    private final int[] _table;
+    /**
+     * Number of keystrokes in _table.
+     */
+    private final int _length;
+}
@@ -0,0 +1,133 @@
+package enigma;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of keystreams, keyed by settings line.  Keystreams
+ * are only worth building for keys that recur, so the cache also
+ * remembers the keys recently used and how many letters each has
+ * converted in all, on which the choice of engine for a key is based
+ * (see EngineTiers).  When the cached tables exceed the memory bound,
+ * the least recently used keys are evicted.
+ *
+ * @author charlesellis
+ */
+class KeystreamCache {
+
+    /**
+     * A cache of keystreams of MAXLENGTH keystrokes whose tables take
+     * at most MAXBYTES bytes in all.
+     */
+    KeystreamCache(int maxLength, long maxBytes) {
+        _maxLength = maxLength;
+        _maxBytes = maxBytes;
+    }
+
+    /**
+     * Return the number of keystrokes in each keystream I build.
+     */
+    int maxLength() {
+        return _maxLength;
+    }
+
+    /**
+     * Return the number of bytes my keystreams currently occupy.
+     */
+    synchronized long bytes() {
+        return _bytes;
+    }
+
+    /**
+     * Return the cached keystream for settings line SETTINGS, or null
+     * if there is none.
+     */
+    synchronized Keystream get(String settings) {
+        return _streams.get(settings);
+    }
+
+    /**
+     * Record a use of settings line SETTINGS, and return true iff it
+     * has been used before and so deserves a keystream.
+     */
+    synchronized boolean repeated(String settings) {
+        return _seen.putIfAbsent(settings, new long[1]) != null;
+    }
+
+    /**
+     * Return the number of letters converted under settings line
+     * SETTINGS so far, as recorded by count, or 0 if it has not been
+     * seen recently.
+     */
+    synchronized long letters(String settings) {
+        long[] letters = _seen.get(settings);
+        return letters == null ? 0 : letters[0];
+    }
+
+    /**
+     * Record that LETTERS more letters were converted under settings
+     * line SETTINGS, if it has been seen.
+     */
+    synchronized void count(String settings, long letters) {
+        long[] total = _seen.get(settings);
+        if (total != null) {
+            total[0] += letters;
+        }
+    }
+
+    /**
+     * Cache KEYSTREAM for settings line SETTINGS, evicting the least
+     * recently used keystreams as needed to stay within my bound.
+     */
+    synchronized void put(String settings, Keystream keystream) {
+        if (keystream.bytes() > _maxBytes) {
+            return;
+        }
+        Keystream old = _streams.put(settings, keystream);
+        if (old != null) {
+            _bytes -= old.bytes();
+        }
+        _bytes += keystream.bytes();
+        Iterator<Keystream> eldest = _streams.values().iterator();
+        while (_bytes > _maxBytes) {
+            _bytes -= eldest.next().bytes();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Maximum number of settings lines remembered as seen.
+     */
+    private static final int MAX_SEEN = 1 << 16;
+
+    /**
+     * Keystroke count of new keystreams.
+     */
+    private final int _maxLength;
+    /**
+     * Memory bound on the cached keystreams.
+     */
+    private final long _maxBytes;
+    /**
+     * Bytes in the cached keystreams.
+     */
+    private long _bytes;
+    /**
+     * Cached keystreams, least recently used first.
+     */
+    private final LinkedHashMap<String, Keystream> _streams =
+        new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * Recently seen settings lines, least recently used first, with
+     * the number of letters converted under each.
+     */
+    private final LinkedHashMap<String, long[]> _seen =
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, long[]> eldest) {
+                return size() > MAX_SEEN;
+            }
+        };
+}
@@ -0,0 +1,61 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the KeystreamCache class.
+ *
+ * @author charlesellis
+ */
+public class KeystreamCacheTest {
+
+    /** Return a keystream of LENGTH identity keystrokes. */
+    private Keystream identity(int length) {
+        int[] table = new int[length * 26];
+        for (int i = 0; i < table.length; i += 1) {
+            table[i] = i % 26;
+        }
+        return new Keystream(UPPER, table, length);
+    }
+
+    @Test
+    public void testRepeated() {
+        KeystreamCache cache = new KeystreamCache(10, 1 << 20);
+        assertFalse(cache.repeated("* B Beta I II III AAAA"));
+        assertTrue(cache.repeated("* B Beta I II III AAAA"));
+        assertFalse(cache.repeated("* B Beta I II III AAAB"));
+    }
+
+    @Test
+    public void testLetters() {
+        KeystreamCache cache = new KeystreamCache(10, 1 << 20);
+        assertEquals(0, cache.letters("* B Beta I II III AAAA"));
+        cache.count("* B Beta I II III AAAA", 40);
+        assertEquals(0, cache.letters("* B Beta I II III AAAA"));
+        cache.repeated("* B Beta I II III AAAA");
+        cache.count("* B Beta I II III AAAA", 40);
+        cache.count("* B Beta I II III AAAA", 2);
+        assertEquals(42, cache.letters("* B Beta I II III AAAA"));
+        assertTrue(cache.repeated("* B Beta I II III AAAA"));
+    }
+
+    @Test
+    public void testEviction() {
+        KeystreamCache cache = new KeystreamCache(10, 3 * 10 * 26 * 4);
+        cache.put("a", identity(10));
+        cache.put("b", identity(10));
+        cache.put("c", identity(10));
+        assertNotNull(cache.get("a"));
+        cache.put("d", identity(10));
+        assertNull("least recently used not evicted", cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertNotNull(cache.get("d"));
+        assertEquals(3 * 10 * 26 * 4, cache.bytes());
+    }
+
+}
@@ -0,0 +1,493 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A converter of a live feed of keystrokes, such as a teleprinter line,
+ * for interactive use.  Main processes its input a line at a time; here
+ * bytes are read as they arrive, with no buffering in between, and each
+ * letter is converted by Machine.convert(int) the moment its last byte
+ * is read.  The output is that of Main: converted letters in groups of
+ * five, each followed by a space, line breaks kept, and all other
+ * characters dropped.  Settings lines, which produce no output, set up
+ * the machine when they end; the first line is always one.
+ *
+ * Output is flushed adaptively.  When no more input is waiting once the
+ * bytes of one read are converted, the output is written at once, so
+ * an operator typing sees each letter after one read, one conversion
+ * and one write.  Under load, output is batched until the input runs
+ * dry, BATCH bytes are waiting, or the oldest has waited MAX_DELAY
+ * nanoseconds.  The time from each read to the write of the letters it
+ * brought is recorded in a Latencies histogram.
+ *
+ * Input is decoded in the default charset, as Main decodes it.
+ *
+ * @author charlesellis
+ */
+final class KeystrokeStream {
+
+    /**
+     * A converter from IN to OUT with MACHINE, calling IN SOURCE in
+     * error messages.  IN should be unbuffered, for instance a
+     * FileInputStream.
+     */
+    KeystrokeStream(Machine machine, InputStream in, OutputStream out,
+                    String source) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _in = in;
+        _out = out;
+        _source = source;
+    }
+
+    /**
+     * Convert my input until it ends, flushing all output before
+     * returning or throwing.
+     */
+    void run() {
+        byte[] buffer = new byte[READ_SIZE];
+        try {
+            while (true) {
+                int n = _in.read(buffer);
+                if (n < 0) {
+                    break;
+                }
+                long arrival = System.nanoTime();
+                int before = _letters;
+                for (int i = 0; i < n; i++) {
+                    accept(buffer[i]);
+                }
+                note(arrival, _letters - before);
+                EnigmaEvents.converted(_letters - before);
+                if (_size > 0
+                    && (_size >= BATCH || _in.available() <= 0
+                        || _reads > 0
+                           && System.nanoTime() - _arrivals[0]
+                              >= MAX_DELAY)) {
+                    flush();
+                }
+            }
+            if (_state == MESSAGE) {
+                message('\n');
+            } else if (_state == STAR
+                       || _state == SETTINGS && _settings.length() > 0) {
+                endSettings();
+            }
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        } finally {
+            flush();
+        }
+    }
+
+    /**
+     * Return the latencies recorded so far.
+     */
+    Latencies latencies() {
+        return _latencies;
+    }
+
+    /**
+     * Take in the next byte, B, of input.
+     */
+    private void accept(byte b) {
+        if (b >= 0 && _undecoded.position() == 0) {
+            accept((char) b);
+            return;
+        }
+        _undecoded.put(b);
+        _undecoded.flip();
+        _decoder.decode(_undecoded, _decoded, false);
+        _undecoded.compact();
+        _decoded.flip();
+        while (_decoded.hasRemaining()) {
+            accept(_decoded.get());
+        }
+        _decoded.clear();
+    }
+
+    /**
+     * Take in the next char, C, of input.
+     */
+    private void accept(char c) {
+        if (Character.isHighSurrogate(c)) {
+            _high = c;
+            return;
+        }
+        int ch = c;
+        if (Character.isLowSurrogate(c) && _high != 0) {
+            ch = Character.toCodePoint(_high, c);
+        }
+        _high = 0;
+        if (ch == '\n' && _lastCR) {
+            _lastCR = false;
+            return;
+        }
+        _lastCR = ch == '\r';
+        boolean eol = ch == '\n' || ch == '\r';
+        switch (_state) {
+        case STAR:
+            if (eol || Character.isWhitespace(ch)) {
+                _state = SETTINGS;
+            } else {
+                _state = MESSAGE;
+                _settings.setLength(0);
+                message(ch);
+                return;
+            }
+            break;
+        case LINE_START:
+            if (ch == '*') {
+                _state = STAR;
+            } else if (eol || !Character.isWhitespace(ch)) {
+                _state = MESSAGE;
+                message(ch);
+                return;
+            }
+            break;
+        case MESSAGE:
+            message(ch);
+            return;
+        default:
+            break;
+        }
+        if (eol) {
+            endSettings();
+        } else {
+            _settings.appendCodePoint(ch);
+        }
+    }
+
+    /**
+     * Convert CH, a character of a message line, if it is a letter.
+     */
+    private void message(int ch) {
+        if (ch == '\n' || ch == '\r') {
+            write(LINE_SEPARATOR);
+            _lines += 1;
+            _group = 0;
+            _state = LINE_START;
+        } else if (_alphabet.contains(ch)) {
+            write(_alphabet.toCodePoint(
+                    _machine.convert(_alphabet.toInt(ch))));
+            _letters += 1;
+            _group += 1;
+            if (_group % 5 == 0) {
+                write(' ');
+            }
+        }
+    }
+
+    /**
+     * Set up my machine from the settings line just ended.
+     */
+    private void endSettings() {
+        _lines += 1;
+        _machine.setUp(_settings.toString(), _source, _lines);
+        _settings.setLength(0);
+        _group = 0;
+        _state = LINE_START;
+    }
+
+    /**
+     * Add the encoding of character CH to my output buffer.
+     */
+    private void write(int ch) {
+        if (ch < ASCII && ASCII_COMPATIBLE) {
+            reserve(1);
+            _buffer[_size] = (byte) ch;
+            _size += 1;
+        } else {
+            write(Character.toString(ch).getBytes(CHARSET));
+        }
+    }
+
+    /**
+     * Add BYTES to my output buffer.
+     */
+    private void write(byte[] bytes) {
+        reserve(bytes.length);
+        System.arraycopy(bytes, 0, _buffer, _size, bytes.length);
+        _size += bytes.length;
+    }
+
+    /**
+     * Make room for N more bytes in my output buffer.
+     */
+    private void reserve(int n) {
+        if (_size + n > _buffer.length) {
+            _buffer = Arrays.copyOf(_buffer,
+                    Math.max(2 * _buffer.length, _size + n));
+        }
+    }
+
+    /**
+     * Record that LETTERS letters arrived at time ARRIVAL.
+     */
+    private void note(long arrival, int letters) {
+        if (letters == 0) {
+            return;
+        }
+        if (_reads == _arrivals.length) {
+            _arrivals = Arrays.copyOf(_arrivals, 2 * _reads);
+            _counts = Arrays.copyOf(_counts, 2 * _reads);
+        }
+        _arrivals[_reads] = arrival;
+        _counts[_reads] = letters;
+        _reads += 1;
+    }
+
+    /**
+     * Write out my output buffer, recording the latency of each letter
+     * in it.
+     */
+    private void flush() {
+        if (_size == 0) {
+            return;
+        }
+        try {
+            _out.write(_buffer, 0, _size);
+            _out.flush();
+        } catch (IOException excp) {
+            throw error("could not write output: %s", excp.getMessage());
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < _reads; i++) {
+            _latencies.record(now - _arrivals[i], _counts[i]);
+        }
+        _size = 0;
+        _reads = 0;
+    }
+
+    /**
+     * A histogram of latencies in nanoseconds, in buckets of at most
+     * 1/16 of their lower bounds, so that percentiles are within about
+     * 6% of the truth.
+     */
+    static final class Latencies {
+
+        /**
+         * Record COUNT samples of NANOS nanoseconds.
+         */
+        void record(long nanos, long count) {
+            nanos = Math.max(nanos, 0);
+            _buckets[bucket(nanos)] += count;
+            _count += count;
+            _max = Math.max(_max, nanos);
+        }
+
+        /**
+         * Return the number of samples recorded.
+         */
+        long count() {
+            return _count;
+        }
+
+        /**
+         * Return the largest sample recorded, or 0 if none.
+         */
+        long max() {
+            return _max;
+        }
+
+        /**
+         * Return the least value no smaller than fraction P of my
+         * samples, to within the width of its bucket, or 0 if I have
+         * none.
+         */
+        long percentile(double p) {
+            long rank = (long) Math.ceil(p * _count);
+            long seen = 0;
+            for (int b = 0; b < _buckets.length; b++) {
+                seen += _buckets[b];
+                if (seen >= Math.max(rank, 1)) {
+                    return Math.min(lowest(b + 1) - 1, _max);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d letters, latency p50 %d us, "
+                    + "p99 %d us, max %d us", _count,
+                    percentile(0.5) / 1000, percentile(0.99) / 1000,
+                    _max / 1000);
+        }
+
+        /**
+         * Return the bucket holding NANOS.
+         */
+        private static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int e = 63 - Long.numberOfLeadingZeros(nanos);
+            return (e - 3) * SUB_BUCKETS + (int) ((nanos >>> (e - 4)) & 15);
+        }
+
+        /**
+         * Return the least value in bucket B.
+         */
+        private static long lowest(int b) {
+            if (b < SUB_BUCKETS) {
+                return b;
+            }
+            int e = b / SUB_BUCKETS + 3;
+            if (e > 62) {
+                return Long.MAX_VALUE;
+            }
+            return (long) (SUB_BUCKETS + b % SUB_BUCKETS) << (e - 4);
+        }
+
+        /**
+         * Buckets per power of two.
+         */
+        private static final int SUB_BUCKETS = 16;
+
+        /**
+         * Number of samples in each bucket.
+         */
+        private final long[] _buckets = new long[60 * SUB_BUCKETS];
+        /**
+         * Number of samples.
+         */
+        private long _count;
+        /**
+         * Largest sample.
+         */
+        private long _max;
+    }
+
+    /**
+     * States: at the start of a line, just after a star at the start
+     * of a line, in a settings line, and in a message line.
+     */
+    private static final int LINE_START = 0, STAR = 1, SETTINGS = 2,
+        MESSAGE = 3;
+    /**
+     * Most bytes asked for in one read.
+     */
+    private static final int READ_SIZE = 1 << 13;
+    /**
+     * Output bytes at which a batch is written, whatever the input.
+     */
+    static final int BATCH = 1 << 13;
+    /**
+     * Longest a letter may wait in a batch, in nanoseconds.
+     */
+    static final long MAX_DELAY = 1_000_000;
+    /**
+     * Charset of input and output.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+    /**
+     * True iff CHARSET encodes ASCII characters as single bytes.
+     */
+    private static final boolean ASCII_COMPATIBLE =
+        Arrays.equals("~ A\n".getBytes(CHARSET), new byte[] {
+            '~', ' ', 'A', '\n'});
+    /**
+     * Characters below this are ASCII.
+     */
+    private static final int ASCII = 0x80;
+    /**
+     * Bytes ending an output line.
+     */
+    private static final byte[] LINE_SEPARATOR =
+        System.lineSeparator().getBytes(CHARSET);
+
+    /**
+     * Machine doing the conversion.
+     */
+    private final Machine _machine;
+    /**
+     * Alphabet of _machine.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Source of keystrokes.
+     */
+    private final InputStream _in;
+    /**
+     * Destination of converted keystrokes.
+     */
+    private final OutputStream _out;
+    /**
+     * Name of _in in error messages.
+     */
+    private final String _source;
+    /**
+     * Decoder of non-ASCII input.
+     */
+    private final CharsetDecoder _decoder = CHARSET.newDecoder();
+    /**
+     * Bytes of a character not yet decoded.
+     */
+    private final ByteBuffer _undecoded = ByteBuffer.allocate(16);
+    /**
+     * Chars decoded from _undecoded.
+     */
+    private final CharBuffer _decoded = CharBuffer.allocate(16);
+    /**
+     * A high surrogate awaiting its low surrogate, or 0.
+     */
+    private char _high;
+    /**
+     * True iff the last character was a carriage return.
+     */
+    private boolean _lastCR;
+    /**
+     * Where I am in the current line.
+     */
+    private int _state = SETTINGS;
+    /**
+     * The settings line being read.
+     */
+    private final StringBuilder _settings = new StringBuilder();
+    /**
+     * Lines read.
+     */
+    private int _lines;
+    /**
+     * Letters converted in the current line.
+     */
+    private int _group;
+    /**
+     * Letters converted in all.
+     */
+    private int _letters;
+    /**
+     * Output not yet written.
+     */
+    private byte[] _buffer = new byte[BATCH];
+    /**
+     * Number of bytes in _buffer.
+     */
+    private int _size;
+    /**
+     * Times of the reads whose letters are in _buffer.
+     */
+    private long[] _arrivals = new long[16];
+    /**
+     * Number of letters brought by each read in _arrivals.
+     */
+    private int[] _counts = new int[16];
+    /**
+     * Number of reads in _arrivals.
+     */
+    private int _reads;
+    /**
+     * Latencies of the letters written.
+     */
+    private final Latencies _latencies = new Latencies();
+}
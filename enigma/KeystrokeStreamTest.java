@@ -0,0 +1,208 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the KeystrokeStream class.
+ *
+ * @author charlesellis
+ */
+public class KeystrokeStreamTest {
+
+    /* ***** TESTING UTILITIES ***** */
+
+    /**
+     * Input delivering the bytes of a text PER bytes at a time, and
+     * reporting more available until the last read iff BUSY.
+     */
+    private static class Feed extends InputStream {
+        /**
+         * Input of TEXT, PER bytes per read, busy iff BUSY.
+         */
+        Feed(String text, int per, boolean busy) {
+            _bytes = text.getBytes(US_ASCII);
+            _per = per;
+            _busy = busy;
+        }
+
+        @Override
+        public int read() {
+            return _next < _bytes.length ? _bytes[_next++] : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (_next == _bytes.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, _per), _bytes.length - _next);
+            System.arraycopy(_bytes, _next, b, off, n);
+            _next += n;
+            reads += 1;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return _busy ? _bytes.length - _next : 0;
+        }
+
+        /**
+         * Number of reads returning bytes.
+         */
+        int reads;
+        /**
+         * The text.
+         */
+        private final byte[] _bytes;
+        /**
+         * Bytes per read.
+         */
+        private final int _per;
+        /**
+         * True iff more input is always waiting.
+         */
+        private final boolean _busy;
+        /**
+         * Next byte to deliver.
+         */
+        private int _next;
+    }
+
+    /**
+     * Output recording each write.
+     */
+    private static class Sink extends OutputStream {
+        @Override
+        public void write(int b) {
+            writes.add(Character.toString((char) b));
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes.add(new String(b, off, len, US_ASCII));
+        }
+
+        /**
+         * Return everything written.
+         */
+        String text() {
+            return String.join("", writes);
+        }
+
+        /**
+         * The writes, in order.
+         */
+        final List<String> writes = new ArrayList<>();
+    }
+
+    /**
+     * Return a machine configured by the default test configuration.
+     */
+    private Machine machine() {
+        return Main.machine("config", DEFAULT_CONFIG.toCharArray());
+    }
+
+    /**
+     * Return the output of a KeystrokeStream converting INPUT.
+     */
+    private String convert(String input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new KeystrokeStream(machine(), new ByteArrayInputStream(
+                input.getBytes(US_ASCII)), out, "test").run();
+        return out.toString(US_ASCII);
+    }
+
+    /* ***** TESTS ***** */
+
+    @Test
+    public void testMatchesMain() {
+        String in = "* B Beta I II III AAAA\nHELLO WORLD\n"
+            + "* B Beta I II III AAAA\nILBDA AMTAZ";
+        String out = "ILBDA AMTAZ \nHELLO WORLD \n"
+            .replace("\n", System.lineSeparator());
+        assertEquals(out, convert(in));
+        assertEquals(out, convert(in.replace("\n", "\r\n")));
+        assertEquals(out, convert(in.trim()));
+        String nl = System.lineSeparator();
+        assertEquals("ILBDA " + nl + nl + "SQQDP F" + nl,
+                convert("* B Beta I II III AAAA\nHEL-LO\n\n*X WORLD"));
+        assertEquals("", convert(""));
+    }
+
+    @Test
+    public void testImmediate() {
+        Feed in = new Feed("* B Beta I II III AAAA\nHELLO\n", 1, false);
+        Sink out = new Sink();
+        KeystrokeStream stream =
+            new KeystrokeStream(machine(), in, out, "test");
+        stream.run();
+        assertEquals(List.of("I", "L", "B", "D", "A ",
+                             System.lineSeparator()), out.writes);
+        assertEquals(5, stream.latencies().count());
+    }
+
+    @Test
+    public void testBatched() {
+        StringBuilder text = new StringBuilder("* B Beta I II III AAAA\n");
+        for (int i = 0; i < 400; i++) {
+            text.append("HELLOWORLD\n");
+        }
+        Feed busy = new Feed(text.toString(), 11, true);
+        Sink batched = new Sink();
+        new KeystrokeStream(machine(), busy, batched, "test").run();
+        Feed idle = new Feed(text.toString(), 11, false);
+        Sink immediate = new Sink();
+        new KeystrokeStream(machine(), idle, immediate, "test").run();
+        assertEquals(immediate.text(), batched.text());
+        assertTrue(immediate.writes.size() >= 400);
+        assertTrue(batched.writes.size() < busy.reads / 4);
+    }
+
+    @Test
+    public void testErrorFlushes() {
+        Sink out = new Sink();
+        try {
+            new KeystrokeStream(machine(), new Feed(
+                    "* B Beta I II III AAAA\nHELLO\n* B Beta I I III AAAA\n"
+                    + "HELLO\n", 1000, true), out, "test").run();
+            fail("accepted duplicate rotors");
+        } catch (EnigmaException excp) {
+            assertEquals("test:3:12: duplicate rotor names",
+                         excp.getMessage());
+        }
+        assertEquals("ILBDA " + System.lineSeparator(), out.text());
+    }
+
+    @Test
+    public void testLatencies() {
+        KeystrokeStream.Latencies latencies = new KeystrokeStream.Latencies();
+        assertEquals(0, latencies.percentile(0.99));
+        for (long nanos = 1; nanos <= 100_000; nanos += 1) {
+            latencies.record(nanos, 1);
+        }
+        latencies.record(5_000_000, 10);
+        assertEquals(100_010, latencies.count());
+        assertEquals(5_000_000, latencies.max());
+        assertEquals(50_000, latencies.percentile(0.5), 50_000 / 16);
+        assertEquals(99_000, latencies.percentile(0.99), 99_000 / 16);
+        assertEquals(5_000_000, latencies.percentile(1.0));
+        KeystrokeStream.Latencies one = new KeystrokeStream.Latencies();
+        one.record(15, 3);
+        assertEquals(15, one.percentile(0.5));
+    }
+
+}
@@ -0,0 +1,138 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.NoSuchElementException;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * A reader of lines from a byte stream that keeps track of the byte
+ * offset of the next unread line, so that a run can later resume from
+ * that offset.  Lines end at "\n", "\r\n" or "\r", and are decoded in
+ * the default charset, as a Scanner would.
+ *
+ * @author charlesellis
+ */
+class LineReader {
+
+    /**
+     * A reader of the lines of IN, whose first byte is at offset
+     * POSITION of its file.
+     */
+    LineReader(InputStream in, long position) {
+        _in = in;
+        _position = position;
+    }
+
+    /**
+     * Return the byte offset of the start of the next line.
+     */
+    long position() {
+        return _position;
+    }
+
+    /**
+     * Return the number of lines read so far, which is the line number
+     * of the line last returned, counting from where reading began.
+     */
+    int lineNumber() {
+        return _lines;
+    }
+
+    /**
+     * Return true iff there is another line to read.
+     */
+    boolean hasNextLine() {
+        return fill();
+    }
+
+    /**
+     * Return the next line, without its terminator.
+     */
+    String nextLine() {
+        if (!fill()) {
+            throw new NoSuchElementException("No line found");
+        }
+        int length = 0;
+        _lines += 1;
+        while (fill()) {
+            byte b = _buffer[_next];
+            _next += 1;
+            _position += 1;
+            if (b == '\n') {
+                break;
+            } else if (b == '\r') {
+                if (fill() && _buffer[_next] == '\n') {
+                    _next += 1;
+                    _position += 1;
+                }
+                break;
+            }
+            if (length == _line.length) {
+                byte[] bigger = new byte[2 * length];
+                System.arraycopy(_line, 0, bigger, 0, length);
+                _line = bigger;
+            }
+            _line[length] = b;
+            length += 1;
+        }
+        return new String(_line, 0, length, CHARSET);
+    }
+
+    /**
+     * Make sure there is an unread byte in my buffer, if possible, and
+     * return true iff there is.
+     */
+    private boolean fill() {
+        if (_next < _limit) {
+            return true;
+        }
+        try {
+            int n = _in.read(_buffer);
+            while (n == 0) {
+                n = _in.read(_buffer);
+            }
+            _next = 0;
+            _limit = Math.max(n, 0);
+            return n > 0;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /**
+     * Charset for decoding lines.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * Source of bytes.
+     */
+    private final InputStream _in;
+    /**
+     * Bytes read from _in.
+     */
+    private final byte[] _buffer = new byte[1 << 16];
+    /**
+     * Index of the next unread byte of _buffer.
+     */
+    private int _next;
+    /**
+     * Number of valid bytes in _buffer.
+     */
+    private int _limit;
+    /**
+     * Bytes of the line being read.
+     */
+    private byte[] _line = new byte[256];
+    /**
+     * Offset of the next unread byte in the input file.
+     */
+    private long _position;
+    /**
+     * Number of lines read.
+     */
+    private int _lines;
+}
@@ -1,5 +1,11 @@
 package enigma;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import static enigma.EnigmaException.*;
 
@@ -30,6 +36,43 @@ class Machine {
 
     }
 
+    /**
+     * A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
+     * and 0 <= PAWLS < NUMROTORS pawls, whose available rotors are those
+     * of CATALOG, which are taken from it only as they are first used.
+     */
+    Machine(Alphabet alpha, int numRotors, int pawls, RotorSource catalog) {
+        this(alpha, numRotors, pawls, Collections.emptyList());
+        _catalog = catalog;
+        _fromCatalog = new HashMap<>();
+    }
+
+    /**
+     * Return a new machine like me, with no rotors inserted, whose
+     * rotors are copies of mine, so that the two can run independently.
+     */
+    Machine copy() {
+        Machine result;
+        if (_catalog != null) {
+            result = new Machine(_alphabet, _numRotors, _pawls, _catalog);
+        } else {
+            ArrayList<Rotor> rotors = new ArrayList<>(_allRotors.size());
+            for (Rotor rotor : _allRotors) {
+                rotors.add(rotor.copy());
+            }
+            result = new Machine(_alphabet, _numRotors, _pawls, rotors);
+        }
+        result._generated = _generated;
+        return result;
+    }
+
+    /**
+     * Return my alphabet.
+     */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
     /**
      * Return the number of rotor slots I have.
      */
@@ -44,6 +87,65 @@ class Machine {
         return _pawls;
     }
 
+    /**
+     * Set me according to the specification given on SETTINGS,
+     * which must have the format specified in the assignment, optionally
+     * followed by a ring setting for each non-reflector rotor before the
+     * plugboard cycles.
+     */
+    void setUp(String settings) {
+        setUp(settings, "settings", 1);
+    }
+
+    /**
+     * Set me according to SETTINGS, as for setUp(SETTINGS), where
+     * SETTINGS is line LINE of SOURCE, which errors name.
+     */
+    void setUp(String settings, String source, int line) {
+        Tokenizer s = new Tokenizer(source, settings.toCharArray(), line);
+        String p = s.next("setting has no star");
+        if (p.charAt(0) != '*') {
+            throw s.error("setting has no star");
+        }
+        String[] rotorNameArray = new String[_numRotors];
+        HashSet<String> seen = new HashSet<>();
+        for (int i = 0; i < numRotors(); i++) {
+            rotorNameArray[i] = s.next("too few rotors");
+            if (!seen.add(rotorNameArray[i])) {
+                throw s.error("duplicate rotor names");
+            }
+            if (find(rotorNameArray[i]) == null) {
+                throw s.error("rotor not in collection");
+            }
+        }
+        insertRotors(rotorNameArray);
+        String h = s.next("missing rotor settings");
+        s.checkLetters(_alphabet, 0, "setting");
+        setRotors(h);
+        String rings = Character.toString(_alphabet.toCodePoint(0))
+                .repeat(numRotors() - 1);
+        if (s.hasNext() && !s.hasNextStarting('(')) {
+            rings = s.next();
+            s.checkLetters(_alphabet, 0, "ring setting");
+        }
+        setRings(rings);
+        StringBuilder plugboard = new StringBuilder();
+        BitSet plugged = new BitSet(_alphabet.size());
+        while (s.hasNext()) {
+            p = s.next();
+            if (p.indexOf('(') < 0) {
+                throw s.error("this should be a perm "
+                        + "for plugboard, but it's not");
+            }
+            s.checkCycles(_alphabet, plugged);
+            plugboard.append(p).append(' ');
+        }
+        setPlugboard(new Permutation(plugboard.toString(), _alphabet));
+        if (_generated) {
+            _circuit = CircuitCompiler.circuit(rotorList);
+        }
+    }
+
     /**
      * Set my rotor slots to the rotors named ROTORS from my set of
      * available rotors (ROTORS[0] names the reflector).
@@ -51,21 +153,18 @@ class Machine {
      */
     void insertRotors(String[] rotors) {
         rotorList = new Rotor[rotors.length];
-        for (int i = 0; i < rotors.length - 1; i++) {
-            for (int j = i + 1; j < rotors.length; j++) {
-                if (rotors[i].toString().equals(rotors[j].toString())) {
-                    throw error("two rotors have same name");
-                }
+        HashSet<String> names = new HashSet<>();
+        for (String name : rotors) {
+            if (!names.add(name)) {
+                throw error("two rotors have same name");
             }
         }
         int myIndex = 0;
         for (int i = 0; i < rotors.length; i++) {
-            for (Rotor rotor : _allRotors) {
-                String rotorName = rotor.name();
-                if ((rotors[i]).equals(rotorName)) {
-                    rotorList[myIndex] = rotor;
-                    myIndex += 1;
-                }
+            Rotor rotor = find(rotors[i]);
+            if (rotor != null) {
+                rotorList[myIndex] = rotor;
+                myIndex += 1;
             }
         }
 
@@ -85,6 +184,182 @@ class Machine {
                 throw error("Non 1-rotors is reflecting");
             }
         }
+        _settings = new int[rotorList.length];
+        _laidOut = false;
+        _circuit = null;
+        syncSettings();
+    }
+
+    /**
+     * Return true iff I convert with the compiled engine, which reads
+     * the tables of _arena and the cached inner path, rather than the
+     * direct engine, which runs each signal through each rotor.
+     */
+    boolean compiled() {
+        return _compiled;
+    }
+
+    /**
+     * Convert with the compiled engine iff COMPILED.  The compiled
+     * engine is faster per keystroke, but its tables cost time to lay
+     * out whenever rotors are inserted or their rings change, and the
+     * inner path costs time to recompute whenever a rotor other than
+     * the rightmost moves, which short messages under fresh keys may
+     * not repay.  Switching to it lays out its tables at once, unless
+     * whole messages are converted by generated code, which leaves
+     * them until a keystroke needs them.
+     */
+    void setCompiled(boolean compiled) {
+        _compiled = compiled;
+        if (compiled && rotorList != null && !_generated) {
+            layout();
+            computeInner();
+        }
+    }
+
+    /**
+     * Return true iff I convert whole messages with generated code.
+     */
+    boolean generated() {
+        return _generated;
+    }
+
+    /**
+     * Convert whole messages, as given to convert(String) and
+     * convert(char[], int, int), with the circuit CircuitCompiler
+     * generates for my rotors iff GENERATED.  The circuit is looked up
+     * as each settings line is applied, and generated if the rotors are
+     * a new combination.  Single keystrokes still take the direct or
+     * compiled engine.
+     */
+    void setGenerated(boolean generated) {
+        _generated = generated;
+        _circuit = null;
+    }
+
+    /**
+     * Convert TEXT[START .. END-1], letter indices, in place with my
+     * generated circuit, updating the state of the rotors accordingly.
+     */
+    private void convertGenerated(int[] text, int start, int end) {
+        if (_circuit == null) {
+            _circuit = CircuitCompiler.circuit(rotorList);
+        }
+        int n = _alphabet.size();
+        if (_plugTable == null || _plugTable.length != n) {
+            _plugTable = new int[n];
+        }
+        for (int x = 0; x < n; x++) {
+            _plugTable[x] = _plugboard == null ? x : _plugboard.permute(x);
+        }
+        int[] rings = new int[rotorList.length];
+        for (int i = 0; i < rotorList.length; i++) {
+            rings[i] = rotorList[i].ring();
+        }
+        _circuit.convert(text, start, end, _plugTable, _settings, rings);
+        int last = rotorList.length - 1;
+        for (int i = 1; i <= last; i++) {
+            rotorList[i].set(_settings[i]);
+        }
+        clearSpins();
+        syncSettings();
+        updateRotors();
+    }
+
+    /**
+     * Lay out the tables of _arena, if they are out of date.
+     */
+    private void layout() {
+        if (_laidOut) {
+            return;
+        }
+        int n = _alphabet.size();
+        int length = SLOTS * n + 2 * n * (rotorList.length - 1);
+        if (_arena == null || _arena.length != length) {
+            _arena = new int[length];
+        }
+        layoutPlugboard();
+        layoutRotors();
+        _laidOut = true;
+    }
+
+    /**
+     * Copy the plugboard's table into _arena, or the identity if there
+     * is no plugboard yet.
+     */
+    private void layoutPlugboard() {
+        int n = _alphabet.size();
+        for (int x = 0; x < n; x++) {
+            _arena[n * PLUG + x] = _plugboard == null ? x
+                : _plugboard.permute(x);
+        }
+    }
+
+    /**
+     * Copy the forward and backward wiring of every inserted rotor, ring
+     * settings included, into _arena: the rightmost rotor's next to the
+     * plugboard, and the rest after the cached inner path.
+     */
+    private void layoutRotors() {
+        int n = _alphabet.size();
+        int last = rotorList.length - 1;
+        for (int i = 0; i <= last; i++) {
+            int at = i == last ? n * FAST : slot(i);
+            for (int x = 0; x < n; x++) {
+                _arena[at + x] = rotorList[i].wiring(x);
+                _arena[at + n + x] = rotorList[i].inverseWiring(x);
+            }
+        }
+        _innerValid = false;
+    }
+
+    /**
+     * Return the offset in _arena of the forward wiring of slot I, for
+     * any slot but the rightmost; the backward wiring follows it.
+     */
+    private int slot(int i) {
+        return _alphabet.size() * (SLOTS + 2 * i);
+    }
+
+    /**
+     * Copy the settings of the inserted rotors into _settings.
+     */
+    private void syncSettings() {
+        for (int i = 0; i < rotorList.length; i++) {
+            _settings[i] = rotorList[i].setting();
+        }
+        _innerValid = false;
+    }
+
+    /**
+     * Return my own copy of the available rotor named NAME, the one
+     * insertRotors would use, or null if there is none.
+     */
+    Rotor rotor(String name) {
+        return find(name);
+    }
+
+    /**
+     * Return my available rotor named NAME, or null if there is none.
+     */
+    private Rotor find(String name) {
+        if (_catalog != null) {
+            Rotor result = _fromCatalog.get(name);
+            if (result == null) {
+                result = _catalog.rotor(name);
+                if (result != null) {
+                    result = result.copy();
+                    _fromCatalog.put(name, result);
+                }
+            }
+            return result;
+        }
+        for (Rotor rotor : _allRotors) {
+            if (name.equals(rotor.name())) {
+                return rotor;
+            }
+        }
+        return null;
     }
 
     /**
@@ -93,12 +368,67 @@ class Machine {
      * to the leftmost rotor setting (not counting the reflector).
      */
     void setRotors(String setting) {
-        if (setting.length() != _numRotors - 1) {
+        int[] cps = setting.codePoints().toArray();
+        if (cps.length != _numRotors - 1) {
             throw error("setting does not equal nR - 1");
         }
         for (int i = 1; i < _numRotors; i++) {
-            rotorList[i].set(setting.charAt(i - 1));
+            rotorList[i].set(_alphabet.toInt(cps[i - 1]));
+        }
+        clearSpins();
+        syncSettings();
+    }
+
+    /**
+     * Return the settings of my rotors, leftmost non-reflector first.
+     */
+    int[] positions() {
+        int[] result = new int[rotorList.length - 1];
+        for (int i = 1; i < rotorList.length; i++) {
+            result[i - 1] = rotorList[i].setting();
+        }
+        return result;
+    }
+
+    /**
+     * Set my rotors to POSITIONS, as returned by positions().
+     */
+    void setPositions(int[] positions) {
+        if (positions.length != rotorList.length - 1) {
+            throw error("wrong number of rotor positions");
+        }
+        for (int i = 1; i < rotorList.length; i++) {
+            rotorList[i].set(positions[i - 1]);
+        }
+        clearSpins();
+        syncSettings();
+    }
+
+    /**
+     * Forget the carries found for rotor positions before they were
+     * set, leaving only the rightmost rotor to spin on the next
+     * keystroke until updateRotors looks at the new positions.
+     */
+    private void clearSpins() {
+        Arrays.fill(doISpin, false);
+        doISpin[doISpin.length - 1] = true;
+    }
+
+    /**
+     * Set the ring settings of my rotors according to RINGS, which must
+     * be a string of numRotors()-1 characters in my alphabet, ordered as
+     * for setRotors.  The rotors fold their ring settings into their
+     * wiring tables, so this costs nothing per character.
+     */
+    void setRings(String rings) {
+        int[] cps = rings.codePoints().toArray();
+        if (cps.length != _numRotors - 1) {
+            throw error("ring setting does not equal nR - 1");
+        }
+        for (int i = 1; i < _numRotors; i++) {
+            rotorList[i].setRing(_alphabet.toInt(cps[i - 1]));
         }
+        _laidOut = false;
     }
 
     /**
@@ -106,6 +436,7 @@ class Machine {
      */
     void setPlugboard(Permutation plugboard) {
         _plugboard = plugboard;
+        _laidOut = false;
     }
 
     /**
@@ -126,16 +457,21 @@ class Machine {
         }
     }
     /**
-     * Spin rotors that have true in doISpin.
+     * Spin rotors that have true in doISpin.  Advancing any rotor other
+     * than the rightmost one invalidates the cached inner path.
      */
     void spinRotors() {
         for (int i = 1; i < rotorList.length - 1; i++) {
             if (doISpin[i]) {
                 rotorList[i].advance();
+                _settings[i] = rotorList[i].setting();
                 doISpin[i] = false;
+                _innerValid = false;
             }
         }
-        rotorList[rotorList.length - 1].advance();
+        int last = rotorList.length - 1;
+        rotorList[last].advance();
+        _settings[last] = rotorList[last].setting();
     }
     /**
      * Converts an integer to another integer, passed along through the rotors.
@@ -145,16 +481,287 @@ class Machine {
     int convert(int c) {
         updateRotors();
         spinRotors();
-        int pluggedC = _plugboard.permute(c);
-        for (int i = numRotors() - 1; i >= 0; i--) {
-            pluggedC = rotorList[i].convertForward(pluggedC);
+        int pluggedC = path(c);
+        updateRotors();
+        return pluggedC;
+    }
+
+    /**
+     * Return the conversion of C by the plugboard and rotors in their
+     * current positions, without moving any rotors.
+     */
+    private int path(int c) {
+        return _compiled ? compiledPath(c) : directPath(c);
+    }
+
+    /**
+     * Return path(C) as computed by the direct engine, which takes the
+     * signal through each rotor in turn and builds no tables.
+     */
+    private int directPath(int c) {
+        int y = _plugboard == null ? c : _plugboard.permute(c);
+        int last = rotorList.length - 1;
+        for (int i = last; i >= 0; i--) {
+            y = rotorList[i].convertForward(y);
+        }
+        for (int i = 1; i <= last; i++) {
+            y = rotorList[i].convertBackward(y);
+        }
+        return _plugboard == null ? y : _plugboard.permute(y);
+    }
+
+    /**
+     * Return path(C) as computed by the compiled engine.
+     */
+    private int compiledPath(int c) {
+        if (!_laidOut) {
+            layout();
+        }
+        if (!_innerValid) {
+            computeInner();
+        }
+        int[] arena = _arena;
+        int n = _alphabet.size();
+        int s = _settings[_settings.length - 1];
+        int y = arena[n * PLUG + c] + s;
+        if (y >= n) {
+            y -= n;
+        }
+        y = arena[n * FAST + y] - s;
+        if (y < 0) {
+            y += n;
+        }
+        y = arena[n * INNER + y] + s;
+        if (y >= n) {
+            y -= n;
+        }
+        y = arena[n * (FAST + 1) + y] - s;
+        if (y < 0) {
+            y += n;
+        }
+        return arena[n * PLUG + y];
+    }
+
+    /**
+     * Advance the rotors as N keystrokes would, without converting
+     * anything.  Only keystrokes that move a rotor other than the
+     * rightmost are simulated; runs in which only the rightmost rotor
+     * moves are taken in one jump, and once the rotor positions repeat,
+     * whole periods of the stepping are skipped.  The cost is thus
+     * bounded by the stepping period, however large N is.
+     */
+    void skip(long n) {
+        if (n <= 0) {
+            return;
+        }
+        updateRotors();
+        spinRotors();
+        updateRotors();
+        n -= 1;
+        int last = rotorList.length - 1;
+        int size = _alphabet.size();
+        int[] pos = new int[rotorList.length];
+        for (int i = 1; i <= last; i++) {
+            pos[i] = rotorList[i].setting();
+        }
+        boolean fastMoves = rotorList[last].rotates();
+        boolean fastCarries = fastMoves && rotorList[last - 1].rotates();
+        HashMap<Long, Long> seen = null;
+        if (Math.pow(size, last) < Long.MAX_VALUE) {
+            seen = new HashMap<>();
+        }
+        while (n > 0) {
+            if (!slowCarry(pos)) {
+                long jump = n;
+                if (fastCarries) {
+                    jump = Math.min(jump, toNotch(pos[last]));
+                }
+                if (jump > 0) {
+                    if (fastMoves) {
+                        pos[last] = (int) ((pos[last] + jump) % size);
+                    }
+                    n -= jump;
+                    continue;
+                }
+            }
+            if (seen != null) {
+                Long before = seen.put(pack(pos), n);
+                if (before != null) {
+                    n %= before - n;
+                    seen = null;
+                    continue;
+                } else if (seen.size() > MAX_SKIP_STATES) {
+                    seen = null;
+                }
+            }
+            step(pos);
+            n -= 1;
         }
-        for (int i = 1; i < numRotors(); i++) {
-            pluggedC = rotorList[i].convertBackward(pluggedC);
+        for (int i = 1; i <= last; i++) {
+            rotorList[i].set(pos[i]);
         }
-        pluggedC = _plugboard.permute(pluggedC);
+        clearSpins();
+        syncSettings();
         updateRotors();
-        return pluggedC;
+    }
+
+    /**
+     * Return true iff, with the rotors at positions POS, some rotor
+     * other than the rightmost is at a notch that carries its left
+     * neighbor.
+     */
+    private boolean slowCarry(int[] pos) {
+        for (int i = 1; i < rotorList.length - 2; i++) {
+            if (rotorList[i + 1].notchAt(pos[i + 1])
+                && rotorList[i].rotates()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the number of keystrokes that take the rightmost rotor
+     * from position POSN to a notch, or Long.MAX_VALUE if it has none.
+     */
+    private long toNotch(int posn) {
+        Rotor fast = rotorList[rotorList.length - 1];
+        int size = _alphabet.size();
+        for (int d = 0; d < size; d++) {
+            if (fast.notchAt((posn + d) % size)) {
+                return d;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Move the rotor positions POS as one keystroke would, following
+     * the same rules as updateRotors and spinRotors.
+     */
+    private void step(int[] pos) {
+        int last = rotorList.length - 1;
+        boolean[] spin = new boolean[rotorList.length];
+        for (int i = 1; i < last; i++) {
+            if (rotorList[i + 1].notchAt(pos[i + 1])
+                && rotorList[i].rotates()) {
+                spin[i] = true;
+                spin[i + 1] = true;
+            }
+        }
+        spin[last] = true;
+        for (int i = 1; i <= last; i++) {
+            if (spin[i] && rotorList[i].rotates()) {
+                pos[i] = (pos[i] + 1) % _alphabet.size();
+            }
+        }
+    }
+
+    /**
+     * Return the rotor positions POS packed into a single number.
+     */
+    private long pack(int[] pos) {
+        long result = 0;
+        for (int i = 1; i < pos.length; i++) {
+            result = result * _alphabet.size() + pos[i];
+        }
+        return result;
+    }
+
+    /**
+     * Return the keystream of the next LENGTH keystrokes from the
+     * current rotor positions, advancing the rotors past them.
+     */
+    Keystream keystream(int length) {
+        int size = _alphabet.size();
+        int[] table = new int[length * size];
+        for (int k = 0; k < length; k++) {
+            updateRotors();
+            spinRotors();
+            for (int c = 0; c < size; c++) {
+                table[k * size + c] = compiledPath(c);
+            }
+            updateRotors();
+        }
+        return new Keystream(_alphabet, table, length);
+    }
+
+    /**
+     * Recompute the inner path, the composite of every rotor but the
+     * rightmost: forward through the slower rotors, off the reflector,
+     * and back.
+     */
+    private void computeInner() {
+        int[] arena = _arena;
+        int n = _alphabet.size();
+        int last = rotorList.length - 1;
+        for (int x = 0; x < n; x++) {
+            int y = x;
+            for (int i = last - 1; i >= 0; i--) {
+                y = shift(arena[slot(i) + shift(y, _settings[i])],
+                        -_settings[i]);
+            }
+            for (int i = 1; i < last; i++) {
+                y = shift(arena[slot(i) + n + shift(y, _settings[i])],
+                        -_settings[i]);
+            }
+            arena[n * INNER + x] = y;
+        }
+        _innerValid = true;
+    }
+
+    /**
+     * Return contact X moved D places round the alphabet, where
+     * -size() < D < size().
+     */
+    private int shift(int x, int d) {
+        int y = x + d;
+        int n = _alphabet.size();
+        return y >= n ? y - n : y < 0 ? y + n : y;
+    }
+
+    /**
+     * Convert in place those of CHARS[START .. END-1] that are in my
+     * alphabet, leaving the others alone, and updating the state of the
+     * rotors accordingly.
+     */
+    void convert(char[] chars, int start, int end) {
+        if (_generated) {
+            int[] text = new int[end - start];
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                if (_alphabet.contains(chars[i])) {
+                    text[length++] = _alphabet.toInt(chars[i]);
+                }
+            }
+            convertGenerated(text, 0, length);
+            length = 0;
+            for (int i = start; i < end; i++) {
+                if (_alphabet.contains(chars[i])) {
+                    chars[i] = _alphabet.toChar(text[length++]);
+                }
+            }
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            if (_alphabet.contains(chars[i])) {
+                chars[i] = _alphabet.toChar(convert(_alphabet.toInt(chars[i])));
+            }
+        }
+    }
+
+    /**
+     * Convert in place TEXT[START .. END-1], letter indices, updating
+     * the state of the rotors accordingly.
+     */
+    void convert(int[] text, int start, int end) {
+        if (_generated) {
+            convertGenerated(text, start, end);
+            return;
+        }
+        for (int i = start; i < end; i++) {
+            text[i] = convert(text[i]);
+        }
     }
 
     /**
@@ -162,18 +769,64 @@ class Machine {
      * the rotors accordingly.
      */
     String convert(String msg) {
-        String message = "";
-        for (int i = 0; i < msg.length(); i++) {
-            char myKey = msg.charAt(i);
-            char converted = ' ';
+        if (_generated) {
+            return convertGenerated(msg);
+        }
+        StringBuilder message = new StringBuilder(msg.length());
+        for (int i = 0; i < msg.length(); ) {
+            int myKey = msg.codePointAt(i);
+            i += Character.charCount(myKey);
             if (_alphabet.contains(myKey)) {
-                converted = _alphabet.toChar(convert(_alphabet.toInt(msg.charAt(i))));
+                message.appendCodePoint(_alphabet.toCodePoint(
+                        convert(_alphabet.toInt(myKey))));
+            } else {
+                message.append(' ');
+            }
+        }
+        return message.toString();
+    }
+
+    /**
+     * Return convert(MSG) as computed by my generated circuit.
+     */
+    private String convertGenerated(String msg) {
+        int[] text = new int[msg.length()];
+        int length = 0;
+        for (int i = 0; i < msg.length(); ) {
+            int cp = msg.codePointAt(i);
+            i += Character.charCount(cp);
+            if (_alphabet.contains(cp)) {
+                text[length++] = _alphabet.toInt(cp);
+            }
+        }
+        convertGenerated(text, 0, length);
+        StringBuilder message = new StringBuilder(msg.length());
+        length = 0;
+        for (int i = 0; i < msg.length(); ) {
+            int cp = msg.codePointAt(i);
+            i += Character.charCount(cp);
+            if (_alphabet.contains(cp)) {
+                message.appendCodePoint(
+                        _alphabet.toCodePoint(text[length++]));
+            } else {
+                message.append(' ');
             }
-            message += converted;
         }
-        return message;
+        return message.toString();
     }
 
+    /**
+     * Most rotor positions remembered while looking for the stepping
+     * period in skip.
+     */
+    private static final int MAX_SKIP_STATES = 1 << 20;
+    /**
+     * Offsets in _arena, in units of the alphabet size: the plugboard,
+     * the forward and backward wiring of the rightmost rotor, the
+     * inner path, and the wiring of the other slots, in slot order.
+     */
+    private static final int PLUG = 0, FAST = 1, INNER = 3, SLOTS = 4;
+
     /**
      * Common alphabet of my rotors.
      */
@@ -190,6 +843,15 @@ class Machine {
      * Collection of all rotors.
      */
     private Collection<Rotor> _allRotors;
+    /**
+     * Catalog holding my available rotors, if they come from one, else
+     * null.
+     */
+    private RotorSource _catalog;
+    /**
+     * My own copies of the rotors I have taken from _catalog, by name.
+     */
+    private HashMap<String, Rotor> _fromCatalog;
     /**
      * Rotor list of used rotors in order.
      */
@@ -202,5 +864,46 @@ class Machine {
      * Boolean array checking if rotors spin.
      */
     private boolean[] doISpin;
+    /**
+     * The tables one keystroke reads, laid out contiguously so that a
+     * keystroke touches as few cache lines as possible: see PLUG, FAST,
+     * INNER and SLOTS.  The inner path is the signal path through all
+     * rotors except the rightmost, indexed by the contact the signal
+     * leaves the rightmost rotor on.  Laid out when first used after
+     * rotors are inserted, their rings change or the plugboard does.
+     */
+    private int[] _arena;
+    /**
+     * True iff _arena holds the tables of the current rotors, rings and
+     * plugboard.
+     */
+    private boolean _laidOut;
+    /**
+     * True iff I convert with the compiled engine.
+     */
+    private boolean _compiled = true;
+    /**
+     * True iff I convert whole messages with _circuit.
+     */
+    private boolean _generated;
+    /**
+     * Generated circuit of the inserted rotors, or null if it has not
+     * been looked up since they were inserted.
+     */
+    private Circuit _circuit;
+    /**
+     * Table of the plugboard, as passed to _circuit.
+     */
+    private int[] _plugTable;
+    /**
+     * Settings of the inserted rotors, by slot, kept in step with the
+     * rotors themselves, which are moved only through me once inserted.
+     */
+    private int[] _settings;
+    /**
+     * True iff the inner path reflects the current settings of the
+     * slower rotors.
+     */
+    private boolean _innerValid;
 
 }
@@ -0,0 +1,97 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the cost per keystroke of Machine.convert for machines of
+ * several alphabet sizes and numbers of rotors.  To see the cache
+ * behavior behind the timings, run it under a profiler that reads the
+ * hardware counters, for instance
+ *   perf stat -e L1-dcache-loads,L1-dcache-load-misses \
+ *       java enigma.MachineBenchmark
+ * Usage: java enigma.MachineBenchmark [KEYSTROKES]
+ *
+ * @author charlesellis
+ */
+public final class MachineBenchmark {
+
+    /** Run the benchmark described by ARGS. */
+    public static void main(String... args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0])
+            : 20_000_000;
+        for (int round = 0; round < 3; round += 1) {
+            for (int size : new int[] {26, 256, 4096}) {
+                for (int slots : new int[] {5, 9}) {
+                    run(size, slots, count);
+                }
+            }
+        }
+    }
+
+    /** Time COUNT keystrokes on a machine with an alphabet of SIZE
+     *  characters and SLOTS rotors, all but two of them moving. */
+    private static void run(int size, int slots, int count) {
+        Random random = new Random(size * 31 + slots);
+        int[] cps = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            cps[i] = 0x100 + i;
+        }
+        Alphabet alpha = new Alphabet(cps);
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        String[] names = new String[slots];
+        int[] reflect = new int[size];
+        for (int i = 0; i < size; i += 2) {
+            reflect[i] = i + 1;
+            reflect[i + 1] = i;
+        }
+        names[0] = "R";
+        rotors.add(new Reflector("R", Permutation.fromTable(alpha,
+                reflect)));
+        for (int r = 1; r < slots; r += 1) {
+            names[r] = "W" + r;
+            Permutation perm = Permutation.fromTable(alpha,
+                    shuffle(size, random));
+            String notch = Character.toString(alpha.toCodePoint(
+                    random.nextInt(size)));
+            rotors.add(r == 1 ? new FixedRotor(names[r], perm)
+                    : new MovingRotor(names[r], perm, notch));
+        }
+        Machine machine = new Machine(alpha, slots, slots - 2, rotors);
+        machine.insertRotors(names);
+        machine.setPlugboard(Permutation.fromTable(alpha,
+                shuffle(size, random)).power(0));
+
+        int[] text = new int[1 << 16];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = random.nextInt(size);
+        }
+        long sum = 0;
+        long start = System.nanoTime();
+        for (int k = 0; k < count; k += 1) {
+            sum += machine.convert(text[k & (text.length - 1)]);
+        }
+        long nanos = System.nanoTime() - start;
+        _sink += sum;
+        System.out.printf("size %5d  slots %d  %6.2f ns/keystroke%n",
+                size, slots, (double) nanos / count);
+    }
+
+    /** Return a random permutation of 0 .. SIZE-1 drawn from RANDOM. */
+    private static int[] shuffle(int size, Random random) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            result[i] = i;
+        }
+        for (int i = size - 1; i > 0; i -= 1) {
+            int j = random.nextInt(i + 1);
+            int t = result[i];
+            result[i] = result[j];
+            result[j] = t;
+        }
+        return result;
+    }
+
+    /** Defeats dead-code elimination. */
+    private static volatile long _sink;
+}
@@ -59,16 +59,16 @@ public class MachineTest {
 
     @Test
     public void smallTest() {
-        Alphabet myAlphabet = new Alphabet("ABC");
+        Alphabet myAlphabet = new Alphabet("ABCD");
         ArrayList<Rotor> col = new ArrayList<Rotor>();
 
         Permutation plug = new Permutation("", myAlphabet);
-        Permutation p1 = new Permutation("(ABC)", myAlphabet);
-        Permutation p2 = new Permutation("(ABC)", myAlphabet);
-        Permutation p3 = new Permutation("(ABC)", myAlphabet);
-        Permutation p4 = new Permutation("(ABC)", myAlphabet);
-        Rotor i = new FixedRotor("I", p1);
-        Rotor ii = new MovingRotor("IV", p2, "C");
+        Permutation p1 = new Permutation("(AC) (BD)", myAlphabet);
+        Permutation p2 = new Permutation("(ABCD)", myAlphabet);
+        Permutation p3 = new Permutation("(ABDC)", myAlphabet);
+        Permutation p4 = new Permutation("(AB) (CD)", myAlphabet);
+        Rotor i = new Reflector("I", p1);
+        Rotor ii = new MovingRotor("II", p2, "C");
         Rotor iii = new MovingRotor("III", p3, "C");
         Rotor iv = new MovingRotor("IV", p4, "C");
         col.add(0, i);
@@ -78,19 +78,21 @@ public class MachineTest {
 
         Machine enigma = new Machine(myAlphabet, 4, 3, col);
 
-        i.set('A');
-        ii.set('A');
-        iii.set('A');
-        iv.set('A');
-        enigma.setPlugboard(plug);
-
         String[] rString = new String[]{"I", "II", "III", "IV"};
         enigma.insertRotors(rString);
+        enigma.setRotors("AAA");
+        enigma.setPlugboard(plug);
+        assertEquals(4, enigma.numRotors());
 
-        System.out.println(enigma.numRotors());
-        System.out.println(enigma.convert("ABC"));
-
-
+        String plain = "ABCDABCDDCBAAAAABBBBCCCCDDDD";
+        String cipher = enigma.convert(plain);
+        for (int k = 0; k < plain.length(); k += 1) {
+            assertNotEquals("Letter converted to itself at " + k,
+                    plain.charAt(k), cipher.charAt(k));
+        }
+        enigma.insertRotors(rString);
+        enigma.setRotors("AAA");
+        assertEquals("Wrong round trip", plain, enigma.convert(cipher));
     }
 
     private ArrayList<Rotor> rotors = ALL_ROTORS;
@@ -130,6 +132,126 @@ public class MachineTest {
         assertEquals("Wrong convert", "FROM", machine.convert("QVPQ"));
     }
 
+    @Test
+    public void testLongRoundTrip() {
+        StringBuilder plain = new StringBuilder();
+        for (int i = 0; i < 2000; i += 1) {
+            plain.append(UPPER_STRING.charAt((i * 7 + i / 26) % 26));
+        }
+        Machine machine = new Machine(UPPER, 5, 3, rotors);
+        machine.insertRotors(insert);
+        machine.setRotors("AXLE");
+        machine.setPlugboard(new Permutation("(HQ) (EX)", UPPER));
+        String cipher = machine.convert(plain.toString());
+        machine.insertRotors(insert);
+        machine.setRotors("AXLE");
+        assertEquals("Wrong round trip", plain.toString(),
+                machine.convert(cipher));
+    }
+
+    @Test
+    public void testRingSettings() {
+        Machine machine = new Machine(UPPER, 5, 3, rotors);
+        machine.insertRotors(new String[] {"B", "BETA", "I", "II", "III"});
+        machine.setPlugboard(new Permutation("", UPPER));
+        machine.setRotors("AAAA");
+        machine.setRings("ABBB");
+        String ringed = machine.convert("AAAAA");
+        machine.setRotors("AAAA");
+        machine.setRings("AAAA");
+        assertEquals("Wrong ring setting convert", "EWTYX", ringed);
+        assertEquals("Wrong convert after ring reset", "BDZGO",
+                machine.convert("AAAAA"));
+    }
+
+    @Test
+    public void testKeystream() {
+        Machine machine = new Machine(UPPER, 5, 3, rotors);
+        machine.insertRotors(insert);
+        machine.setRotors("AXLE");
+        machine.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)", UPPER));
+        Keystream keystream = machine.keystream(700);
+        machine.setRotors("AXLE");
+        String msg = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF ROSEWOOD";
+        String expected = machine.convert(msg + msg);
+        assertEquals("Wrong keystream convert", expected.substring(0,
+                msg.length()), keystream.convert(msg, 0));
+        assertEquals("Wrong keystream convert at offset",
+                expected.substring(msg.length()),
+                keystream.convert(msg, msg.replace(" ", "").length()));
+    }
+
+    @Test
+    public void testSkip() {
+        Machine machine = new Machine(UPPER, 5, 3, rotors);
+        machine.insertRotors(new String[] {"B", "BETA", "II", "I", "III"});
+        machine.setPlugboard(new Permutation("(HQ) (EX)", UPPER));
+        String probe = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        for (long n : new long[] {0, 1, 5, 26, 650, 17000, 123457}) {
+            machine.setRotors("AQDU");
+            for (long k = 0; k < n; k += 1) {
+                machine.convert(0);
+            }
+            String expected = machine.convert(probe);
+            machine.setRotors("AQDU");
+            machine.skip(n);
+            assertEquals("Wrong skip by " + n, expected,
+                    machine.convert(probe));
+        }
+    }
+
+    @Test
+    public void testSkipDoubleNotches() {
+        Machine machine = Main.machine("config", DEFAULT_CONFIG.toCharArray());
+        String probe = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        for (String setting : new String[] {
+                "* C Gamma VI VIII VII ZQLD BCDE (AM) (TQ)",
+                "* B Beta VII VI VIII AZMY", "* B Beta I VI II AEZU"}) {
+            for (long n : new long[] {1, 12, 13, 26, 27, 338, 339, 676,
+                                      9001, 200003}) {
+                machine.setUp(setting);
+                for (long k = 0; k < n; k += 1) {
+                    machine.convert(0);
+                }
+                int[] positions = machine.positions();
+                String expected = machine.convert(probe);
+                machine.setUp(setting);
+                machine.skip(n);
+                assertArrayEquals("Wrong positions after skip by " + n
+                        + " from " + setting, positions,
+                        machine.positions());
+                assertEquals("Wrong skip by " + n + " from " + setting,
+                        expected, machine.convert(probe));
+            }
+        }
+    }
+
+    @Test
+    public void testSetRotorsAfterCarry() {
+        Machine machine = new Machine(UPPER, 5, 3, rotors);
+        String[] slots = {"B", "BETA", "II", "I", "III"};
+        String probe = "THEQUICKBROWNFOXJUMPSOVERTHELAZYDOG";
+        for (int k = 0; k < 26 * 26; k += 1) {
+            String setting = "A" + UPPER_STRING.charAt(k / 26)
+                + UPPER_STRING.charAt(k % 26) + "A";
+            machine.insertRotors(slots);
+            machine.setPlugboard(new Permutation("(HQ) (EX)", UPPER));
+            machine.setRotors(setting);
+            int[] positions = machine.positions();
+            String expected = machine.convert(probe);
+            machine.setRotors("AAPV");
+            machine.convert(0);
+            machine.setRotors(setting);
+            assertEquals("Wrong convert after setRotors(" + setting + ")",
+                    expected, machine.convert(probe));
+            machine.setRotors("AAPV");
+            machine.convert(0);
+            machine.setPositions(positions);
+            assertEquals("Wrong convert after setPositions at " + setting,
+                    expected, machine.convert(probe));
+        }
+    }
+
     /** A shortened implementation of ALLROTORS. */
     static final ArrayList<Rotor> ALL_ROTORS = new ArrayList<>();
     static {
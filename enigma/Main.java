@@ -1,12 +1,29 @@
 package enigma;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import java.util.ArrayList;
 import java.util.NoSuchElementException;
-import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import static enigma.EnigmaException.*;
 
@@ -20,13 +37,66 @@ public final class Main {
     /**
      * Process a sequence of encryptions and decryptions, as
      * specified by ARGS, where 1 <= ARGS.length <= 3.
-     * ARGS[0] is the name of a configuration file.
+     * ARGS[0] is the name of a configuration file, or of a rotor
+     * catalog written by --catalog.
      * ARGS[1] is optional; when present, it names an input file
      * containing messages.  Otherwise, input comes from the standard
      * input.  ARGS[2] is optional; when present, it names an output
      * file for processed messages.  Otherwise, output goes to the
      * standard output. Exits normally if there are no errors in the input;
      * otherwise with code 1.
+     *
+     * If ARGS[1] names a directory, ARGS[2] must name an output
+     * directory.  Every file under ARGS[1] is then processed as an input
+     * file on its own, several at a time, with its output written to the
+     * same relative path under ARGS[2].  An error in one file is
+     * reported and the others still processed; the exit code is 1 if
+     * any file failed.
+     *
+     * Options, written --NAME or --NAME=VALUE, may appear anywhere
+     * among ARGS:
+     *   --window=OFFSET,LENGTH  For each message, output only the LENGTH
+     *       characters starting at character OFFSET (counting from 0),
+     *       without converting the characters before them.
+     *   --checkpoint=FILE  Every second or so, flush the output and
+     *       append a record of the progress of the run to FILE.
+     *   --checkpoint-interval=MS  Checkpoint every MS milliseconds,
+     *       where MS is positive.
+     *   --resume  Continue the run recorded in the checkpoint file from
+     *       its last checkpoint.  Needs input and output files.
+     *   --stats  Report statistics on the configuration to the standard
+     *       error.
+     *   --catalog=FILE  Compile the rotors of the configuration into a
+     *       rotor catalog in FILE, and run from it.
+     *   --text-stats[=FILE]  Count the n-grams of the input and output
+     *       and report their indices of coincidence to the standard
+     *       error, and those of each message to FILE if given.
+     *   --keystrokes  Convert each letter of the input as soon as it
+     *       arrives, for live feeds, writing output as it is produced
+     *       (see KeystrokeStream).  With --stats, report the latency
+     *       from reading each letter to writing its conversion.
+     *   --engine-profile=FILE  Read the thresholds at which keys move
+     *       to faster engines from FILE, or if there is no FILE, measure
+     *       them before the first message and write them to it.  By
+     *       default they are measured in the background (see
+     *       EngineTiers).
+     *   --generate  Convert each message with code generated for its
+     *       combination of rotors (see CircuitCompiler).
+     *   --reload  Watch the configuration file, and apply it as changed
+     *       to each settings line, or in directory mode each file,
+     *       from then on (see ConfigHolder).  A changed configuration
+     *       that fails to load is reported and ignored.
+     *   --packed-output  Write the converted messages, and the settings
+     *       lines they were converted under, as packed text (see
+     *       PackedText) rather than in groups of five letters.
+     *   --packed-input  Read the input as packed text, as written by
+     *       --packed-output.
+     *   --jobs=N  Compile the rotors for --catalog with up to N
+     *       threads, and in directory mode, process up to N files at
+     *       once (default: the number of processors).
+     *
+     * A flight recording of a run includes the events described in
+     * EnigmaEvents.
      */
     public static void main(String... args) {
         try {
@@ -42,41 +112,296 @@ public final class Main {
      * Check ARGS and open the necessary files (see comment on main).
      */
     Main(String[] args) {
+        ArrayList<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                setOption(arg);
+            } else {
+                files.add(arg);
+            }
+        }
+        args = files.toArray(new String[0]);
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
 
-        _config = getInput(args[0]);
+        if (_reload && (_catalogName != null
+                        || RotorCatalog.isCatalog(args[0]))) {
+            throw error("--reload needs a configuration file, "
+                    + "not a catalog");
+        }
+
+        if ((_packedInput || _packedOutput)
+            && (_keystrokes || _windowStart >= 0 || _resume
+                || _checkpointName != null || _textStatsName != null
+                || _reload)) {
+            throw error("packed text takes no --keystrokes, --window, "
+                    + "--checkpoint, --resume, --text-stats or --reload");
+        }
+
+        if (_tiersName != null && new File(_tiersName).exists()) {
+            _tiers = EngineTiers.load(_tiersName);
+        }
+
+        _configName = args[0];
+        if (!RotorCatalog.isCatalog(_configName)) {
+            _config = Tokenizer.open(_configName);
+        }
+
+        if (_resume) {
+            if (_checkpointName == null || args.length != 3) {
+                throw error("--resume needs --checkpoint and input and "
+                        + "output files");
+            }
+            _resumeFrom = Checkpoint.readLast(_checkpointName);
+        }
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        if (args.length > 1 && new File(args[1]).isDirectory()) {
+            if (args.length != 3 || _resume || _checkpointName != null
+                || _packedInput || _packedOutput) {
+                throw error("directory mode needs an output directory, "
+                        + "and no checkpoints or packed text");
+            }
+            _inputDir = Paths.get(args[1]);
+            _outputDir = Paths.get(args[2]);
+            return;
+        } else if (_keystrokes) {
+            if (_resume || _checkpointName != null || _windowStart >= 0
+                || _textStatsName != null || _reload) {
+                throw error("--keystrokes takes no --checkpoint, --resume, "
+                        + "--window, --text-stats or --reload");
+            }
+            try {
+                _keystrokeInput = args.length > 1
+                    ? new FileInputStream(args[1])
+                    : new FileInputStream(FileDescriptor.in);
+            } catch (IOException excp) {
+                throw error("could not open %s", args[1]);
+            }
+            _inputName = args.length > 1 ? args[1] : "standard input";
+            _output = args.length > 2 ? getOutput(args[2]) : System.out;
+            return;
+        } else if (_packedInput) {
+            try {
+                _packedSource = args.length > 1
+                    ? new FileInputStream(args[1])
+                    : new FileInputStream(FileDescriptor.in);
+            } catch (IOException excp) {
+                throw error("could not open %s", args[1]);
+            }
+            _inputName = args.length > 1 ? args[1] : "standard input";
+        } else if (args.length > 1) {
+            _input = getLines(args[1]);
+            _inputName = args[1];
         } else {
-            _input = new Scanner(System.in);
+            _input = new LineReader(System.in, 0);
+            _inputName = "standard input";
         }
 
         if (args.length > 2) {
             _output = getOutput(args[2]);
+            _outputName = args[2];
         } else {
             _output = System.out;
+            _outputName = "standard output";
+        }
+
+        if (_checkpointName != null) {
+            _checkpoint = Checkpoint.open(_checkpointName);
+            _lastCheckpoint = System.nanoTime();
+        }
+    }
+
+    /**
+     * A Main whose only job is to read the configuration CONFIG.
+     */
+    private Main(Tokenizer config) {
+        _config = config;
+    }
+
+    /**
+     * A Main converting the file INPUT into the file OUTPUT with
+     * MACHINE, with the options of PARENT, for directory mode.
+     */
+    private Main(Main parent, Machine machine, Path input, Path output) {
+        _alphabet = parent._alphabet;
+        _windowStart = parent._windowStart;
+        _windowEnd = parent._windowEnd;
+        _textStats = parent._textStats;
+        _messages = parent._messages;
+        _tiers = parent._tiers;
+        _tiersName = parent._tiersName;
+        _input = getLines(input.toString());
+        _inputName = input.toString();
+        try {
+            Files.createDirectories(output.toAbsolutePath().getParent());
+        } catch (IOException excp) {
+            throw error("could not create directory for %s", output);
+        }
+        _output = getOutput(output.toString());
+        _machine = machine;
+    }
+
+    /**
+     * Record the command-line option ARG (see comment on main).
+     */
+    private void setOption(String arg) {
+        int eq = arg.indexOf('=');
+        String name = eq < 0 ? arg : arg.substring(0, eq);
+        String value = eq < 0 ? "" : arg.substring(eq + 1);
+        try {
+            switch (name) {
+            case "--window":
+                String[] range = value.split(",");
+                if (range.length != 2) {
+                    throw error("--window needs OFFSET,LENGTH");
+                }
+                _windowStart = Long.parseLong(range[0].trim());
+                _windowEnd = _windowStart + Long.parseLong(range[1].trim());
+                if (_windowStart < 0 || _windowEnd < _windowStart) {
+                    throw error("bad window %s", value);
+                }
+                break;
+            case "--checkpoint":
+                if (value.isEmpty()) {
+                    throw error("--checkpoint needs a file name");
+                }
+                _checkpointName = value;
+                break;
+            case "--checkpoint-interval":
+                long millis = Long.parseLong(value);
+                if (millis <= 0 || millis > Long.MAX_VALUE / 1_000_000L) {
+                    throw error("bad value for %s: %s", name, value);
+                }
+                _checkpointInterval = millis * 1_000_000L;
+                break;
+            case "--resume":
+                _resume = true;
+                break;
+            case "--stats":
+                _stats = true;
+                break;
+            case "--keystrokes":
+                _keystrokes = true;
+                break;
+            case "--generate":
+                _generate = true;
+                break;
+            case "--reload":
+                _reload = true;
+                break;
+            case "--packed-input":
+                _packedInput = true;
+                break;
+            case "--packed-output":
+                _packedOutput = true;
+                break;
+            case "--engine-profile":
+                if (value.isEmpty()) {
+                    throw error("--engine-profile needs a file name");
+                }
+                _tiersName = value;
+                break;
+            case "--jobs":
+                _jobs = Integer.parseInt(value);
+                if (_jobs < 1) {
+                    throw error("bad value for --jobs: %s", value);
+                }
+                break;
+            case "--text-stats":
+                _textStatsName = value;
+                break;
+            case "--catalog":
+                if (value.isEmpty()) {
+                    throw error("--catalog needs a file name");
+                }
+                _catalogName = value;
+                break;
+            default:
+                throw error("unknown option %s", name);
+            }
+        } catch (NumberFormatException excp) {
+            throw error("bad value for %s: %s", name, value);
+        }
+    }
+
+    /**
+     * Return a machine configured from the configuration file named
+     * CONFIG, with no rotors inserted.
+     */
+    static Machine machine(String config) {
+        return new Main(new String[] {config}).readConfig();
+    }
+
+    /**
+     * Return machine(CONFIG), but with all its rotors compiled, by up
+     * to JOBS threads, unless CONFIG is a catalog.
+     */
+    static Machine compiledMachine(String config, int jobs) {
+        Main main = new Main(new String[] {config});
+        Machine result = main.readConfig();
+        if (main._rotors != null) {
+            main._rotors.load(jobs);
+        }
+        return result;
+    }
+
+    /**
+     * Return a machine configured from TEXT, the contents of a
+     * configuration file called NAME in errors, with no rotors
+     * inserted.
+     */
+    static Machine machine(String name, char[] text) {
+        return new Main(new Tokenizer(name, text, 1)).readConfig();
+    }
+
+    /**
+     * Return true iff LINE is a settings line, that is, its first
+     * whitespace-delimited token is "*".
+     */
+    static boolean isSettings(String line) {
+        int i = 0;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i += 1;
         }
+        return i < line.length() && line.charAt(i) == '*'
+            && (i + 1 == line.length()
+                || Character.isWhitespace(line.charAt(i + 1)));
     }
 
     /**
-     * Return a Scanner reading from the file named NAME.
+     * Return a LineReader reading from the file named NAME, starting
+     * from the checkpoint being resumed, if any.
      */
-    private Scanner getInput(String name) {
+    private LineReader getLines(String name) {
         try {
-            return new Scanner(new File(name));
+            FileInputStream in = new FileInputStream(name);
+            long start = 0;
+            if (_resumeFrom != null) {
+                start = _resumeFrom.input();
+                in.getChannel().position(start);
+            }
+            return new LineReader(in, start);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
+
     /**
-     * Return a PrintStream writing to the file named NAME.
+     * Return a PrintStream writing to the file named NAME.  When
+     * resuming from a checkpoint, the file is cut back to the length it
+     * had then and appended to.
      */
     private PrintStream getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            if (_resumeFrom != null) {
+                try (RandomAccessFile file = new RandomAccessFile(name,
+                        "rw")) {
+                    file.setLength(_resumeFrom.output());
+                }
+            }
+            _outputFile = new FileOutputStream(name, _resumeFrom != null);
+            return new PrintStream(_outputFile);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -87,153 +412,622 @@ public final class Main {
      * file _config and apply it to the messages in _input, sending the
      * results to _output.
      */
-    private void process() {
-        Machine enigma = readConfig();
-        _setting = _input.nextLine();
-        setUp(enigma, _setting);
+    void process() {
+        Machine enigma;
+        if (_reload) {
+            _configs = new ConfigHolder(_configName, _jobs);
+            _configs.watch();
+            _session = _configs.open();
+            enigma = _session.machine();
+            _alphabet = enigma.alphabet();
+        } else {
+            enigma = readConfig();
+        }
+        enigma.setGenerated(_generate);
+        if (_textStatsName != null) {
+            _textStats = new TextStats(_alphabet);
+        }
+        if (_stats && _catalog != null) {
+            System.err.printf("%d rotors in catalog, %d bytes%n",
+                    _catalog.size(), _catalog.bytes());
+        }
+        if (_packedOutput) {
+            _packer = new PackedText.Writer(_outputFile != null ? _outputFile
+                    : new FileOutputStream(FileDescriptor.out), _alphabet,
+                    _outputName);
+        }
+        if (_inputDir != null) {
+            processDirectory(enigma);
+        } else if (_keystrokes) {
+            processKeystrokes(enigma);
+        } else if (_packedInput) {
+            _unpacker = new PackedText.Reader(_packedSource, _alphabet,
+                    _inputName);
+            processPacked(enigma);
+        } else {
+            processFile(enigma);
+        }
+        if (_packer != null) {
+            _packer.flush();
+            if (_stats) {
+                System.err.println(_packer.stats());
+            }
+        }
+        if (_textStats != null) {
+            reportText();
+        }
+        if (_stats && _wirings != null) {
+            System.err.println(_wirings.stats());
+        }
+        if (_stats && _rotors != null) {
+            System.err.printf("%d of %d rotors compiled%n",
+                    _rotors.compiled(), _rotors.size());
+        }
+        if (_stats && !_keystrokes) {
+            System.err.println(_tiers.stats());
+        }
+        if (_stats && _generate) {
+            System.err.printf("%d circuits generated%n",
+                    CircuitCompiler.generated());
+        }
+        if (_configs != null) {
+            _session.close();
+            if (_stats) {
+                System.err.println(_configs.stats());
+            }
+            _configs.close();
+        }
+    }
+
+    /**
+     * Convert _keystrokeInput with ENIGMA a keystroke at a time,
+     * writing straight to the file under _output.
+     */
+    private void processKeystrokes(Machine enigma) {
+        _output.flush();
+        OutputStream out = _outputFile != null ? _outputFile
+            : new FileOutputStream(FileDescriptor.out);
+        KeystrokeStream stream =
+            new KeystrokeStream(enigma, _keystrokeInput, out, _inputName);
+        try {
+            stream.run();
+        } finally {
+            if (_stats) {
+                System.err.println(stream.latencies());
+            }
+        }
+    }
+
+    /**
+     * Convert every file under _inputDir into the same place under
+     * _outputDir, up to _jobs at a time, each with its own copy of
+     * PROTOTYPE, or with --reload, of the machine of the configuration
+     * current when it starts.  Report the files that fail as they fail,
+     * and then fail myself if any did.
+     */
+    private void processDirectory(Machine prototype) {
+        ArrayList<Path> inputs = new ArrayList<>();
+        try (Stream<Path> tree = Files.walk(_inputDir)) {
+            tree.filter(Files::isRegularFile).forEach(inputs::add);
+        } catch (IOException | UncheckedIOException excp) {
+            throw error("could not read directory %s", _inputDir);
+        }
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(_jobs);
+        for (Path input : inputs) {
+            Path output = _outputDir.resolve(_inputDir.relativize(input));
+            pool.execute(() -> {
+                Main job = null;
+                ConfigHolder.Session session = null;
+                try {
+                    Machine machine = prototype.copy();
+                    if (_configs != null) {
+                        session = _configs.open();
+                        machine = session.machine();
+                        machine.setGenerated(_generate);
+                    }
+                    job = new Main(this, machine, input, output);
+                    job.processFile(job._machine);
+                } catch (RuntimeException excp) {
+                    failures.incrementAndGet();
+                    System.err.printf("Error: %s: %s%n", input,
+                            excp instanceof EnigmaException
+                            ? excp.getMessage() : excp.toString());
+                } finally {
+                    if (job != null) {
+                        job._output.close();
+                    }
+                    if (session != null) {
+                        session.close();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                continue;
+            }
+        } catch (InterruptedException excp) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+        if (failures.get() > 0) {
+            throw error("%d of %d files failed", failures.get(),
+                    inputs.size());
+        }
+    }
+
+    /**
+     * Apply ENIGMA to the messages in _input, sending the results to
+     * _output.
+     */
+    private void processFile(Machine enigma) {
+        if (_resumeFrom != null) {
+            _setting = _resumeFrom.settings();
+            enigma.setUp(_setting);
+            enigma.setPositions(_resumeFrom.positions());
+            _position = _resumeFrom.keystrokes();
+            _machinePosition = _position;
+            _keystreams.repeated(_setting);
+        } else {
+            _setting = _input.nextLine();
+            setKey(enigma, _setting);
+        }
         while (_input.hasNextLine()) {
             temp = _input.nextLine();
-            Scanner tempScanner = new Scanner(temp);
-            if (tempScanner.hasNext("[*]")) {
+            if (isSettings(temp)) {
                 _setting = temp;
-                setUp(enigma, _setting);
+                enigma = refresh(enigma);
+                setKey(enigma, _setting);
+            } else if (_windowStart >= 0) {
+                printWindow(enigma, temp);
+            } else if (_packer != null) {
+                int letters = toLetters(temp);
+                convert(enigma, _letters, letters);
+                _packer.message(_letters, 0, letters);
             } else if (temp.isEmpty()) {
                 _output.println();
             } else {
-                _message = enigma.convert(temp);
+                _message = convert(enigma, temp);
                 printMessageLine(_message);
+                countText(temp, _message);
+            }
+            if (_checkpoint != null
+                && System.nanoTime() - _lastCheckpoint
+                   >= _checkpointInterval) {
+                checkpoint(enigma);
             }
+        }
+        if (_checkpoint != null) {
+            checkpoint(enigma);
+        }
+    }
 
+    /**
+     * Apply ENIGMA to the packed messages read by _unpacker, sending
+     * the results to _output, or packed, to _packer.
+     */
+    private void processPacked(Machine enigma) {
+        int record;
+        while ((record = _unpacker.next()) != PackedText.END) {
+            if (record == PackedText.SETTINGS) {
+                _setting = _unpacker.settings();
+                setKey(enigma, _setting);
+            } else if (_setting == null) {
+                throw error("%s does not start with settings", _inputName);
+            } else {
+                int[] letters = _unpacker.letters();
+                convert(enigma, letters, _unpacker.length());
+                if (_packer != null) {
+                    _packer.message(letters, 0, _unpacker.length());
+                } else {
+                    printMessageLine(letters, _unpacker.length());
+                }
+            }
+        }
+    }
+
+    /**
+     * Return ENIGMA, or with --reload, if the configuration has changed
+     * since ENIGMA's session was opened, the machine of a new session
+     * on the new configuration, whose keys start with no keystreams.
+     * Report any reloads that have failed since the last call.
+     */
+    private Machine refresh(Machine enigma) {
+        if (_configs == null) {
+            return enigma;
+        }
+        int failures = _configs.failures();
+        if (failures != _reloadFailures) {
+            _reloadFailures = failures;
+            System.err.printf("Error: %s (configuration not "
+                    + "reloaded)%n", _configs.error().getMessage());
+        }
+        if (_configs.version() == _session.version()) {
+            return enigma;
+        }
+        _session.close();
+        _session = _configs.open();
+        Machine result = _session.machine();
+        result.setGenerated(_generate);
+        _alphabet = result.alphabet();
+        _keystreams = new KeystreamCache(KEYSTREAM_LENGTH, KEYSTREAM_BYTES);
+        return result;
+    }
 
+    /**
+     * Add message INPUT, which converted to OUTPUT, to the text
+     * statistics, if they are being kept.
+     */
+    private void countText(String input, String output) {
+        if (_textStats != null) {
+            _textStats.message(_messages.getAndIncrement(), input, output);
         }
+    }
 
+    /**
+     * Report the text statistics: the totals to the standard error, and
+     * the indices of coincidence of each message to _textStatsName if
+     * it is not empty.
+     */
+    private void reportText() {
+        TextStats.Counts in = _textStats.input();
+        TextStats.Counts out = _textStats.output();
+        System.err.printf("input:  %d letters, IoC %.4f%n", in.total(),
+                in.ioc());
+        System.err.printf("output: %d letters, IoC %.4f%n", out.total(),
+                out.ioc());
+        if (_textStatsName.isEmpty()) {
+            return;
+        }
+        try (PrintStream report = new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(_textStatsName)))) {
+            long[] ids = _textStats.ids();
+            double[] inIoc = _textStats.inputIoc();
+            double[] outIoc = _textStats.outputIoc();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < ids.length; i++) {
+                line.setLength(0);
+                line.append(ids[i]).append(' ');
+                appendFixed(line, inIoc[i]);
+                line.append(' ');
+                appendFixed(line, outIoc[i]);
+                report.println(line);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", _textStatsName);
+        }
+        if (_textStats.unreported() > 0) {
+            System.err.printf("%s: only the first %d messages reported%n",
+                    _textStatsName, TextStats.MAX_MESSAGES);
+        }
+    }
+
+    /**
+     * Append non-negative X to OUT with four decimal places, as %.4f
+     * would, without the cost of a Formatter.
+     */
+    private static void appendFixed(StringBuilder out, double x) {
+        long scaled = Math.round(x * 10000);
+        long frac = scaled % 10000;
+        out.append(scaled / 10000).append('.');
+        for (long d = 1000; d > frac && d > 1; d /= 10) {
+            out.append('0');
+        }
+        out.append(frac);
+    }
+
+    /**
+     * Flush my output to disk and append a checkpoint of the state of
+     * the run, with M in its current position, to the checkpoint file.
+     */
+    private void checkpoint(Machine M) {
+        syncMachine(M);
+        _output.flush();
+        try {
+            long written = 0;
+            if (_outputFile != null) {
+                _outputFile.getChannel().force(false);
+                written = _outputFile.getChannel().position();
+            }
+            new Checkpoint(_input.position(), written, _setting, _position,
+                    M.positions()).write(_checkpoint);
+        } catch (IOException excp) {
+            throw error("could not write checkpoint: %s",
+                    excp.getMessage());
+        }
+        _lastCheckpoint = System.nanoTime();
     }
 
     /**
      * Return an Enigma machine configured from the contents of configuration
-     * file _config.
+     * file _config, recording a ConfigLoad event.
      */
     private Machine readConfig() {
+        if (!EnigmaEvents.enabled()) {
+            return loadConfig();
+        }
+        EnigmaEvents.ConfigLoad event = new EnigmaEvents.ConfigLoad();
+        event.begin();
+        Machine result = loadConfig();
+        if (event.shouldCommit()) {
+            if (_catalog != null) {
+                event.source = _configName;
+                event.rotors = _catalog.size();
+                event.bytes = _catalog.bytes();
+            } else {
+                event.source = _config.source();
+                event.rotors = _rotors.size();
+                event.bytes = _config.bytes();
+            }
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Return an Enigma machine configured from the contents of
+     * configuration file _config.
+     */
+    private Machine loadConfig() {
+        if (_configName != null && RotorCatalog.isCatalog(_configName)) {
+            _catalog = RotorCatalog.open(_configName);
+            _alphabet = _catalog.alphabet();
+            return _catalog.machine();
+        }
         try {
             String myLetters = _config.nextLine();
-            _alphabet = new Alphabet(myLetters);
+            try {
+                _alphabet = new Alphabet(myLetters);
+            } catch (EnigmaException excp) {
+                throw _config.error("%s", excp.getMessage());
+            }
+            _wirings = new WiringPool(_alphabet);
             if (!_config.hasNextInt()) {
-                throw error("config line 2a wrong format");
+                throw _config.errorAhead("config line 2a wrong format");
             }
             _numRotors = _config.nextInt();
             if (!_config.hasNextInt()) {
-                throw error("config line 2b wrong format");
+                throw _config.errorAhead("config line 2b wrong format");
             }
             _numPawls = _config.nextInt();
-            while (_config.hasNext()) {
-                rotorName = _config.next();
-                mnrNotches = _config.next();
-                _type = mnrNotches.charAt(0);
-                if (mnrNotches.length() > 1) {
-                    _notches = mnrNotches.substring(1);
-                }
-                _allRotors.add(readRotor());
+            _rotors = new ConfigLoader(_config, _alphabet, _wirings);
+            if (_catalogName != null) {
+                _catalog = RotorCatalog.build(_alphabet, _numRotors,
+                        _numPawls, _rotors.load(_jobs), _catalogName);
+                _rotors = null;
+                return _catalog.machine();
             }
-            for (int i = 0; i < _allRotors.size(); i++) {
-                for (int j = i + 1; j < _allRotors.size(); j++) {
-                    if (_allRotors.get(i).name().toString()
-                            .equals(_allRotors.get(j).name().toString())) {
-                        throw error("two rotors have same name");
-                    }
-                }
-            }
-            return new Machine(_alphabet, _numRotors, _numPawls, _allRotors);
-
-
+            _rotors.check();
+            return new Machine(_alphabet, _numRotors, _numPawls, _rotors);
         } catch (NoSuchElementException excp) {
             throw error("configuration file truncated");
         }
     }
 
     /**
-     * Return a rotor, reading its description from _config.
+     * Start a message under settings line SETTINGS, using the cached
+     * keystream for it if there is one, and otherwise setting up M with
+     * the engine the letters converted under SETTINGS so far have
+     * earned.  A settings line seen before that has earned a keystream
+     * gets one built.  Writes SETTINGS to the packed output, if any.
+     * Records a SetUp event.
      */
-    private Rotor readRotor() {
-        try {
-            myPerm = "";
-            while (_config.hasNext("([(][^()]+[)])+")) {
-                onePerm = _config.next();
-                myPerm += onePerm + " ";
-                if (myPerm.isEmpty()) {
-                    throw error("bad rotor description");
-                }
+    private void setKey(Machine M, String settings) {
+        EnigmaEvents.SetUp event = null;
+        if (EnigmaEvents.enabled()) {
+            event = new EnigmaEvents.SetUp();
+            event.begin();
+        }
+        if (_packer != null) {
+            _packer.settings(settings);
+        }
+        _position = 0;
+        _keystream = _keystreams.get(settings);
+        boolean cached = _keystream != null;
+        if (_keystream == null) {
+            M.setUp(settings, _inputName, lineNumber());
+            if (_tiersName == null) {
+                _tiers.calibrateLater(M, settings, _keystreams.maxLength());
+            } else {
+                _tiers.calibrateOnce(M, settings, _keystreams.maxLength(),
+                                     _tiersName);
             }
+            _machinePosition = 0;
+            _keyLetters = _keystreams.letters(settings);
+            if (_keystreams.repeated(settings)
+                && _keyLetters >= _tiers.keystreamAt()) {
+                _keystream = M.keystream(_keystreams.maxLength());
+                _keystreams.put(settings, _keystream);
+                _machinePosition = -1;
+                _tiers.promoted("keystream", _keyLetters);
+            } else {
+                boolean compiled = _keyLetters >= _tiers.compileAt();
+                M.setCompiled(compiled);
+                _tiers.started(compiled);
+            }
+        } else {
+            _machinePosition = -1;
+        }
+        if (event != null && event.shouldCommit()) {
+            event.source = _inputName;
+            event.cached = cached;
+            event.line = lineNumber();
+            event.rotors = rotorNames(settings, M.numRotors());
+            event.commit();
+        }
+    }
 
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
-        }
-        Rotor thisRotor = null;
-        if (_type == 'M') {
-            thisRotor = new MovingRotor(rotorName,
-                    new Permutation(myPerm, _alphabet), _notches);
-        } else if (_type == 'N') {
-            thisRotor = new FixedRotor(rotorName,
-                    new Permutation(myPerm, _alphabet));
-        } else if (_type == 'R') {
-            thisRotor = new Reflector(rotorName,
-                    new Permutation(myPerm, _alphabet));
+    /**
+     * Return the names of the N rotors in settings line SETTINGS,
+     * separated by blanks.
+     */
+    private static String rotorNames(String settings, int n) {
+        Tokenizer line = new Tokenizer("", settings.toCharArray(), 1);
+        StringBuilder result = new StringBuilder();
+        line.skipToken();
+        for (int i = 0; i < n && line.hasNext(); i++) {
+            result.append(i == 0 ? "" : " ").append(line.next());
+        }
+        return result.toString();
+    }
+
+    /**
+     * Return the conversion of message line MSG under the current key,
+     * starting at keystroke _position: from the keystream while it
+     * lasts, and otherwise by M, which is first brought to _position
+     * and promoted to the compiled engine if the key has earned it.
+     * Records an Encryption event.
+     */
+    private String convert(Machine M, String msg) {
+        EnigmaEvents.Encryption event = null;
+        if (EnigmaEvents.enabled()) {
+            event = new EnigmaEvents.Encryption();
+            event.begin();
+        }
+        int letters = letters(msg);
+        String result;
+        if (_keystream != null
+            && _position + letters <= _keystream.length()) {
+            result = _keystream.convert(msg, (int) _position);
         } else {
-            throw error("rotor type is not M, N, or R");
+            prepare(M, letters);
+            result = M.convert(msg);
         }
-        return thisRotor;
+        converted(letters, event);
+        return result;
     }
 
     /**
-     * Set M according to the specification given on SETTINGS,
-     * which must have the format specified in the assignment.
+     * Convert in place TEXT[0 .. LETTERS-1], letter indices, as
+     * convert(M, MSG) converts the letters of a message line.
      */
-    private void setUp(Machine M, String settings) {
-        Scanner s = new Scanner(settings);
-        String p = s.next();
-        if (p.charAt(0) != '*') {
-            throw error("setting has no star");
+    private void convert(Machine M, int[] text, int letters) {
+        EnigmaEvents.Encryption event = null;
+        if (EnigmaEvents.enabled()) {
+            event = new EnigmaEvents.Encryption();
+            event.begin();
         }
-        rotorNameArray = new String[_numRotors];
-        for (int i = 0; i < M.numRotors(); i++) {
-            rotorNameArray[i] = s.next();
+        if (_keystream != null
+            && _position + letters <= _keystream.length()) {
+            _keystream.convert(text, 0, letters, (int) _position);
+        } else {
+            prepare(M, letters);
+            M.convert(text, 0, letters);
         }
+        converted(letters, event);
+    }
 
-        for (int i = 0; i < rotorNameArray.length; i++) {
-            for (int j = i + 1; j < rotorNameArray.length - 1; j++) {
-                if (rotorNameArray[i].equals(rotorNameArray[j])) {
-                    throw error("duplicate rotor names");
-                }
-            }
+    /**
+     * Bring M to _position to convert the next LETTERS letters, and
+     * promote it to the compiled engine if the key has earned it.
+     */
+    private void prepare(Machine M, int letters) {
+        syncMachine(M);
+        if (!M.compiled()
+            && _keyLetters + letters > _tiers.compileAt()) {
+            M.setCompiled(true);
+            _tiers.promoted("compiled", _keyLetters);
         }
-        for (int i = 0; i < rotorNameArray.length; i++) {
-            boolean unchanged = true;
-            for (int j = 0; j < _allRotors.size(); j++) {
-                if (rotorNameArray[i].equals(_allRotors.get(j).name())) {
-                    unchanged = false;
-                }
-            }
-            if (unchanged) {
-                throw error("rotor not in collection");
+        _machinePosition = _position + letters;
+    }
+
+    /**
+     * Count LETTERS letters just converted under the current key, and
+     * commit EVENT, if not null, for them.
+     */
+    private void converted(int letters, EnigmaEvents.Encryption event) {
+        _position += letters;
+        _keyLetters += letters;
+        _keystreams.count(_setting, letters);
+        EnigmaEvents.converted(letters);
+        if (event != null) {
+            event.characters = letters;
+            event.commit();
+        }
+    }
+
+    /**
+     * Return the number of the input line or packed record last read.
+     */
+    private int lineNumber() {
+        return _input != null ? _input.lineNumber() : _unpacker.records();
+    }
+
+    /**
+     * Put the indices of the letters of MSG in the alphabet into
+     * _letters, growing it if need be, and return how many there are.
+     */
+    private int toLetters(String msg) {
+        if (_letters.length < msg.length()) {
+            _letters = new int[Math.max(msg.length(), 2 * _letters.length)];
+        }
+        int result = 0;
+        for (int i = 0; i < msg.length(); ) {
+            int cp = msg.codePointAt(i);
+            i += Character.charCount(cp);
+            if (_alphabet.contains(cp)) {
+                _letters[result++] = _alphabet.toInt(cp);
             }
         }
-        M.insertRotors(rotorNameArray);
-        String h = s.next();
-        for (int i = 0; i < h.length(); i++) {
-            if (!_alphabet.contains(h.charAt(i))) {
-                throw error("wrong format");
+        return result;
+    }
+
+    /**
+     * Bring M to keystroke _position under the current settings line,
+     * setting it up again first if it is stale or too far along.
+     */
+    private void syncMachine(Machine M) {
+        if (_machinePosition < 0 || _machinePosition > _position) {
+            M.setUp(_setting);
+            if (_keystream != null) {
+                M.setCompiled(true);
             }
+            _machinePosition = 0;
         }
-        M.setRotors(h);
-        _plugboard = "";
-        while (s.hasNext()) {
-            p = s.next();
-            if (!p.contains("(")) {
-                throw error("this should be a perm "
-                        + "for plugboard, but it's not");
+        M.skip(_position - _machinePosition);
+        _machinePosition = _position;
+    }
+
+    /**
+     * Print the conversion of those characters of message line MSG
+     * that fall in the window, skipping over the others without
+     * converting them.
+     */
+    private void printWindow(Machine M, String msg) {
+        long start = _position;
+        long end = start + letters(msg);
+        long from = Math.max(start, _windowStart);
+        long to = Math.min(end, _windowEnd);
+        if (from < to) {
+            StringBuilder inside = new StringBuilder();
+            long k = start;
+            for (int i = 0; i < msg.length(); ) {
+                int ch = msg.codePointAt(i);
+                i += Character.charCount(ch);
+                if (_alphabet.contains(ch)) {
+                    if (k >= from && k < to) {
+                        inside.appendCodePoint(ch);
+                    }
+                    k += 1;
+                }
             }
-            _plugboard += p + " ";
+            _position = from;
+            String converted = convert(M, inside.toString());
+            printMessageLine(converted);
+            countText(inside.toString(), converted);
         }
-        M.setPlugboard(new Permutation(_plugboard, _alphabet));
+        _position = end;
+    }
+
+    /**
+     * Return the number of characters of MSG in the alphabet, that is,
+     * the number of keystrokes converting it takes.
+     */
+    private int letters(String msg) {
+        return (int) msg.codePoints().filter(_alphabet::contains).count();
     }
 
     /**
@@ -243,15 +1037,34 @@ public final class Main {
     private void printMessageLine(String msg) {
         msg = msg.replaceAll(" ", "");
         String result = "";
-        for (int i = 0; i < msg.length(); i++) {
-            result += msg.charAt(i);
-            if ((i + 1) % 5 == 0) {
+        int count = 0;
+        for (int i = 0; i < msg.length(); ) {
+            int cp = msg.codePointAt(i);
+            i += Character.charCount(cp);
+            result += Character.toString(cp);
+            count += 1;
+            if (count % 5 == 0) {
                 result += " ";
             }
         }
         _output.println(result);
     }
 
+    /**
+     * Print the letters with indices TEXT[0 .. LETTERS-1] as
+     * printMessageLine prints a message of them.
+     */
+    private void printMessageLine(int[] text, int letters) {
+        StringBuilder result = new StringBuilder(letters + letters / 5);
+        for (int i = 0; i < letters; i++) {
+            result.appendCodePoint(_alphabet.toCodePoint(text[i]));
+            if ((i + 1) % 5 == 0) {
+                result.append(' ');
+            }
+        }
+        _output.println(result);
+    }
+
     /**
      * Alphabet used in this machine.
      */
@@ -260,54 +1073,88 @@ public final class Main {
     /**
      * Source of input messages.
      */
-    private Scanner _input;
+    private LineReader _input;
+    /**
+     * Name of the source of input messages, for errors.
+     */
+    private String _inputName;
+
+    /**
+     * Unbuffered source of keystrokes for --keystrokes, else null.
+     */
+    private InputStream _keystrokeInput;
+    /**
+     * Source of packed text for --packed-input, else null.
+     */
+    private InputStream _packedSource;
+    /**
+     * Reader of _packedSource, or null.
+     */
+    private PackedText.Reader _unpacker;
+    /**
+     * True iff the input is packed text.
+     */
+    private boolean _packedInput;
 
     /**
      * Source of machine configuration.
      */
-    private Scanner _config;
+    private Tokenizer _config;
+    /**
+     * Name of the configuration file.
+     */
+    private String _configName;
+    /**
+     * Name of the rotor catalog to write, or null.
+     */
+    private String _catalogName;
+    /**
+     * Rotor catalog the machine draws on, or null.
+     */
+    private RotorCatalog _catalog;
 
     /**
      * File for encoded/decoded messages.
      */
     private PrintStream _output;
     /**
-     * ArrayList for all rotors.
+     * The file underlying _output, or null for the standard output.
      */
-    private ArrayList<Rotor> _allRotors = new ArrayList<Rotor>();
-
+    private FileOutputStream _outputFile;
     /**
-     * Number of rotors.
+     * Name of the output, for errors.
      */
-    private int _numRotors;
+    private String _outputName;
     /**
-     * Number of pawls.
+     * True iff the output is packed text.
      */
-    private int _numPawls;
+    private boolean _packedOutput;
     /**
-     * Rotor name.
+     * Writer of packed output to _outputFile, or null.
      */
-    private String rotorName;
+    private PackedText.Writer _packer;
     /**
-     * String of type, and notches.
+     * Letters of the message line being packed, as indices.
      */
-    private String mnrNotches;
+    private int[] _letters = new int[0];
     /**
-     * String of notches.
+     * Rotors of the configuration, compiled as they are first used, or
+     * null if the machine runs from a catalog.
      */
-    private String _notches;
+    private ConfigLoader _rotors;
     /**
-     * String of rotor permutation.
+     * Canonical wirings of the rotors in _config.
      */
-    private String myPerm;
+    private WiringPool _wirings;
+
     /**
-     * Temporary string to add to myPerm.
+     * Number of rotors.
      */
-    private String onePerm;
+    private int _numRotors;
     /**
-     * Type of rotor.
+     * Number of pawls.
      */
-    private char _type;
+    private int _numPawls;
     /**
      * Rotor setting.
      */
@@ -321,11 +1168,131 @@ public final class Main {
      */
     private String temp;
     /**
-     * Array of rotor names.
+     * Number of keystrokes in each cached keystream.
+     */
+    private static final int KEYSTREAM_LENGTH = 1024;
+    /**
+     * Bound on the memory taken by cached keystreams.
+     */
+    private static final long KEYSTREAM_BYTES = 64L << 20;
+    /**
+     * Keystreams of recurring settings lines.
+     */
+    private KeystreamCache _keystreams =
+        new KeystreamCache(KEYSTREAM_LENGTH, KEYSTREAM_BYTES);
+    /**
+     * Thresholds at which keys move to faster engines, shared by
+     * directory-mode jobs.
+     */
+    private EngineTiers _tiers = new EngineTiers();
+    /**
+     * Name of the engine profile file, or null.
+     */
+    private String _tiersName;
+    /**
+     * Letters converted under the current settings line, in this
+     * message and earlier ones.
+     */
+    private long _keyLetters;
+    /**
+     * Keystream of the current settings line, or null if the machine
+     * is converting.  While non-null, the machine's rotors are stale.
+     */
+    private Keystream _keystream;
+    /**
+     * Number of keystrokes since the current settings line.
+     */
+    private long _position;
+    /**
+     * Number of keystrokes the machine has made since it was last set
+     * up, or -1 if its rotors are stale.
+     */
+    private long _machinePosition;
+    /**
+     * First keystroke of each message to output, or -1 to output all.
+     */
+    private long _windowStart = -1;
+    /**
+     * Keystroke just past the last to output in each message.
+     */
+    private long _windowEnd;
+    /**
+     * Name of the checkpoint file, or null if not checkpointing.
+     */
+    private String _checkpointName;
+    /**
+     * Channel appending to the checkpoint file, or null.
+     */
+    private FileChannel _checkpoint;
+    /**
+     * Nanoseconds between checkpoints.
+     */
+    private long _checkpointInterval = 1_000_000_000L;
+    /**
+     * Time of the last checkpoint, as from System.nanoTime.
+     */
+    private long _lastCheckpoint;
+    /**
+     * True iff the run resumes from the last checkpoint.
+     */
+    private boolean _resume;
+    /**
+     * True iff statistics are to be reported.
+     */
+    private boolean _stats;
+    /**
+     * True iff input is converted a keystroke at a time.
+     */
+    private boolean _keystrokes;
+    /**
+     * True iff messages are converted by generated circuits.
+     */
+    private boolean _generate;
+    /**
+     * True iff the configuration is reloaded when it changes.
+     */
+    private boolean _reload;
+    /**
+     * With --reload, the configuration, and the session the messages
+     * are converted in; otherwise null.
+     */
+    private ConfigHolder _configs;
+    /**
+     * The session of _configs in use, or null.
+     */
+    private ConfigHolder.Session _session;
+    /**
+     * Number of failed reloads of _configs reported.
+     */
+    private int _reloadFailures;
+    /**
+     * Where to report text statistics per message ("" for nowhere), or
+     * null if they are not kept.
+     */
+    private String _textStatsName;
+    /**
+     * Text statistics, or null.
+     */
+    private TextStats _textStats;
+    /**
+     * Number of messages added to _textStats, shared by directory-mode
+     * jobs.
+     */
+    private AtomicLong _messages = new AtomicLong();
+    /**
+     * Input and output directories in directory mode, else null.
+     */
+    private Path _inputDir, _outputDir;
+    /**
+     * Most files converted at once in directory mode.
+     */
+    private int _jobs = Runtime.getRuntime().availableProcessors();
+    /**
+     * Machine of a directory-mode job, else null.
      */
-    private String[] rotorNameArray;
+    private Machine _machine;
     /**
-     * String of plugboard cycles.
+     * The checkpoint being resumed from, or null.
      */
-    private String _plugboard;
+    private Checkpoint _resumeFrom;
 }
@@ -20,6 +20,11 @@ class MovingRotor extends Rotor {
         _permutation = perm;
         _alphabet = _permutation.alphabet();
         _notches = notches;
+        _notchAt = new boolean[size()];
+        if (notches != null) {
+            notches.codePoints().forEach(cp ->
+                    _notchAt[_alphabet.toInt(cp)] = true);
+        }
     }
 
     /**
@@ -33,15 +38,17 @@ class MovingRotor extends Rotor {
      * Return true if at notch.
      */
     boolean atNotch() {
-        boolean bool = false;
-        String[] notchArray = _notches.split("");
-        for (int i = 0; i < notchArray.length; i++) {
-            int c = _alphabet.toInt(notchArray[i].charAt(0));
-            if (super.setting() == c) {
-                bool = true;
-            }
-        }
-        return bool;
+        return _notchAt[setting()];
+    }
+
+    @Override
+    boolean notchAt(int posn) {
+        return _notchAt[posn];
+    }
+
+    @Override
+    Rotor copy() {
+        return new MovingRotor(name(), _permutation, _notches);
     }
 
     @Override
@@ -60,6 +67,10 @@ class MovingRotor extends Rotor {
      * Notches of moving rotor.
      */
     private String _notches;
+    /**
+     * Settings at which this rotor is at a notch.
+     */
+    private boolean[] _notchAt;
     /**
      * Alphabet of this rotor.
      */
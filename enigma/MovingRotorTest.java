@@ -73,4 +73,16 @@ public class MovingRotorTest {
         checkRotor("Rotor I set", UPPER_STRING, NAVALZ_MAP.get("I"));
     }
 
+    @Test
+    public void checkRotorRing() {
+        setRotor("I", NAVALA, "");
+        rotor.setRing(1);
+        assertEquals("wrong ring translation of A", 10,
+                     rotor.convertForward(0));
+        assertEquals("wrong ring inverse of K", 0,
+                     rotor.convertBackward(10));
+        rotor.setRing(0);
+        checkRotor("Rotor I ring reset", UPPER_STRING, NAVALA_MAP.get("I"));
+    }
+
 }
@@ -0,0 +1,379 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.*;
+
+/**
+ * Messages packed into as few bits per letter as their alphabet needs,
+ * for storing ciphertext and for passing it between runs of Main with
+ * no text formatting in between.  Letters are kept as their indices in
+ * the alphabet, as Machine converts them, so writing and reading packed
+ * text never touches characters.
+ *
+ * A packed stream starts with a header: the magic number, the format
+ * version, the alphabet size, a CRC of the alphabet's code points and
+ * the number of bits per letter, ceil(log2(size)).  Records follow,
+ * each a tag byte and its contents.  A settings record holds a settings
+ * line, as DataOutput.writeUTF writes it.  A message record holds the
+ * number of letters in one message line, as an unsigned varint of
+ * seven bits a byte, low bits first, and then the letters, packed most
+ * significant bit first and padded to a whole byte; an empty line is a
+ * message of no letters.  Other numbers are big-endian.
+ *
+ * @author charlesellis
+ */
+final class PackedText {
+
+    /**
+     * Not instantiable.
+     */
+    private PackedText() {
+    }
+
+    /**
+     * Return the number of bits a letter of an alphabet of SIZE letters
+     * is packed into.
+     */
+    static int bits(int size) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(size - 1));
+    }
+
+    /**
+     * Return the CRC of the code points of ALPHABET, in order.
+     */
+    static int crc(Alphabet alphabet) {
+        ByteBuffer cps = ByteBuffer.allocate(4 * alphabet.size());
+        for (int i = 0; i < alphabet.size(); i++) {
+            cps.putInt(alphabet.toCodePoint(i));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(cps.array());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes packed messages.
+     */
+    static final class Writer {
+
+        /**
+         * A writer of messages over ALPHABET to OUT, named NAME in
+         * errors, which writes the header at once.
+         */
+        Writer(OutputStream out, Alphabet alphabet, String name) {
+            _out = new DataOutputStream(new BufferedOutputStream(out,
+                    BUFFER_BYTES));
+            _name = name;
+            _bits = bits(alphabet.size());
+            try {
+                _out.writeInt(MAGIC);
+                _out.writeByte(VERSION);
+                _out.writeInt(alphabet.size());
+                _out.writeInt(crc(alphabet));
+                _out.writeByte(_bits);
+            } catch (IOException excp) {
+                throw error("could not write %s", _name);
+            }
+        }
+
+        /**
+         * Write a settings record of settings line SETTINGS.
+         */
+        void settings(String settings) {
+            try {
+                _out.writeByte(SETTINGS);
+                _out.writeUTF(settings);
+            } catch (UTFDataFormatException excp) {
+                throw error("settings line too long to pack");
+            } catch (IOException excp) {
+                throw error("could not write %s", _name);
+            }
+        }
+
+        /**
+         * Write a message record of the letters TEXT[START .. END-1],
+         * indices in the alphabet.
+         */
+        void message(int[] text, int start, int end) {
+            int bytes = (int) (((long) (end - start) * _bits + 7) / 8);
+            if (_buffer.length < bytes) {
+                _buffer = new byte[Math.max(bytes, 2 * _buffer.length)];
+            }
+            long bits = 0;
+            int held = 0, k = 0;
+            for (int i = start; i < end; i++) {
+                bits = bits << _bits | text[i];
+                held += _bits;
+                while (held >= 8) {
+                    held -= 8;
+                    _buffer[k++] = (byte) (bits >>> held);
+                }
+            }
+            if (held > 0) {
+                _buffer[k] = (byte) (bits << (8 - held));
+            }
+            try {
+                _out.writeByte(MESSAGE);
+                for (int n = end - start; ; n >>>= 7) {
+                    if (n < 0x80) {
+                        _out.writeByte(n);
+                        break;
+                    }
+                    _out.writeByte(n & 0x7f | 0x80);
+                }
+                _out.write(_buffer, 0, bytes);
+            } catch (IOException excp) {
+                throw error("could not write %s", _name);
+            }
+            _letters += end - start;
+        }
+
+        /**
+         * Write out everything written to me so far.
+         */
+        void flush() {
+            try {
+                _out.flush();
+            } catch (IOException excp) {
+                throw error("could not write %s", _name);
+            }
+        }
+
+        /**
+         * Return a report of the letters I have written and the bytes
+         * they took.
+         */
+        String stats() {
+            int bytes = _out.size();
+            return String.format("%d letters packed in %d bytes, %.2f "
+                    + "bits a letter", _letters, bytes,
+                    _letters == 0 ? 0.0 : 8.0 * bytes / _letters);
+        }
+
+        /**
+         * The stream written to.
+         */
+        private final DataOutputStream _out;
+        /**
+         * Name of the stream, for errors.
+         */
+        private final String _name;
+        /**
+         * Bits per letter.
+         */
+        private final int _bits;
+        /**
+         * Letters of the message being written, packed.
+         */
+        private byte[] _buffer = new byte[BUFFER_BYTES];
+        /**
+         * Number of letters written.
+         */
+        private long _letters;
+    }
+
+    /**
+     * Reads packed messages.
+     */
+    static final class Reader {
+
+        /**
+         * A reader of messages over ALPHABET from IN, named NAME in
+         * errors, which reads and checks the header at once.
+         */
+        Reader(InputStream in, Alphabet alphabet, String name) {
+            _in = new DataInputStream(new BufferedInputStream(in,
+                    BUFFER_BYTES));
+            _name = name;
+            _size = alphabet.size();
+            _bits = bits(_size);
+            try {
+                if (_in.readInt() != MAGIC) {
+                    throw error("%s is not packed text", _name);
+                }
+                if (_in.readUnsignedByte() != VERSION) {
+                    throw error("%s is packed in another version", _name);
+                }
+                if (_in.readInt() != _size || _in.readInt() != crc(alphabet)
+                    || _in.readUnsignedByte() != _bits) {
+                    throw error("%s is packed for another alphabet", _name);
+                }
+            } catch (EOFException excp) {
+                throw error("%s is not packed text", _name);
+            } catch (IOException excp) {
+                throw error("could not read %s", _name);
+            }
+        }
+
+        /**
+         * Read the next record, and return SETTINGS or MESSAGE,
+         * according to its kind, or END if there are no more.
+         */
+        int next() {
+            try {
+                int tag = _in.read();
+                if (tag == SETTINGS) {
+                    _settings = _in.readUTF();
+                } else if (tag == MESSAGE) {
+                    readMessage();
+                } else if (tag >= 0) {
+                    throw error("%s: bad record %d", _name, _records + 1);
+                } else {
+                    return END;
+                }
+                _records += 1;
+                return tag;
+            } catch (EOFException excp) {
+                throw error("%s: record %d truncated", _name, _records + 1);
+            } catch (IOException excp) {
+                throw error("could not read %s", _name);
+            }
+        }
+
+        /**
+         * Read the length and letters of a message record into _length
+         * and _letters.
+         */
+        private void readMessage() throws IOException {
+            long n = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = _in.readUnsignedByte();
+                n |= (long) (b & 0x7f) << shift;
+                if (b < 0x80) {
+                    break;
+                }
+                if (shift == 28) {
+                    n = Long.MAX_VALUE;
+                    break;
+                }
+            }
+            if (n * _bits > 8L * (Integer.MAX_VALUE - 8)) {
+                throw error("%s: record %d too long", _name, _records + 1);
+            }
+            _length = (int) n;
+            int bytes = (int) ((n * _bits + 7) / 8);
+            if (_buffer.length < bytes) {
+                _buffer = new byte[Math.max(bytes, 2 * _buffer.length)];
+            }
+            if (_letters.length < _length) {
+                _letters = new int[Math.max(_length, 2 * _letters.length)];
+            }
+            _in.readFully(_buffer, 0, bytes);
+            int mask = (1 << _bits) - 1;
+            long bits = 0;
+            int held = 0, k = 0;
+            for (int i = 0; i < _length; i++) {
+                while (held < _bits) {
+                    bits = bits << 8 | _buffer[k++] & 0xff;
+                    held += 8;
+                }
+                held -= _bits;
+                int c = (int) (bits >>> held) & mask;
+                if (c >= _size) {
+                    throw error("%s: record %d has a letter out of range",
+                                _name, _records + 1);
+                }
+                _letters[i] = c;
+            }
+        }
+
+        /**
+         * Return the settings line of the last settings record read.
+         */
+        String settings() {
+            return _settings;
+        }
+
+        /**
+         * Return the letters of the last message record read, as
+         * indices in the alphabet, in the first length() entries of an
+         * array that the next record read overwrites.
+         */
+        int[] letters() {
+            return _letters;
+        }
+
+        /**
+         * Return the number of letters in the last message record read.
+         */
+        int length() {
+            return _length;
+        }
+
+        /**
+         * Return the number of records read.
+         */
+        int records() {
+            return _records;
+        }
+
+        /**
+         * The stream read from.
+         */
+        private final DataInputStream _in;
+        /**
+         * Name of the stream, for errors.
+         */
+        private final String _name;
+        /**
+         * Size of the alphabet.
+         */
+        private final int _size;
+        /**
+         * Bits per letter.
+         */
+        private final int _bits;
+        /**
+         * Bytes of the last message record.
+         */
+        private byte[] _buffer = new byte[BUFFER_BYTES];
+        /**
+         * Letters of the last message record.
+         */
+        private int[] _letters = new int[BUFFER_BYTES];
+        /**
+         * Number of letters in the last message record.
+         */
+        private int _length;
+        /**
+         * Settings line of the last settings record.
+         */
+        private String _settings;
+        /**
+         * Number of records read.
+         */
+        private int _records;
+    }
+
+    /**
+     * Kinds of record, which are also their tags, and the value of
+     * Reader.next at the end of the stream.
+     */
+    static final int SETTINGS = 'S', MESSAGE = 'M', END = -1;
+
+    /**
+     * The first four bytes of packed text: "EnP" and a 5, the size of a
+     * letter of the usual alphabet.
+     */
+    private static final int MAGIC = 0x456e5005;
+    /**
+     * The version of the format.
+     */
+    private static final int VERSION = 1;
+    /**
+     * Size of the stream buffers, and initial size of the record
+     * buffers.
+     */
+    private static final int BUFFER_BYTES = 1 << 16;
+}
@@ -0,0 +1,163 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the PackedText class.
+ *
+ * @author charlesellis
+ */
+public class PackedTextTest {
+
+    /**
+     * Return an alphabet of the SIZE code points from 0x100.
+     */
+    private Alphabet alphabet(int size) {
+        int[] cps = new int[size];
+        for (int i = 0; i < size; i++) {
+            cps[i] = 0x100 + i;
+        }
+        return new Alphabet(cps);
+    }
+
+    /**
+     * Return the packed text over ALPHA of settings line "* X" followed
+     * by MESSAGES.
+     */
+    private byte[] pack(Alphabet alpha, int[]... messages) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PackedText.Writer writer =
+            new PackedText.Writer(bytes, alpha, "test");
+        writer.settings("* X");
+        for (int[] message : messages) {
+            writer.message(message, 0, message.length);
+        }
+        writer.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Return a reader of BYTES over ALPHA.
+     */
+    private PackedText.Reader reader(byte[] bytes, Alphabet alpha) {
+        return new PackedText.Reader(new ByteArrayInputStream(bytes), alpha,
+                                     "test");
+    }
+
+    @Test
+    public void testBits() {
+        assertEquals(1, PackedText.bits(1));
+        assertEquals(1, PackedText.bits(2));
+        assertEquals(5, PackedText.bits(26));
+        assertEquals(5, PackedText.bits(32));
+        assertEquals(6, PackedText.bits(33));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        Random random = new Random(50);
+        for (int size : new int[] {1, 2, 3, 26, 27, 64, 1000, 70000}) {
+            Alphabet alpha = alphabet(size);
+            int[][] messages = new int[6][];
+            for (int m = 0; m < messages.length; m++) {
+                messages[m] = new int[m == 2 ? 0 : random.nextInt(200)];
+                for (int i = 0; i < messages[m].length; i++) {
+                    messages[m][i] = random.nextInt(size);
+                }
+            }
+            PackedText.Reader reader = reader(pack(alpha, messages), alpha);
+            assertEquals(PackedText.SETTINGS, reader.next());
+            assertEquals("* X", reader.settings());
+            for (int[] message : messages) {
+                assertEquals(PackedText.MESSAGE, reader.next());
+                assertArrayEquals(message, Arrays.copyOf(reader.letters(),
+                                                         reader.length()));
+            }
+            assertEquals(PackedText.END, reader.next());
+            assertEquals(messages.length + 1, reader.records());
+        }
+    }
+
+    @Test
+    public void testSize() {
+        Alphabet alpha = alphabet(26);
+        int[] message = new int[1000];
+        Arrays.fill(message, 25);
+        assertEquals(14 + 6 + 3 + 625, pack(alpha, message).length);
+    }
+
+    @Test
+    public void testErrors() {
+        Alphabet alpha = alphabet(26);
+        byte[] bytes = pack(alpha, new int[] {1, 2, 3, 4, 5});
+        assertError("is packed for another alphabet", bytes, alphabet(27));
+        assertError("is packed for another alphabet", bytes,
+                    new Alphabet("ABCDEFGHIJKLMNOPQRSTUVWXYZ"));
+        assertError("is not packed text", "* B Beta I II III AAAA\n"
+                    .getBytes(), alpha);
+        assertError("record 2 truncated",
+                    Arrays.copyOf(bytes, bytes.length - 1), alpha);
+        byte[] bad = bytes.clone();
+        bad[bytes.length - 6] = 'Q';
+        assertError("bad record 2", bad, alpha);
+    }
+
+    /**
+     * Assert that reading BYTES over ALPHA to the end fails with an
+     * error whose message contains MSG.
+     */
+    private void assertError(String msg, byte[] bytes, Alphabet alpha) {
+        try {
+            PackedText.Reader reader = reader(bytes, alpha);
+            while (reader.next() != PackedText.END) {
+                continue;
+            }
+            fail("no error reading " + msg);
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(), excp.getMessage().contains(msg));
+        }
+    }
+
+    @Test
+    public void testMain() throws IOException {
+        String conf = tempFile(".conf", DEFAULT_CONFIG).getPath();
+        String input = tempFile(".in", "* B Beta I II III AAAA\n"
+                                + "HELLO WORLD\n"
+                                + "* B Beta I II III AAAA\n"
+                                + "ILBDA AMTAZ\n").getPath();
+        File text = File.createTempFile("packed", ".out");
+        File packed = File.createTempFile("packed", ".bin");
+        File repacked = File.createTempFile("packed", ".bin");
+        File output = File.createTempFile("packed", ".out");
+        try {
+            runMain(conf, input, text.getPath());
+            runMain("--packed-output", conf, input, packed.getPath());
+            runMain("--packed-input", "--packed-output", conf,
+                    packed.getPath(), repacked.getPath());
+            runMain("--packed-input", conf, repacked.getPath(),
+                    output.getPath());
+            assertEquals("ILBDA AMTAZ \nHELLO WORLD \n",
+                         Files.readString(text.toPath()));
+            assertEquals(Files.readString(text.toPath()),
+                         Files.readString(output.toPath()));
+        } finally {
+            text.delete();
+            packed.delete();
+            repacked.delete();
+            output.delete();
+        }
+    }
+
+}
@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.BitSet;
+
 import static enigma.EnigmaException.*;
 
 /**
@@ -19,17 +21,129 @@ class Permutation {
      */
     Permutation(String cycles, Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = cycles.replace("(", "");
-        _cycles = _cycles.replace(")", "");
-        _cycleArray = _cycles.split(" ");
-        String tight = _cycles.replace(" ", "");
-        for (int i = 0; i < tight.length(); i++) {
-            for (int j = i + 1; j < tight.length() - 1; j++) {
-                if (tight.charAt(i) == tight.charAt(j)) {
+        _cycles = cycles;
+        compile();
+    }
+
+    /**
+     * A permutation of the characters of ALPHABET that maps index x to
+     * FORWARD[x], which must be a permutation of 0 .. size-1.
+     */
+    private Permutation(Alphabet alphabet, int[] forward) {
+        _alphabet = alphabet;
+        _forward = new IndexTable(forward);
+        _inverse = new IndexTable(forward.length);
+        for (int x = 0; x < forward.length; x++) {
+            _inverse.set(forward[x], x);
+        }
+    }
+
+    /**
+     * A permutation of the characters of ALPHABET whose table is
+     * FORWARD and whose inverse's table is INVERSE.  Both become mine.
+     */
+    private Permutation(Alphabet alphabet, IndexTable forward,
+                        IndexTable inverse) {
+        _alphabet = alphabet;
+        _forward = forward;
+        _inverse = inverse;
+    }
+
+    /**
+     * Return the permutation of the characters of ALPHABET whose table
+     * is FORWARD and whose inverse's table is INVERSE, which are taken
+     * on trust and not copied.
+     */
+    static Permutation fromTables(Alphabet alphabet, IndexTable forward,
+                                  IndexTable inverse) {
+        if (forward.size() != alphabet.size()
+            || inverse.size() != alphabet.size()) {
+            throw error("permutation table has wrong size");
+        }
+        return new Permutation(alphabet, forward, inverse);
+    }
+
+    /**
+     * Return the permutation of the characters of ALPHABET that maps
+     * index x to TABLE[x].  TABLE must hold each of 0 .. size-1 once.
+     */
+    static Permutation fromTable(Alphabet alphabet, int[] table) {
+        if (table.length != alphabet.size()) {
+            throw error("permutation table has wrong size");
+        }
+        boolean[] seen = new boolean[table.length];
+        for (int y : table) {
+            if (y < 0 || y >= table.length || seen[y]) {
+                throw error("table is not a permutation");
+            }
+            seen[y] = true;
+        }
+        return new Permutation(alphabet, table);
+    }
+
+    /**
+     * Compile my cycles into my forward and inverse tables.
+     */
+    private void compile() {
+        int n = size();
+        _forward = new IndexTable(n);
+        _inverse = new IndexTable(n);
+        for (int x = 0; x < n; x++) {
+            _forward.set(x, x);
+            _inverse.set(x, x);
+        }
+        BitSet seen = new BitSet(n);
+        int first = -1;
+        int prev = -1;
+        for (int i = 0; i < _cycles.length(); ) {
+            int ch = _cycles.codePointAt(i);
+            i += Character.charCount(ch);
+            if (ch == '(') {
+                if (first != -1 || prev == -2) {
+                    throw error("bad cycle notation");
+                }
+                prev = -2;
+            } else if (ch == ')') {
+                if (prev == -1) {
+                    throw error("bad cycle notation");
+                }
+                if (first >= 0) {
+                    link(prev, first);
+                }
+                first = prev = -1;
+            } else if (Character.isWhitespace(ch)) {
+                continue;
+            } else if (prev == -1) {
+                throw error("bad cycle notation");
+            } else {
+                int x = _alphabet.indexOf(ch);
+                if (x < 0) {
+                    throw error("character %s not in alphabet",
+                            Character.toString(ch));
+                }
+                if (seen.get(x)) {
                     throw error("duplicate letters in perm");
                 }
+                seen.set(x);
+                if (first < 0) {
+                    first = x;
+                } else {
+                    link(prev, x);
+                }
+                prev = x;
             }
         }
+        if (prev != -1) {
+            throw error("bad cycle notation");
+        }
+    }
+
+    /**
+     * Make index FROM map to index TO.
+     */
+    private void link(int from, int to) {
+        _forward.set(from, to);
+        _inverse.set(to, from);
     }
 
     /**
@@ -39,13 +153,8 @@ class Permutation {
     private void addCycle(String cycle) {
         cycle = cycle.replace("(", "");
         cycle = cycle.replace(")", "");
-        _cycles += " " + cycle;
-        String[] newCyclearray = new String[_cycleArray.length + 1];
-        for (int i = 0; i < _cycleArray.length; i++) {
-            newCyclearray[i] = _cycleArray[i];
-        }
-        newCyclearray[_cycleArray.length] = cycle;
-        _cycleArray = newCyclearray;
+        _cycles += " (" + cycle + ")";
+        compile();
     }
 
     /**
@@ -71,9 +180,7 @@ class Permutation {
      * alphabet size.
      */
     int permute(int p) {
-        char myChar = _alphabet.toChar(wrap(p));
-        char perm = permute(myChar);
-        return _alphabet.toInt(perm);
+        return _forward.get(wrap(p));
     }
 
     /**
@@ -81,8 +188,7 @@ class Permutation {
      * to  C modulo the alphabet size.
      */
     int invert(int c) {
-        char myChar = _alphabet.toChar(wrap(c));
-        return _alphabet.toInt(invert(myChar));
+        return _inverse.get(wrap(c));
     }
 
     /**
@@ -90,39 +196,131 @@ class Permutation {
      * in ALPHABET, and converting the result to a character of ALPHABET.
      */
     char permute(char p) {
-        char newChar = p;
-        for (int i = 0; i < _cycleArray.length; i++) {
-            for (int ind = 0; ind < _cycleArray[i].length(); ind++) {
-                if (_cycleArray[i].charAt(ind) == p) {
-                    if (_cycleArray[i].length() == ind + 1) {
-                        newChar = _cycleArray[i].charAt(0);
-                    } else {
-                        newChar = _cycleArray[i].charAt(ind + 1);
-                    }
-                }
-            }
+        if (!_alphabet.contains(p)) {
+            return p;
         }
-        return newChar;
+        return _alphabet.toChar(_forward.get(_alphabet.toInt(p)));
     }
 
     /**
      * Return the result of applying the inverse of this permutation to C.
      */
     char invert(char c) {
-        char newChar = c;
-        for (int i = 0; i < _cycleArray.length; i++) {
-            for (int ind = 0; ind < _cycleArray[i].length(); ind++) {
-                if (_cycleArray[i].charAt(ind) == c) {
-                    if (ind == 0) {
-                        newChar = _cycleArray[i]
-                                .charAt(_cycleArray[i].length() - 1);
-                    } else {
-                        newChar = _cycleArray[i].charAt(ind - 1);
-                    }
-                }
+        if (!_alphabet.contains(c)) {
+            return c;
+        }
+        return _alphabet.toChar(_inverse.get(_alphabet.toInt(c)));
+    }
+
+    /**
+     * Return my table: index x maps to entry x.  It must not be
+     * modified.
+     */
+    IndexTable table() {
+        return _forward;
+    }
+
+    /**
+     * Return the table of my inverse.  It must not be modified.
+     */
+    IndexTable inverseTable() {
+        return _inverse;
+    }
+
+    /**
+     * Return my table as a new array.
+     */
+    int[] toArray() {
+        return _forward.toArray();
+    }
+
+    /**
+     * Return the number of bytes my tables occupy.
+     */
+    long bytes() {
+        return _forward.bytes() + _inverse.bytes();
+    }
+
+    /**
+     * Return the permutation that applies this permutation and then
+     * OTHER, which must permute an alphabet of the same size.
+     */
+    Permutation compose(Permutation other) {
+        if (other.size() != size()) {
+            throw error("composing permutations of different sizes");
+        }
+        int[] forward = new int[size()];
+        for (int x = 0; x < forward.length; x++) {
+            forward[x] = other._forward.get(_forward.get(x));
+        }
+        return new Permutation(_alphabet, forward);
+    }
+
+    /**
+     * Return the inverse of this permutation.
+     */
+    Permutation inverse() {
+        return new Permutation(_alphabet, _inverse.toArray());
+    }
+
+    /**
+     * Return this permutation applied K times, where a negative K
+     * applies the inverse -K times.  Each cycle is rotated once, so the
+     * cost does not depend on K.
+     */
+    Permutation power(long k) {
+        int n = size();
+        int[] forward = new int[n];
+        int[] cycle = new int[n];
+        boolean[] seen = new boolean[n];
+        for (int start = 0; start < n; start++) {
+            if (seen[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int x = start; !seen[x]; x = _forward.get(x)) {
+                seen[x] = true;
+                cycle[len] = x;
+                len += 1;
+            }
+            int shift = (int) Math.floorMod(k, (long) len);
+            for (int i = 0; i < len; i++) {
+                forward[cycle[i]] = cycle[(i + shift) % len];
             }
         }
-        return newChar;
+        return new Permutation(_alphabet, forward);
+    }
+
+    /**
+     * Return the lengths of my cycles, fixed points included, in
+     * non-increasing order.  They sum to size().
+     */
+    int[] cycleType() {
+        int n = size();
+        int[] counts = new int[n + 1];
+        boolean[] seen = new boolean[n];
+        int cycles = 0;
+        for (int start = 0; start < n; start++) {
+            if (seen[start]) {
+                continue;
+            }
+            int len = 0;
+            for (int x = start; !seen[x]; x = _forward.get(x)) {
+                seen[x] = true;
+                len += 1;
+            }
+            counts[len] += 1;
+            cycles += 1;
+        }
+        int[] result = new int[cycles];
+        int k = 0;
+        for (int len = n; len > 0; len--) {
+            for (int c = 0; c < counts[len]; c++) {
+                result[k] = len;
+                k += 1;
+            }
+        }
+        return result;
     }
 
     /**
@@ -137,13 +335,12 @@ class Permutation {
      * permutation for which no value maps to itself).
      */
     boolean derangement() {
-        boolean bool = true;
-        for (int i = 0; i < _cycleArray.length; i++) {
-            if (_cycleArray[i].length() == 1) {
-                bool = false;
+        for (int x = 0; x < _forward.size(); x++) {
+            if (_forward.get(x) == x) {
+                return false;
             }
         }
-        return bool;
+        return true;
     }
 
     /**
@@ -155,8 +352,12 @@ class Permutation {
      */
     private String _cycles;
     /**
-     * Array of cycles.
+     * Index x maps to _forward[x].
+     */
+    private IndexTable _forward;
+    /**
+     * Index x maps to _inverse[x] under my inverse.
      */
-    private String[] _cycleArray;
+    private IndexTable _inverse;
 
 }
@@ -5,6 +5,7 @@ import org.junit.Rule;
 import org.junit.rules.Timeout;
 
 import java.security.Permission;
+import java.util.Arrays;
 
 import static org.junit.Assert.*;
 
@@ -59,6 +60,46 @@ public class PermutationTest {
         perm = new Permutation("", UPPER);
         checkPerm("identity", UPPER_STRING, UPPER_STRING);
     }
-    
+
+    @Test
+    public void checkAlgebra() {
+        Permutation p = new Permutation("(ABC) (DE)", UPPER);
+        Permutation q = new Permutation("(AD) (FGH)", UPPER);
+        String rest = UPPER_STRING.substring(8);
+        perm = p.compose(q);
+        checkPerm("compose", UPPER_STRING, "BCDEAGHF" + rest);
+        perm = p.inverse();
+        checkPerm("inverse", UPPER_STRING, "CABEDFGH" + rest);
+        perm = p.power(5);
+        checkPerm("power", UPPER_STRING, "CABEDFGH" + rest);
+        perm = p.power(-1);
+        checkPerm("negative power", UPPER_STRING, "CABEDFGH" + rest);
+        perm = p.power(6);
+        checkPerm("order", UPPER_STRING, UPPER_STRING);
+        int[] type = new int[23];
+        Arrays.fill(type, 1);
+        type[0] = 3;
+        type[1] = 2;
+        assertArrayEquals(type, p.cycleType());
+        assertFalse(p.derangement());
+        assertTrue(new Permutation("(ABCDEFGHIJKLM) (NOPQRSTUVWXYZ)",
+                UPPER).derangement());
+    }
+
+    @Test
+    public void checkCycleNotation() {
+        perm = new Permutation("(AB)(CD) ( E F )", UPPER);
+        checkPerm("adjacent", UPPER_STRING,
+                "BADCFE" + UPPER_STRING.substring(6));
+        for (String bad : new String[] {
+                "(AB) (CA)", "(AA)", "(AB", "AB)", "((AB))", "(A1)" }) {
+            try {
+                new Permutation(bad, UPPER);
+                fail(bad + " accepted");
+            } catch (EnigmaException excp) {
+                /* expected */
+            }
+        }
+    }
 
 }
@@ -17,6 +17,11 @@ class Reflector extends FixedRotor {
         super(name, perm);
     }
 
+    @Override
+    Rotor copy() {
+        return new Reflector(name(), permutation());
+    }
+
     @Override
     boolean reflecting() {
         return true;
@@ -29,4 +34,11 @@ class Reflector extends FixedRotor {
         }
     }
 
+    @Override
+    void setRing(int ring) {
+        if (ring != 0) {
+            throw error("reflector has no ring setting");
+        }
+    }
+
 }
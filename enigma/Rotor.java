@@ -16,6 +16,8 @@ class Rotor {
         _name = name;
         _permutation = perm;
         _setting = 0;
+        _wiring = perm.table();
+        _inverse = perm.inverseTable();
     }
 
     /**
@@ -81,12 +83,77 @@ class Rotor {
         _setting = alphabet().toInt(cposn);
     }
 
+    /**
+     * Return my current ring setting.
+     */
+    int ring() {
+        return _ring;
+    }
+
+    /**
+     * Set ring() to RING, rebuilding my wiring tables if it changed.
+     */
+    void setRing(int ring) {
+        if (ring != _ring) {
+            compile(ring);
+        }
+    }
+
+    /**
+     * Set ring() to character CRING.
+     */
+    void setRing(char cring) {
+        setRing(alphabet().toInt(cring));
+    }
+
+    /**
+     * Set up my wiring tables for ring setting RING, which rotates my
+     * permutation against my alphabet ring by RING positions.  At ring
+     * setting 0 they are my permutation's own tables, shared with any
+     * other rotor using it.
+     */
+    private void compile(int ring) {
+        _ring = ring;
+        if (ring == 0) {
+            _wiring = _permutation.table();
+            _inverse = _permutation.inverseTable();
+            return;
+        }
+        if (_wiring == _permutation.table()) {
+            _wiring = new IndexTable(size());
+            _inverse = new IndexTable(size());
+        }
+        for (int x = 0; x < _wiring.size(); x++) {
+            int shifted = _permutation.wrap(x - ring);
+            _wiring.set(x, _permutation.wrap(_permutation.permute(shifted)
+                    + ring));
+            _inverse.set(x, _permutation.wrap(_permutation.invert(shifted)
+                    + ring));
+        }
+    }
+
+    /**
+     * Return the contact my wiring connects P to at setting 0, taking
+     * my ring setting into account.
+     */
+    int wiring(int p) {
+        return _wiring.get(p);
+    }
+
+    /**
+     * Return the contact my wiring connects E to at setting 0 in the
+     * reverse direction, taking my ring setting into account.
+     */
+    int inverseWiring(int e) {
+        return _inverse.get(e);
+    }
+
     /**
      * Return the conversion of P (an integer in the range 0..size()-1)
      * according to my permutation.
      */
     int convertForward(int p) {
-        int converted = _permutation.permute((p + setting()));
+        int converted = _wiring.get(_permutation.wrap(p + setting()));
         return _permutation.wrap(converted - setting());
     }
 
@@ -95,7 +162,7 @@ class Rotor {
      * according to the inverse of my permutation.
      */
     int convertBackward(int e) {
-        int converted = _permutation.invert(_permutation.wrap(e + setting()));
+        int converted = _inverse.get(_permutation.wrap(e + setting()));
         return _permutation.wrap(converted - setting());
     }
 
@@ -107,12 +174,27 @@ class Rotor {
         return false;
     }
 
+    /**
+     * Returns true iff I would be at a notch at setting POSN.
+     */
+    boolean notchAt(int posn) {
+        return false;
+    }
+
     /**
      * Advance me one position, if possible. By default, does nothing.
      */
     void advance() {
     }
 
+    /**
+     * Return a new rotor with my name, wiring and notches, at setting
+     * and ring setting 0, sharing my permutation.
+     */
+    Rotor copy() {
+        return new Rotor(_name, _permutation);
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -131,5 +213,17 @@ class Rotor {
      * Setting of this rotor.
      */
     private int _setting;
+    /**
+     * Ring setting of this rotor.
+     */
+    private int _ring;
+    /**
+     * My permutation at setting 0 with the ring setting folded in.
+     */
+    private IndexTable _wiring;
+    /**
+     * Inverse of _wiring.
+     */
+    private IndexTable _inverse;
 
 }
@@ -0,0 +1,408 @@
+package enigma;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static enigma.EnigmaException.*;
+
+/**
+ * A compiled catalog of rotors held outside the Java heap.  The
+ * alphabet, the rotor names and types, and every rotor's wiring tables
+ * and notch mask are laid out in one ByteBuffer arena, either a direct
+ * buffer or a memory-mapped file that other processes can open in
+ * turn.  The Rotors handed out are thin views: their permutations read
+ * their tables straight from the arena, and a view is made only when a
+ * rotor is first asked for.  The heap holds no more than an index of
+ * the names, as ints.
+ *
+ * The arena is little-endian.  After a header giving the alphabet size,
+ * slot and pawl counts, and rotor count come the alphabet's code points
+ * and the offset of each rotor's record.  A record holds the rotor's
+ * type and UTF-8 name, its forward and inverse tables (entries as for
+ * IndexTable), and a bit mask of its notches, each part aligned to four
+ * bytes.
+ *
+ * @author charlesellis
+ */
+final class RotorCatalog implements RotorSource {
+
+    /**
+     * A catalog over the arena ARENA, whose header has been checked.
+     */
+    private RotorCatalog(ByteBuffer arena) {
+        _arena = arena.order(ByteOrder.LITTLE_ENDIAN);
+        int size = _arena.getInt(SIZE);
+        int[] cps = new int[size];
+        for (int i = 0; i < size; i++) {
+            cps[i] = _arena.getInt(HEADER + 4 * i);
+        }
+        _alphabet = new Alphabet(cps);
+        _count = _arena.getInt(COUNT);
+        _records = HEADER + 4 * size;
+        _views = new Rotor[_count];
+        _index = new int[Integer.highestOneBit(Math.max(4,
+                _count * 2 - 1)) << 1];
+        Arrays.fill(_index, -1);
+        for (int k = 0; k < _count; k++) {
+            int rec = record(k);
+            int slot = hash(_arena, rec + 4, _arena.getShort(rec + 2));
+            while (_index[slot & (_index.length - 1)] >= 0) {
+                slot += 1;
+            }
+            _index[slot & (_index.length - 1)] = k;
+        }
+    }
+
+    /**
+     * Return a catalog of ROTORS, all over ALPHABET, for machines with
+     * NUMROTORS slots and PAWLS pawls.  The arena is a mapping of the
+     * file named FILE, which is created or overwritten, or a direct
+     * buffer if FILE is null.
+     */
+    static RotorCatalog build(Alphabet alphabet, int numRotors, int pawls,
+                              List<Rotor> rotors, String file) {
+        int size = alphabet.size();
+        long tableBytes = align((long) IndexTable.entryBytes(size) * size);
+        long maskBytes = align((size + 7) / 8);
+        byte[][] names = new byte[rotors.size()][];
+        long total = HEADER + 4L * size + 4L * rotors.size();
+        for (int k = 0; k < names.length; k++) {
+            names[k] = rotors.get(k).name().getBytes(UTF_8);
+            if (names[k].length > Short.MAX_VALUE) {
+                throw error("rotor name too long");
+            }
+            total += align(4 + names[k].length) + 2 * tableBytes
+                + maskBytes;
+        }
+        if (total > Integer.MAX_VALUE) {
+            throw error("rotor catalog too large");
+        }
+
+        ByteBuffer arena;
+        if (file == null) {
+            arena = ByteBuffer.allocateDirect((int) total);
+        } else {
+            try (FileChannel channel = FileChannel.open(
+                    new File(file).toPath(), CREATE, READ, WRITE,
+                    TRUNCATE_EXISTING)) {
+                arena = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                        total);
+            } catch (IOException excp) {
+                throw error("could not create catalog %s", file);
+            }
+        }
+        arena.order(ByteOrder.LITTLE_ENDIAN);
+        arena.putInt(MAGIC_AT, MAGIC);
+        arena.putInt(SIZE, size);
+        arena.putInt(SLOTS, numRotors);
+        arena.putInt(PAWLS, pawls);
+        arena.putInt(COUNT, rotors.size());
+        for (int i = 0; i < size; i++) {
+            arena.putInt(HEADER + 4 * i, alphabet.toCodePoint(i));
+        }
+        int offsets = HEADER + 4 * size;
+        int rec = offsets + 4 * rotors.size();
+        for (int k = 0; k < names.length; k++) {
+            Rotor rotor = rotors.get(k);
+            if (rotor.alphabet().size() != size) {
+                throw error("rotor %s has the wrong alphabet", rotor.name());
+            }
+            arena.putInt(offsets + 4 * k, rec);
+            arena.put(rec, (byte) (rotor.reflecting() ? 'R'
+                    : rotor.rotates() ? 'M' : 'N'));
+            arena.putShort(rec + 2, (short) names[k].length);
+            arena.put(rec + 4, names[k]);
+            int at = rec + (int) align(4 + names[k].length);
+            rotor.permutation().table().store(arena, at);
+            at += (int) tableBytes;
+            rotor.permutation().inverseTable().store(arena, at);
+            at += (int) tableBytes;
+            for (int p = 0; p < size; p++) {
+                if (rotor.notchAt(p)) {
+                    arena.put(at + p / 8, (byte) (arena.get(at + p / 8)
+                            | 1 << (p % 8)));
+                }
+            }
+            rec = at + (int) maskBytes;
+        }
+        if (file != null) {
+            ((MappedByteBuffer) arena).force();
+        }
+        return new RotorCatalog(arena);
+    }
+
+    /**
+     * Return the catalog in the file named FILE, mapped read-only, once
+     * its header and the extents of its records are checked against the
+     * size of the file.
+     */
+    static RotorCatalog open(String file) {
+        if (!isCatalog(file)) {
+            throw error("%s is not a rotor catalog", file);
+        }
+        ByteBuffer arena;
+        try (FileChannel channel = FileChannel.open(
+                new File(file).toPath(), READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw error("%s is a corrupt rotor catalog", file);
+            }
+            arena = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException excp) {
+            throw error("could not open catalog %s", file);
+        }
+        try {
+            if (!valid(arena.order(ByteOrder.LITTLE_ENDIAN))) {
+                throw error("%s is a corrupt rotor catalog", file);
+            }
+            return new RotorCatalog(arena);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException excp) {
+            throw error("%s is a corrupt rotor catalog", file);
+        }
+    }
+
+    /**
+     * Return true iff the header of ARENA is sensible and every record
+     * it lists lies wholly within ARENA, after the table of record
+     * offsets.
+     */
+    private static boolean valid(ByteBuffer arena) {
+        long capacity = arena.capacity();
+        if (capacity < HEADER) {
+            return false;
+        }
+        int size = arena.getInt(SIZE);
+        int count = arena.getInt(COUNT);
+        if (size <= 0 || count < 0
+            || HEADER + 4L * size + 4L * count > capacity) {
+            return false;
+        }
+        long tableBytes = align((long) IndexTable.entryBytes(size) * size);
+        long maskBytes = align((size + 7) / 8);
+        long offsets = HEADER + 4L * size;
+        for (int k = 0; k < count; k++) {
+            long rec = arena.getInt((int) offsets + 4 * k);
+            if (rec < offsets + 4L * count || rec % 4 != 0
+                || rec + 4 > capacity) {
+                return false;
+            }
+            byte type = arena.get((int) rec);
+            int length = arena.getShort((int) rec + 2);
+            if ((type != 'R' && type != 'N' && type != 'M') || length < 0
+                || rec + align(4 + length) + 2 * tableBytes + maskBytes
+                   > capacity) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true iff the file named FILE starts like a rotor catalog.
+     */
+    static boolean isCatalog(String file) {
+        try (DataInputStream in = new DataInputStream(
+                new FileInputStream(file))) {
+            return Integer.reverseBytes(in.readInt()) == MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Return the common alphabet of my rotors.
+     */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /**
+     * Return the number of slots of the machines I was built for.
+     */
+    int numRotors() {
+        return _arena.getInt(SLOTS);
+    }
+
+    /**
+     * Return the number of pawls of the machines I was built for.
+     */
+    int numPawls() {
+        return _arena.getInt(PAWLS);
+    }
+
+    /**
+     * Return the number of rotors I hold.
+     */
+    int size() {
+        return _count;
+    }
+
+    /**
+     * Return the size of my arena in bytes.
+     */
+    long bytes() {
+        return _arena.capacity();
+    }
+
+    /**
+     * Return a machine of the shape I was built for, drawing its rotors
+     * from me.
+     */
+    Machine machine() {
+        return new Machine(_alphabet, numRotors(), numPawls(), this);
+    }
+
+    /**
+     * Return my rotors as a list, whose elements are made as they are
+     * first asked for.
+     */
+    List<Rotor> rotors() {
+        return new AbstractList<Rotor>() {
+            @Override
+            public Rotor get(int k) {
+                return rotor(k);
+            }
+
+            @Override
+            public int size() {
+                return _count;
+            }
+        };
+    }
+
+    @Override
+    public Rotor rotor(String name) {
+        byte[] bytes = name.getBytes(UTF_8);
+        ByteBuffer key = ByteBuffer.wrap(bytes);
+        int mask = _index.length - 1;
+        for (int slot = hash(key, 0, bytes.length); ; slot++) {
+            int k = _index[slot & mask];
+            if (k < 0) {
+                return null;
+            }
+            int rec = record(k);
+            if (_arena.getShort(rec + 2) == bytes.length
+                && _arena.slice(rec + 4, bytes.length).equals(key)) {
+                return rotor(k);
+            }
+        }
+    }
+
+    /**
+     * Return rotor number K, making its view if need be.
+     */
+    synchronized Rotor rotor(int k) {
+        if (_views[k] == null) {
+            _views[k] = view(k);
+        }
+        return _views[k];
+    }
+
+    /**
+     * Return a new view of rotor number K.
+     */
+    private Rotor view(int k) {
+        int size = _alphabet.size();
+        int rec = record(k);
+        int length = _arena.getShort(rec + 2);
+        byte[] bytes = new byte[length];
+        _arena.get(rec + 4, bytes);
+        String name = new String(bytes, UTF_8);
+        int at = rec + (int) align(4 + length);
+        int tableBytes = (int) align((long) IndexTable.entryBytes(size)
+                * size);
+        Permutation perm = Permutation.fromTables(_alphabet,
+                new IndexTable(_arena, at, size),
+                new IndexTable(_arena, at + tableBytes, size));
+        at += 2 * tableBytes;
+        switch (_arena.get(rec)) {
+        case 'R':
+            return new Reflector(name, perm);
+        case 'N':
+            return new FixedRotor(name, perm);
+        default:
+            StringBuilder notches = new StringBuilder();
+            for (int p = 0; p < size; p++) {
+                if ((_arena.get(at + p / 8) & 1 << (p % 8)) != 0) {
+                    notches.appendCodePoint(_alphabet.toCodePoint(p));
+                }
+            }
+            return new MovingRotor(name, perm, notches.toString());
+        }
+    }
+
+    /**
+     * Return the offset of the record of rotor number K.
+     */
+    private int record(int k) {
+        return _arena.getInt(_records + 4 * k);
+    }
+
+    /**
+     * Return a hash of the LENGTH bytes at OFFSET in BUFFER.
+     */
+    private static int hash(ByteBuffer buffer, int offset, int length) {
+        int h = 1;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + buffer.get(offset + i);
+        }
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Return N rounded up to a multiple of four.
+     */
+    private static long align(long n) {
+        return (n + 3) & ~3L;
+    }
+
+    /**
+     * First word of a catalog.
+     */
+    private static final int MAGIC = 0x41434e45;
+    /**
+     * Header offsets: magic number, alphabet size, machine slots,
+     * machine pawls, rotor count, and the end of the fixed header.
+     */
+    private static final int MAGIC_AT = 0, SIZE = 4, SLOTS = 8, PAWLS = 12,
+        COUNT = 16, HEADER = 20;
+
+    /**
+     * The arena.
+     */
+    private final ByteBuffer _arena;
+    /**
+     * Common alphabet of the rotors.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Number of rotors.
+     */
+    private final int _count;
+    /**
+     * Offset of the table of record offsets.
+     */
+    private final int _records;
+    /**
+     * Rotor numbers, open-addressed by the hash of their names; -1
+     * marks an empty slot.
+     */
+    private final int[] _index;
+    /**
+     * Views made so far, by rotor number.
+     */
+    private final Rotor[] _views;
+}
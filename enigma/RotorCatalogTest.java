@@ -0,0 +1,115 @@
+package enigma;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the RotorCatalog class.
+ *
+ * @author charlesellis
+ */
+public class RotorCatalogTest {
+
+    /** Return the naval rotors, as heap objects. */
+    private ArrayList<Rotor> rotors() {
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        rotors.add(new Reflector("B", new Permutation(NAVALA.get("B"),
+                UPPER)));
+        rotors.add(new FixedRotor("Beta", new Permutation(
+                NAVALA.get("Beta"), UPPER)));
+        String[] names = {"I", "II", "III", "IV", "V"};
+        String notches = "QEVJZ";
+        for (int i = 0; i < names.length; i += 1) {
+            rotors.add(new MovingRotor(names[i], new Permutation(
+                    NAVALA.get(names[i]), UPPER),
+                    notches.substring(i, i + 1)));
+        }
+        return rotors;
+    }
+
+    /** Check that machines drawn from CATALOG convert as heap ones
+     *  do. */
+    private void checkCatalog(RotorCatalog catalog) {
+        assertEquals(7, catalog.size());
+        assertNull(catalog.rotor("VI"));
+        assertEquals("III", catalog.rotor("III").name());
+        assertSame(catalog.rotor("III"), catalog.rotor("III"));
+        String msg = "FROMHISSHOULDERHIAWATHATOOKTHECAMERAOFROSEWOOD"
+            .repeat(40);
+        for (String settings : new String[] {
+                "* B Beta I II III AXLE (HQ) (EX) (IP) (TR) (BY)",
+                "* B Beta V IV II QEZV BCDE (AZ)"}) {
+            Machine heap = new Machine(UPPER, 5, 3, rotors());
+            heap.setUp(settings);
+            Machine arena = catalog.machine();
+            arena.setUp(settings);
+            assertEquals(heap.convert(msg), arena.convert(msg));
+        }
+    }
+
+    @Test
+    public void testDirect() {
+        checkCatalog(RotorCatalog.build(UPPER, 5, 3, rotors(), null));
+    }
+
+    @Test
+    public void testMapped() throws IOException {
+        File file = File.createTempFile("catalog", ".bin");
+        file.deleteOnExit();
+        RotorCatalog.build(UPPER, 5, 3, rotors(), file.getPath());
+        assertTrue(RotorCatalog.isCatalog(file.getPath()));
+        RotorCatalog catalog = RotorCatalog.open(file.getPath());
+        assertEquals(5, catalog.numRotors());
+        assertEquals(3, catalog.numPawls());
+        checkCatalog(catalog);
+    }
+
+    /** Assert that opening the catalog file FILE, whose contents are
+     *  DATA, fails with an EnigmaException. */
+    private void assertCorrupt(File file, byte[] data) throws IOException {
+        Files.write(file.toPath(), data);
+        try {
+            RotorCatalog.open(file.getPath());
+            fail("opened a corrupt catalog of " + data.length + " bytes");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(),
+                       excp.getMessage().contains("rotor catalog"));
+        }
+    }
+
+    @Test
+    public void testCorrupt() throws IOException {
+        File file = File.createTempFile("catalog", ".bin");
+        file.deleteOnExit();
+        RotorCatalog.build(UPPER, 5, 3, rotors(), file.getPath());
+        byte[] data = Files.readAllBytes(file.toPath());
+        for (int cut = 0; cut < data.length; cut += 1) {
+            assertCorrupt(file, Arrays.copyOf(data, cut));
+        }
+        int records = 20 + 4 * 26;
+        int[][] patches = {
+            {4, 0x7fffffff}, {4, -1}, {4, 0}, {16, 1 << 20}, {16, -1},
+            {records, 0}, {records, data.length}, {records, records + 2},
+        };
+        for (int[] patch : patches) {
+            ByteBuffer bad = ByteBuffer.wrap(data.clone())
+                .order(ByteOrder.LITTLE_ENDIAN);
+            bad.putInt(patch[0], patch[1]);
+            assertCorrupt(file, bad.array());
+        }
+        Files.write(file.toPath(), data);
+        checkCatalog(RotorCatalog.open(file.getPath()));
+    }
+
+}
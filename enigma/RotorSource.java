@@ -0,0 +1,17 @@
+package enigma;
+
+/**
+ * A collection of named rotors that machines draw on by name, such as
+ * a rotor catalog.  The rotors it hands out may be shared among
+ * machines, so a machine copies one before turning it.
+ *
+ * @author charlesellis
+ */
+interface RotorSource {
+
+    /**
+     * Return the rotor named NAME, or null if there is none.
+     */
+    Rotor rotor(String name);
+
+}
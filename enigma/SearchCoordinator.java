@@ -0,0 +1,494 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.*;
+import static enigma.EnigmaException.*;
+
+/**
+ * The coordinator of a KeySearch shared among SearchWorkers over
+ * sockets.  The keys are cut into leases of a fixed number of
+ * consecutive key numbers.  Each worker that connects is sent the
+ * configuration and search specification, and then asks for leases one
+ * at a time, reporting the hits in each and, when it is done, the keys
+ * tried and the time taken.  A lease not reported done within the
+ * lease timeout is handed out again, so a worker that dies or stalls
+ * costs only the time of its lease.
+ *
+ * The leases done and the hits found are checkpointed to a file every
+ * second and when the coordinator closes, by writing a new file and
+ * renaming it over the old one.  A coordinator started on an existing
+ * checkpoint of the same search hands out only the leases not yet
+ * done, so a restart loses no more than the last second's leases,
+ * which are searched again.
+ *
+ * Messages are a type byte followed by fields written as by
+ * DataOutputStream:
+ *
+ *     HELLO name                   worker -> coordinator
+ *     JOB configName config spec   coordinator -> worker
+ *     LEASE_REQUEST                worker -> coordinator
+ *     LEASE lease lo hi            coordinator -> worker
+ *     WAIT millis                  coordinator -> worker
+ *     DONE                         coordinator -> worker
+ *     HIT lease key line           worker -> coordinator
+ *     COMPLETE lease tried nanos   worker -> coordinator
+ *
+ * where config is an int length and that many bytes of UTF-8.
+ *
+ * @author charlesellis
+ */
+final class SearchCoordinator implements Closeable {
+
+    /**
+     * A coordinator of the search described by SPEC of the machine
+     * whose configuration, called CONFIGNAME, is CONFIG, listening on
+     * PORT (0 for any free port), handing out leases of LEASESIZE keys
+     * that expire after TIMEOUT milliseconds, and checkpointing to the
+     * file CHECKPOINT if it is not null.
+     */
+    SearchCoordinator(String configName, String config, String spec,
+                      int port, String checkpoint, long leaseSize,
+                      long timeout) throws IOException {
+        if (leaseSize <= 0 || timeout <= 0) {
+            throw error("bad lease size or timeout");
+        }
+        _configName = configName;
+        _config = config.getBytes(UTF_8);
+        _spec = spec;
+        _size = new KeySearch(Main.machine(configName,
+                config.toCharArray()), "search", spec).size();
+        _leaseSize = leaseSize;
+        long leases = (_size + leaseSize - 1) / leaseSize;
+        if (leases > Integer.MAX_VALUE) {
+            throw error("too many leases; use larger ones");
+        }
+        _leases = (int) leases;
+        _timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        _checkpoint = checkpoint == null ? null : Paths.get(checkpoint);
+        if (_checkpoint != null && Files.exists(_checkpoint)
+            && Files.size(_checkpoint) > 0) {
+            restore();
+        }
+        _server = new ServerSocket(port);
+    }
+
+    /**
+     * Return the port I listen on.
+     */
+    int port() {
+        return _server.getLocalPort();
+    }
+
+    /**
+     * Return the number of keys searched in all.
+     */
+    long size() {
+        return _size;
+    }
+
+    /**
+     * Start accepting workers, expiring leases and checkpointing.
+     */
+    void start() {
+        _handlers.execute(this::accept);
+        long period = Math.max(TimeUnit.NANOSECONDS.toMillis(_timeout) / 4,
+                10);
+        _timer.scheduleAtFixedRate(this::expire, period, period,
+                TimeUnit.MILLISECONDS);
+        if (_checkpoint != null) {
+            _timer.scheduleAtFixedRate(this::checkpoint, 1, 1,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Wait up to TIMEOUT UNITs for every lease to be done, and return
+     * true iff they are.
+     */
+    synchronized boolean awaitDone(long timeout, TimeUnit unit)
+        throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (_doneCount < _leases) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+        }
+        return true;
+    }
+
+    /**
+     * Return the hits found so far, settings lines by key number.
+     */
+    synchronized SortedMap<Long, String> hits() {
+        return new TreeMap<>(_hits);
+    }
+
+    /**
+     * Return a report, a line per worker and a total, of the keys each
+     * has tried and at what rate.
+     */
+    synchronized String stats() {
+        StringBuilder result = new StringBuilder();
+        long tried = 0;
+        for (Map.Entry<String, long[]> entry : _throughput.entrySet()) {
+            long[] t = entry.getValue();
+            tried += t[0];
+            result.append(String.format("worker %s: %d keys, %.0f keys/s%n",
+                    entry.getKey(), t[0],
+                    t[1] == 0 ? 0.0 : t[0] * 1e9 / t[1]));
+        }
+        result.append(String.format("%d of %d leases done, %d keys tried, "
+                + "%d hits%n", _doneCount, _leases, tried,
+                _hits.size()));
+        return result.toString();
+    }
+
+    /**
+     * Write to OUT the reply to a request for a lease: a lease not done
+     * and not out, if there is one, else a wait while leases are out,
+     * else DONE.
+     */
+    private void lease(DataOutputStream out) throws IOException {
+        long[] lease = lease();
+        if (lease == null) {
+            out.writeByte(DONE);
+        } else if (lease.length == 1) {
+            out.writeByte(WAIT);
+            out.writeLong(lease[0]);
+        } else {
+            out.writeByte(LEASE);
+            out.writeInt((int) lease[0]);
+            out.writeLong(lease[1]);
+            out.writeLong(lease[2]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Return {number, lo, hi} of a lease newly handed out, {millis} to
+     * wait if all leases not done are out, or null if all are done.
+     */
+    synchronized long[] lease() {
+        Integer k;
+        do {
+            k = _expired.poll();
+        } while (k != null && _done.get(k));
+        if (k == null && _next < _leases) {
+            _next = _done.nextClearBit(_next);
+            if (_next < _leases) {
+                k = _next;
+                _next += 1;
+            }
+        }
+        if (k == null) {
+            if (_doneCount == _leases) {
+                return null;
+            }
+            return new long[] {
+                Math.max(1, TimeUnit.NANOSECONDS.toMillis(_timeout) / 10)
+            };
+        }
+        _out.put(k, System.nanoTime() + _timeout);
+        long lo = k * _leaseSize;
+        return new long[] {k, lo, Math.min(lo + _leaseSize, _size)};
+    }
+
+    /**
+     * Record the hit LINE, key number KEY.
+     */
+    synchronized void hit(long key, String line) {
+        _hits.put(key, line);
+    }
+
+    /**
+     * Record that WORKER has done lease K, trying TRIED keys in NANOS
+     * nanoseconds.
+     */
+    synchronized void complete(int k, String worker, long tried,
+                               long nanos) {
+        if (k < 0 || k >= _leases) {
+            return;
+        }
+        long[] t = _throughput.computeIfAbsent(worker, w -> new long[2]);
+        t[0] += tried;
+        t[1] += nanos;
+        _out.remove(k);
+        if (!_done.get(k)) {
+            _done.set(k);
+            _doneCount += 1;
+            if (_doneCount == _leases) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Hand out again the leases out for longer than the timeout.
+     */
+    synchronized void expire() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Integer, Long>> entries =
+            _out.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Integer, Long> entry = entries.next();
+            if (now - entry.getValue() > 0) {
+                entries.remove();
+                _expired.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Accept workers until closed, serving each on its own thread.
+     */
+    private void accept() {
+        while (!_server.isClosed()) {
+            try {
+                Socket socket = _server.accept();
+                _sockets.add(socket);
+                _handlers.execute(() -> serve(socket));
+            } catch (IOException excp) {
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Serve the worker connected by SOCKET until it leaves.  Its
+     * leases are left to expire.
+     */
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            if (in.readByte() != HELLO) {
+                return;
+            }
+            String worker = in.readUTF();
+            out.writeByte(JOB);
+            out.writeUTF(_configName);
+            out.writeInt(_config.length);
+            out.write(_config);
+            out.writeUTF(_spec);
+            out.flush();
+            while (true) {
+                switch (in.readByte()) {
+                case LEASE_REQUEST:
+                    lease(out);
+                    break;
+                case HIT:
+                    in.readInt();
+                    long key = in.readLong();
+                    hit(key, in.readUTF());
+                    break;
+                case COMPLETE:
+                    int k = in.readInt();
+                    long tried = in.readLong();
+                    complete(k, worker, tried, in.readLong());
+                    break;
+                default:
+                    return;
+                }
+            }
+        } catch (IOException excp) {
+            return;
+        } finally {
+            _sockets.remove(socket);
+        }
+    }
+
+    /**
+     * Write my leases done and hits to my checkpoint file, if any.
+     */
+    synchronized void checkpoint() {
+        if (_checkpoint == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeUTF(_spec);
+            out.writeLong(_size);
+            out.writeLong(_leaseSize);
+            byte[] done = _done.toByteArray();
+            out.writeInt(done.length);
+            out.write(done);
+            out.writeInt(_hits.size());
+            for (Map.Entry<Long, String> hit : _hits.entrySet()) {
+                out.writeLong(hit.getKey());
+                out.writeUTF(hit.getValue());
+            }
+            Path temp = _checkpoint.resolveSibling(
+                    _checkpoint.getFileName() + ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, _checkpoint, REPLACE_EXISTING, ATOMIC_MOVE);
+        } catch (IOException excp) {
+            System.err.printf("Error: could not write checkpoint: %s%n",
+                    excp.getMessage());
+        }
+    }
+
+    /**
+     * Read my leases done and hits from my checkpoint file.
+     */
+    private void restore() throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                Files.readAllBytes(_checkpoint)));
+        if (in.readInt() != MAGIC || !in.readUTF().equals(_spec)
+            || in.readLong() != _size || in.readLong() != _leaseSize) {
+            throw error("checkpoint %s is for another search",
+                    _checkpoint);
+        }
+        byte[] done = new byte[in.readInt()];
+        in.readFully(done);
+        _done.or(BitSet.valueOf(done));
+        _doneCount = _done.cardinality();
+        for (int i = in.readInt(); i > 0; i--) {
+            long key = in.readLong();
+            _hits.put(key, in.readUTF());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        _timer.shutdownNow();
+        _server.close();
+        for (Socket socket : _sockets) {
+            socket.close();
+        }
+        _handlers.shutdownNow();
+        checkpoint();
+    }
+
+    /**
+     * Message types.
+     */
+    static final byte HELLO = 1, JOB = 2, LEASE_REQUEST = 3, LEASE = 4,
+        WAIT = 5, DONE = 6, HIT = 7, COMPLETE = 8;
+
+    /**
+     * Marks the start of a checkpoint file.
+     */
+    private static final int MAGIC = 0x454e4b53;
+
+    /**
+     * Name of the configuration.
+     */
+    private final String _configName;
+    /**
+     * Configuration, in UTF-8.
+     */
+    private final byte[] _config;
+    /**
+     * Search specification.
+     */
+    private final String _spec;
+    /**
+     * Number of keys.
+     */
+    private final long _size;
+    /**
+     * Keys per lease.
+     */
+    private final long _leaseSize;
+    /**
+     * Number of leases.
+     */
+    private final int _leases;
+    /**
+     * Lease timeout, in nanoseconds.
+     */
+    private final long _timeout;
+    /**
+     * Checkpoint file, or null.
+     */
+    private final Path _checkpoint;
+    /**
+     * Socket on which workers connect.
+     */
+    private final ServerSocket _server;
+    /**
+     * Sockets of the workers connected.
+     */
+    private final Set<Socket> _sockets = ConcurrentHashMap.newKeySet();
+    /**
+     * Threads accepting and serving workers.
+     */
+    private final ExecutorService _handlers =
+        Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+    /**
+     * Thread expiring leases and checkpointing.
+     */
+    private final ScheduledExecutorService _timer =
+        Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+    /**
+     * Leases done.
+     */
+    private final BitSet _done = new BitSet();
+    /**
+     * Number of leases done.
+     */
+    private int _doneCount;
+    /**
+     * Leases that expired, to be handed out again first.
+     */
+    private final ArrayDeque<Integer> _expired = new ArrayDeque<>();
+    /**
+     * Leases before this one have been handed out at least once.
+     */
+    private int _next;
+    /**
+     * Deadlines of the leases out, in System.nanoTime terms.
+     */
+    private final HashMap<Integer, Long> _out = new HashMap<>();
+    /**
+     * Hits, settings lines by key number.
+     */
+    private final TreeMap<Long, String> _hits = new TreeMap<>();
+    /**
+     * Keys tried and nanoseconds taken, by worker.
+     */
+    private final LinkedHashMap<String, long[]> _throughput =
+        new LinkedHashMap<>();
+}
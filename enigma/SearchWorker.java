@@ -0,0 +1,134 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static enigma.EnigmaException.*;
+import static enigma.SearchCoordinator.*;
+
+/**
+ * A worker of a KeySearch shared out by a SearchCoordinator.  It
+ * connects to the coordinator, builds its own machine from the
+ * configuration it is sent, and then searches one lease after another,
+ * reporting hits as it finds them, until the coordinator says the
+ * search is done.  See SearchCoordinator for the messages.
+ *
+ * @author charlesellis
+ */
+final class SearchWorker implements Runnable {
+
+    /**
+     * A worker called NAME for the coordinator at HOST:PORT.
+     */
+    SearchWorker(String host, int port, String name) {
+        _host = host;
+        _port = port;
+        _name = name;
+    }
+
+    @Override
+    public void run() {
+        try (Socket socket = new Socket(_host, _port)) {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            out.writeByte(HELLO);
+            out.writeUTF(_name);
+            out.flush();
+            if (in.readByte() != JOB) {
+                throw error("bad reply from coordinator");
+            }
+            String configName = in.readUTF();
+            byte[] config = new byte[in.readInt()];
+            in.readFully(config);
+            String spec = in.readUTF();
+            Machine machine = Main.machine(configName,
+                    new String(config, UTF_8).toCharArray());
+            KeySearch search = new KeySearch(machine, "search", spec);
+            while (true) {
+                out.writeByte(LEASE_REQUEST);
+                out.flush();
+                byte reply = in.readByte();
+                if (reply == DONE) {
+                    return;
+                } else if (reply == WAIT) {
+                    Thread.sleep(in.readLong());
+                    continue;
+                } else if (reply != LEASE) {
+                    throw error("bad reply from coordinator");
+                }
+                int lease = in.readInt();
+                long lo = in.readLong();
+                long hi = in.readLong();
+                long start = System.nanoTime();
+                IOException[] failed = new IOException[1];
+                long tried = search.search(lo, hi, (line, key) -> {
+                    try {
+                        out.writeByte(HIT);
+                        out.writeInt(lease);
+                        out.writeLong(key);
+                        out.writeUTF(line);
+                    } catch (IOException excp) {
+                        failed[0] = excp;
+                    }
+                });
+                if (failed[0] != null) {
+                    throw failed[0];
+                }
+                out.writeByte(COMPLETE);
+                out.writeInt(lease);
+                out.writeLong(tried);
+                out.writeLong(System.nanoTime() - start);
+                _tried += tried;
+            }
+        } catch (IOException excp) {
+            _failure = error("lost coordinator %s:%d: %s", _host, _port,
+                    excp.getMessage());
+        } catch (InterruptedException excp) {
+            _failure = error("interrupted");
+        } catch (EnigmaException excp) {
+            _failure = excp;
+        }
+    }
+
+    /**
+     * Return the error that stopped me, or null if I finished.
+     */
+    EnigmaException failure() {
+        return _failure;
+    }
+
+    /**
+     * Return the number of keys I have tried.
+     */
+    long tried() {
+        return _tried;
+    }
+
+    /**
+     * Host of the coordinator.
+     */
+    private final String _host;
+    /**
+     * Port of the coordinator.
+     */
+    private final int _port;
+    /**
+     * My name, as reported to the coordinator.
+     */
+    private final String _name;
+    /**
+     * Keys tried.
+     */
+    private volatile long _tried;
+    /**
+     * Error that stopped me, or null.
+     */
+    private volatile EnigmaException _failure;
+}
@@ -0,0 +1,124 @@
+package enigma;
+
+/**
+ * The conversion shared by the Enigma stream wrappers.  Characters in
+ * the machine's alphabet are converted.  Ungrouped, all other
+ * characters pass through unchanged.  Grouped, the output is formatted
+ * as Main.printMessageLine formats a line: the converted characters in
+ * groups of five, each group followed by a space, with line breaks
+ * kept and all other characters dropped.  Grouping state carries over
+ * from one call to the next.
+ *
+ * @author charlesellis
+ */
+class StreamConverter {
+
+    /**
+     * A converter using MACHINE, formatting in groups iff GROUPED.
+     */
+    StreamConverter(Machine machine, boolean grouped) {
+        _machine = machine;
+        _alphabet = machine.alphabet();
+        _grouped = grouped;
+    }
+
+    /**
+     * Return true iff I format in groups.
+     */
+    boolean grouped() {
+        return _grouped;
+    }
+
+    /**
+     * Return the machine I convert with.
+     */
+    Machine machine() {
+        return _machine;
+    }
+
+    /**
+     * Return true iff I have output left over from my last call to
+     * convert, which the next call will deliver first.
+     */
+    boolean pending() {
+        return _spacePending;
+    }
+
+    /**
+     * Convert characters from SRC[START .. END-1] into DST[DSTART ..
+     * DEND-1] until one or the other runs out, and return the number of
+     * characters of SRC used.  produced() then gives the number of
+     * characters stored in DST.
+     */
+    int convert(char[] src, int start, int end,
+                char[] dst, int dstart, int dend) {
+        int s = start;
+        int d = dstart;
+        if (_spacePending && d < dend) {
+            dst[d] = ' ';
+            d += 1;
+            _spacePending = false;
+        }
+        while (s < end && d < dend && !_spacePending) {
+            char ch = src[s];
+            s += 1;
+            if (_alphabet.contains(ch)) {
+                dst[d] = _alphabet.toChar(_machine.convert(
+                        _alphabet.toInt(ch)));
+                d += 1;
+                if (_grouped) {
+                    _count += 1;
+                    if (_count % 5 == 0) {
+                        if (d < dend) {
+                            dst[d] = ' ';
+                            d += 1;
+                        } else {
+                            _spacePending = true;
+                        }
+                    }
+                }
+            } else if (!_grouped || ch == '\n' || ch == '\r') {
+                dst[d] = ch;
+                d += 1;
+                if (ch == '\n' || ch == '\r') {
+                    _count = 0;
+                }
+            }
+        }
+        _produced = d - dstart;
+        return s - start;
+    }
+
+    /**
+     * Return the number of characters stored by the last call to
+     * convert.
+     */
+    int produced() {
+        return _produced;
+    }
+
+    /**
+     * Machine doing the conversion.
+     */
+    private final Machine _machine;
+    /**
+     * Alphabet of _machine.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * True iff output is formatted in groups.
+     */
+    private final boolean _grouped;
+    /**
+     * Converted characters in the current line.
+     */
+    private int _count;
+    /**
+     * True iff a group-ending space is still to be output.
+     */
+    private boolean _spacePending;
+    /**
+     * Characters stored by the last call to convert.
+     */
+    private int _produced;
+}
@@ -1,5 +1,8 @@
 package enigma;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.HashMap;
 
 /**
@@ -22,6 +25,47 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /**
+     * The configuration of testing/correct/default.conf, for tests that
+     * must not depend on the directory they run in.
+     */
+    static final String DEFAULT_CONFIG =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n"
+        + " 5 3\n"
+        + " I MQ      (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " II ME     (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n"
+        + " III MV    (ABDHPEJT) (CFLVMZOYQIRWUKXSG) (N)\n"
+        + " IV MJ     (AEPLIYWCOXMRFZBSTGJQNH) (DV) (KU)\n"
+        + " V MZ      (AVOLDRWFIUQ)(BZKSMNHYC) (EGTJPX)\n"
+        + " VI MZM    (AJQDVLEOZWIYTS) (CGMNHFUX) (BPRK)\n"
+        + " VII MZM   (ANOUPFRIMBZTLWKSVEGCJYDHXQ)\n"
+        + " VIII MZM  (AFLSETWUNDHOZVICQ) (BKJ) (GXY) (MPR)\n"
+        + " Beta N    (ALBEVFCYODJWUGNMQTZSKPR) (HIX)\n"
+        + " Gamma N   (AFNIRLBSQWVXGUZDKMTPCOYJHE)\n"
+        + " B R       (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "           (RX) (SZ) (TV)\n"
+        + " C R       (AR) (BD) (CO) (EJ) (FN) (GT) (HK) (IV) (LM) (PW)\n"
+        + "           (QZ) (SX) (UY)\n";
+
+    /**
+     * Return a new temporary file, deleted on exit, whose name ends in
+     * SUFFIX and which contains TEXT.
+     */
+    static File tempFile(String suffix, String text) throws IOException {
+        File result = File.createTempFile("enigma", suffix);
+        result.deleteOnExit();
+        Files.writeString(result.toPath(), text);
+        return result;
+    }
+
+    /**
+     * Run Main on command-line arguments ARGS as Main.main does, but
+     * throwing its errors rather than exiting.
+     */
+    static void runMain(String... args) {
+        new Main(args).process();
+    }
+
     /**
      * The naval rotors in the A (0) setting.
      */
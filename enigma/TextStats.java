@@ -0,0 +1,421 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A statistics sink for the encryption path.  It counts the unigrams,
+ * bigrams and trigrams of the input and output of each message, over
+ * the characters of an alphabet (n-grams do not span messages), and
+ * computes the index of coincidence of each message and of all of them
+ * together.  Counts live in long[] tables indexed by alphabet index.
+ * Each thread counts into a stripe of its own, without locking; the
+ * stripes are merged when the results are asked for.  Bigram and
+ * trigram tables are kept only while they hold at most MAX_TABLE
+ * entries, so large alphabets get unigrams (and perhaps bigrams) only,
+ * and the indices of coincidence of single messages are kept only for
+ * messages whose ids are below MAX_MESSAGES, so memory stays bounded
+ * however large the alphabet or long the traffic.  Results are meant
+ * to be asked for once counting is done.
+ *
+ * @author charlesellis
+ */
+final class TextStats {
+
+    /**
+     * A sink counting characters of ALPHABET.
+     */
+    TextStats(Alphabet alphabet) {
+        _alphabet = alphabet;
+        _size = alphabet.size();
+    }
+
+    /**
+     * Record message number ID, whose input was INPUT and whose output
+     * was OUTPUT.  Characters not in my alphabet are ignored, and the
+     * message's own indices of coincidence are kept only if ID is less
+     * than MAX_MESSAGES.
+     */
+    void message(long id, CharSequence input, CharSequence output) {
+        Stripe stripe = _local.get();
+        double in = stripe.sides[0].count(input);
+        double out = stripe.sides[1].count(output);
+        stripe.record(id, in, out);
+    }
+
+    /**
+     * Return the merged counts of all inputs.
+     */
+    Counts input() {
+        return merge(0);
+    }
+
+    /**
+     * Return the merged counts of all outputs.
+     */
+    Counts output() {
+        return merge(1);
+    }
+
+    /**
+     * Return the number of messages counted whose own indices of
+     * coincidence were not kept.
+     */
+    long unreported() {
+        long result = 0;
+        for (Stripe stripe : _stripes) {
+            result += stripe.unreported;
+        }
+        return result;
+    }
+
+    /**
+     * Return the ids of the messages recorded, in increasing order.
+     */
+    long[] ids() {
+        return perMessage()[0];
+    }
+
+    /**
+     * Return the indices of coincidence of the inputs of the messages
+     * recorded, in the order of ids().
+     */
+    double[] inputIoc() {
+        return toDoubles(perMessage()[1]);
+    }
+
+    /**
+     * Return the indices of coincidence of the outputs of the messages
+     * recorded, in the order of ids().
+     */
+    double[] outputIoc() {
+        return toDoubles(perMessage()[2]);
+    }
+
+    /**
+     * Return the counts of side SIDE (0 for input, 1 for output)
+     * summed over all stripes.
+     */
+    private Counts merge(int side) {
+        Counts result = new Counts(_size);
+        for (Stripe stripe : _stripes) {
+            result.add(stripe.sides[side]);
+        }
+        return result;
+    }
+
+    /**
+     * Return the message ids and the raw bits of their input and output
+     * indices of coincidence, merged from all stripes and sorted by id.
+     */
+    private long[][] perMessage() {
+        int total = 0;
+        for (Stripe stripe : _stripes) {
+            total += stripe.messages;
+        }
+        long[][] rows = new long[total][];
+        int k = 0;
+        for (Stripe stripe : _stripes) {
+            for (int i = 0; i < stripe.messages; i++) {
+                rows[k] = new long[] {stripe.ids[i],
+                    Double.doubleToLongBits(stripe.iocs[2 * i]),
+                    Double.doubleToLongBits(stripe.iocs[2 * i + 1])};
+                k += 1;
+            }
+        }
+        Arrays.sort(rows, (a, b) -> Long.compare(a[0], b[0]));
+        long[][] result = new long[3][total];
+        for (int i = 0; i < total; i++) {
+            for (int c = 0; c < 3; c++) {
+                result[c][i] = rows[i][c];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the doubles whose raw bits are BITS.
+     */
+    private static double[] toDoubles(long[] bits) {
+        double[] result = new double[bits.length];
+        for (int i = 0; i < bits.length; i++) {
+            result[i] = Double.longBitsToDouble(bits[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Return the number of entries in a table of N-grams of an alphabet
+     * of SIZE characters, or 0 if it would exceed MAX_TABLE.
+     */
+    private static int tableSize(int size, int n) {
+        long entries = 1;
+        for (int i = 0; i < n; i++) {
+            entries *= size;
+            if (entries > MAX_TABLE) {
+                return 0;
+            }
+        }
+        return (int) entries;
+    }
+
+    /**
+     * N-gram counts of one side of the traffic.
+     */
+    static class Counts {
+
+        /**
+         * Empty counts over an alphabet of SIZE characters.
+         */
+        Counts(int size) {
+            _n = size;
+            _unigrams = new long[size];
+            int bi = tableSize(size, 2);
+            int tri = tableSize(size, 3);
+            _bigrams = bi > 0 ? new long[bi] : null;
+            _trigrams = tri > 0 ? new long[tri] : null;
+        }
+
+        /**
+         * Return the number of characters counted.
+         */
+        long total() {
+            long result = 0;
+            for (long f : _unigrams) {
+                result += f;
+            }
+            return result;
+        }
+
+        /**
+         * Return the count of the character with index A.
+         */
+        long unigram(int a) {
+            return _unigrams[a];
+        }
+
+        /**
+         * Return the count of the bigram of indices A B, or -1 if
+         * bigrams are not counted.
+         */
+        long bigram(int a, int b) {
+            return _bigrams == null ? -1 : _bigrams[a * _n + b];
+        }
+
+        /**
+         * Return the count of the trigram of indices A B C, or -1 if
+         * trigrams are not counted.
+         */
+        long trigram(int a, int b, int c) {
+            return _trigrams == null ? -1
+                : _trigrams[(a * _n + b) * _n + c];
+        }
+
+        /**
+         * Return the index of coincidence of everything counted: the
+         * chance that two characters drawn without replacement match,
+         * times the alphabet size.
+         */
+        double ioc() {
+            long total = total();
+            if (total < 2) {
+                return 0;
+            }
+            double sum = 0;
+            for (long f : _unigrams) {
+                sum += (double) f * (f - 1);
+            }
+            return sum * _n / ((double) total * (total - 1));
+        }
+
+        /**
+         * Add the counts of OTHER, over the same alphabet, to mine.
+         */
+        void add(Counts other) {
+            addTo(_unigrams, other._unigrams);
+            addTo(_bigrams, other._bigrams);
+            addTo(_trigrams, other._trigrams);
+        }
+
+        /**
+         * Add the entries of FROM to those of TO, if there are any.
+         */
+        private static void addTo(long[] to, long[] from) {
+            if (to != null) {
+                for (int i = 0; i < to.length; i++) {
+                    to[i] += from[i];
+                }
+            }
+        }
+
+        /**
+         * Alphabet size.
+         */
+        protected final int _n;
+        /**
+         * Unigram counts.
+         */
+        protected final long[] _unigrams;
+        /**
+         * Bigram counts, indexed a*n + b, or null.
+         */
+        protected final long[] _bigrams;
+        /**
+         * Trigram counts, indexed (a*n + b)*n + c, or null.
+         */
+        protected final long[] _trigrams;
+    }
+
+    /**
+     * The counts of one side of the traffic seen by one thread, with
+     * the per-message counts needed for a message's index of
+     * coincidence.
+     */
+    private final class Side extends Counts {
+
+        /**
+         * Empty counts.
+         */
+        Side() {
+            super(_size);
+            _count = new int[_size];
+            _stamp = new int[_size];
+        }
+
+        /**
+         * Count the characters of MSG and return its index of
+         * coincidence.
+         */
+        double count(CharSequence msg) {
+            _message += 1;
+            long pairs = 0;
+            int letters = 0;
+            int a = -1;
+            int b = -1;
+            for (int i = 0; i < msg.length(); ) {
+                int ch = Character.codePointAt(msg, i);
+                i += Character.charCount(ch);
+                int c = _alphabet.indexOf(ch);
+                if (c < 0) {
+                    continue;
+                }
+                _unigrams[c] += 1;
+                if (b >= 0 && _bigrams != null) {
+                    _bigrams[b * _n + c] += 1;
+                    if (a >= 0 && _trigrams != null) {
+                        _trigrams[(a * _n + b) * _n + c] += 1;
+                    }
+                }
+                if (_stamp[c] != _message) {
+                    _stamp[c] = _message;
+                    _count[c] = 0;
+                }
+                pairs += _count[c];
+                _count[c] += 1;
+                letters += 1;
+                a = b;
+                b = c;
+            }
+            if (letters < 2) {
+                return 0;
+            }
+            return 2.0 * pairs * _n / ((double) letters * (letters - 1));
+        }
+
+        /**
+         * Occurrences of each character in the current message, valid
+         * where _stamp matches _message.
+         */
+        private final int[] _count;
+        /**
+         * Message number for which each entry of _count is valid.
+         */
+        private final int[] _stamp;
+        /**
+         * Number of the current message.
+         */
+        private int _message;
+    }
+
+    /**
+     * The counts made by one thread.
+     */
+    private final class Stripe {
+
+        /**
+         * Record message ID with input index of coincidence IN and output
+         * index of coincidence OUT, or if ID is out of range, only count
+         * it as unreported.
+         */
+        void record(long id, double in, double out) {
+            if (id < 0 || id >= MAX_MESSAGES) {
+                unreported += 1;
+                return;
+            }
+            if (messages == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * messages);
+                iocs = Arrays.copyOf(iocs, 4 * messages);
+            }
+            ids[messages] = id;
+            iocs[2 * messages] = in;
+            iocs[2 * messages + 1] = out;
+            messages += 1;
+        }
+
+        /**
+         * Input and output counts.
+         */
+        final Side[] sides = {new Side(), new Side()};
+        /**
+         * Ids of the messages recorded.
+         */
+        long[] ids = new long[16];
+        /**
+         * Input and output indices of coincidence of the messages,
+         * interleaved.
+         */
+        double[] iocs = new double[32];
+        /**
+         * Number of messages recorded.
+         */
+        int messages;
+        /**
+         * Number of messages counted but not recorded.
+         */
+        long unreported;
+    }
+
+    /**
+     * Most entries in an n-gram table: 8 MB of counts, so that trigrams
+     * are kept for alphabets of up to 101 characters and bigrams for
+     * alphabets of up to 1024.
+     */
+    static final int MAX_TABLE = 1 << 20;
+    /**
+     * Bound on the ids of the messages whose own indices of coincidence
+     * are kept.
+     */
+    static final int MAX_MESSAGES = 1 << 18;
+
+    /**
+     * Alphabet counted.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Its size.
+     */
+    private final int _size;
+    /**
+     * Every thread's stripe.
+     */
+    private final CopyOnWriteArrayList<Stripe> _stripes =
+        new CopyOnWriteArrayList<>();
+    /**
+     * The current thread's stripe.
+     */
+    private final ThreadLocal<Stripe> _local = ThreadLocal.withInitial(() -> {
+        Stripe stripe = new Stripe();
+        _stripes.add(stripe);
+        return stripe;
+    });
+}
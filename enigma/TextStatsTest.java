@@ -0,0 +1,90 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the TextStats class.
+ *
+ * @author charlesellis
+ */
+public class TextStatsTest {
+
+    @Test
+    public void testCounts() {
+        TextStats stats = new TextStats(UPPER);
+        stats.message(0, "AAB A", "XYZW");
+        stats.message(1, "BA", "Q");
+        TextStats.Counts in = stats.input();
+        assertEquals(6, in.total());
+        assertEquals(4, in.unigram(0));
+        assertEquals(2, in.unigram(1));
+        assertEquals(1, in.bigram(0, 0));
+        assertEquals(1, in.bigram(0, 1));
+        assertEquals(2, in.bigram(1, 0));
+        assertEquals(1, in.trigram(0, 0, 1));
+        assertEquals(1, in.trigram(0, 1, 0));
+        assertEquals(0, in.trigram(1, 0, 0));
+        assertEquals(5, stats.output().total());
+
+        assertArrayEquals(new long[] {0, 1}, stats.ids());
+        assertEquals(26.0 * (3 * 2) / (4 * 3), stats.inputIoc()[0], 1e-9);
+        assertEquals(0.0, stats.outputIoc()[0], 1e-9);
+        assertEquals(26.0 * (4 * 3 + 2 * 1) / (6 * 5), in.ioc(), 1e-9);
+    }
+
+    @Test
+    public void testStripes() throws InterruptedException {
+        TextStats stats = new TextStats(UPPER);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t += 1) {
+            int first = t * 1000;
+            threads[t] = new Thread(() -> {
+                for (int i = first; i < first + 1000; i += 1) {
+                    stats.message(i, "HELLO", "WORLD");
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(20000, stats.input().total());
+        assertEquals(8000, stats.input().unigram(UPPER.toInt('L')));
+        assertEquals(4000, stats.output().trigram(UPPER.toInt('R'),
+                UPPER.toInt('L'), UPPER.toInt('D')));
+        long[] ids = stats.ids();
+        assertEquals(4000, ids.length);
+        for (int i = 0; i < ids.length; i += 1) {
+            assertEquals(i, ids[i]);
+        }
+    }
+
+    @Test
+    public void testBounds() {
+        int[] cps = new int[128];
+        for (int i = 0; i < cps.length; i += 1) {
+            cps[i] = 0x100 + i;
+        }
+        TextStats large = new TextStats(new Alphabet(cps));
+        large.message(0, "\u0100\u0101\u0102", "\u0102\u0101\u0100");
+        assertEquals(1, large.input().bigram(0, 1));
+        assertEquals(-1, large.input().trigram(0, 1, 2));
+        assertTrue(128L * 128 * 128 > TextStats.MAX_TABLE);
+
+        TextStats stats = new TextStats(UPPER);
+        for (int i = 0; i < TextStats.MAX_MESSAGES + 10; i += 1) {
+            stats.message(i, "AB", "CD");
+        }
+        assertEquals(TextStats.MAX_MESSAGES, stats.ids().length);
+        assertEquals(TextStats.MAX_MESSAGES - 1,
+                     stats.ids()[TextStats.MAX_MESSAGES - 1]);
+        assertEquals(10, stats.unreported());
+        assertEquals(2L * (TextStats.MAX_MESSAGES + 10),
+                     stats.input().total());
+    }
+
+}
@@ -0,0 +1,453 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.BitSet;
+import java.util.NoSuchElementException;
+
+/**
+ * A single-pass reader of whitespace-delimited tokens from a char[],
+ * for configuration files and settings lines.  Tokens are delimited
+ * as a Scanner delimits them by default, but no regular expressions
+ * are involved: every test is a scan over the characters of one
+ * token.  The line and column of the token last returned are tracked,
+ * so that errors can name the place in the source where they occur.
+ * Lines end at "\n", "\r\n" or "\r"; columns count chars from 1.
+ *
+ * @author charlesellis
+ */
+final class Tokenizer {
+
+    /**
+     * A tokenizer over TEXT, which is called SOURCE in error messages
+     * and whose first line is numbered LINE.
+     */
+    Tokenizer(String source, char[] text, int line) {
+        this(source, text, 0, text.length, line);
+    }
+
+    /**
+     * A tokenizer over TEXT[START .. END-1], which is called SOURCE in
+     * error messages and whose first line is numbered LINE.
+     */
+    Tokenizer(String source, char[] text, int start, int end, int line) {
+        _source = source;
+        _text = text;
+        _pos = start;
+        _end = end;
+        _line = line;
+        _lineStart = start;
+        _tokenStart = start;
+        _tokenLine = line;
+        _tokenColumn = 1;
+        _bytes = end - start;
+    }
+
+    /**
+     * A tokenizer in the same state as OTHER, over the same text.
+     */
+    private Tokenizer(Tokenizer other) {
+        _source = other._source;
+        _text = other._text;
+        _pos = other._pos;
+        _end = other._end;
+        _line = other._line;
+        _lineStart = other._lineStart;
+        _tokenStart = other._tokenStart;
+        _tokenLine = other._tokenLine;
+        _tokenColumn = other._tokenColumn;
+        _bytes = other._bytes;
+    }
+
+    /**
+     * Return a tokenizer over the contents of the file named NAME,
+     * decoded in the default charset, as a Scanner would.
+     */
+    static Tokenizer open(String name) {
+        ByteBuffer bytes;
+        try {
+            bytes = ByteBuffer.wrap(Files.readAllBytes(Paths.get(name)));
+        } catch (IOException excp) {
+            throw EnigmaException.error("could not open %s", name);
+        }
+        int size = bytes.remaining();
+        CharBuffer chars = CHARSET.decode(bytes);
+        Tokenizer result = new Tokenizer(name, chars.array(),
+                chars.arrayOffset(), chars.arrayOffset() + chars.limit(), 1);
+        result._bytes = size;
+        return result;
+    }
+
+    /**
+     * Return the size of my text: the number of bytes it was decoded
+     * from if it was read by open, and otherwise its number of chars.
+     */
+    long bytes() {
+        return _bytes;
+    }
+
+    /**
+     * Return true iff another token remains.
+     */
+    boolean hasNext() {
+        skip();
+        return _pos < _end;
+    }
+
+    /**
+     * Return the next token.  Throws NoSuchElementException if none
+     * remains.
+     */
+    String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int end = tokenEnd();
+        mark(_pos);
+        String result = new String(_text, _pos, end - _pos);
+        _pos = end;
+        return result;
+    }
+
+    /**
+     * Move past the next token, if any, without making a String of it.
+     */
+    void skipToken() {
+        if (hasNext()) {
+            _pos = tokenEnd();
+        }
+    }
+
+    /**
+     * Return a tokenizer that reads on independently from where I am.
+     */
+    Tokenizer copy() {
+        return new Tokenizer(this);
+    }
+
+    /**
+     * Return the next token, or throw an error with message MISSING,
+     * located at the end of the text, if none remains.
+     */
+    String next(String missing) {
+        if (!hasNext()) {
+            mark(_pos);
+            throw error(missing);
+        }
+        return next();
+    }
+
+    /**
+     * Return the rest of the current line, without its terminator,
+     * and move to the start of the next line.  Throws
+     * NoSuchElementException at the end of the text.
+     */
+    String nextLine() {
+        if (_pos >= _end) {
+            throw new NoSuchElementException();
+        }
+        int end = _pos;
+        while (end < _end && _text[end] != '\n' && _text[end] != '\r') {
+            end += 1;
+        }
+        mark(_pos);
+        String result = new String(_text, _pos, end - _pos);
+        _pos = end;
+        if (_pos < _end) {
+            newline();
+        }
+        return result;
+    }
+
+    /**
+     * Return true iff the next token is a decimal integer that fits in
+     * an int.
+     */
+    boolean hasNextInt() {
+        if (!hasNext()) {
+            return false;
+        }
+        int end = tokenEnd();
+        int i = _pos;
+        if (_text[i] == '-' || _text[i] == '+') {
+            i += 1;
+        }
+        if (i == end || end - i > MAX_DIGITS) {
+            return false;
+        }
+        long value = 0;
+        for (; i < end; i += 1) {
+            int digit = Character.digit(_text[i], 10);
+            if (digit < 0) {
+                return false;
+            }
+            value = 10 * value + digit;
+        }
+        return _text[_pos] == '-' ? -value >= Integer.MIN_VALUE
+            : value <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Return the next token as an int.  Throws NoSuchElementException
+     * if it is not a decimal integer that fits in an int.
+     */
+    int nextInt() {
+        if (!hasNextInt()) {
+            throw new NoSuchElementException();
+        }
+        return Integer.parseInt(next());
+    }
+
+    /**
+     * Return true iff the next token starts with C.
+     */
+    boolean hasNextStarting(char c) {
+        return hasNext() && _text[_pos] == c;
+    }
+
+    /**
+     * Return true iff the next token consists of one or more cycles,
+     * each a "(", one or more characters other than parentheses, and a
+     * ")", with nothing between them.
+     */
+    boolean hasNextCycles() {
+        if (!hasNext()) {
+            return false;
+        }
+        int end = tokenEnd();
+        int i = _pos;
+        while (i < end) {
+            if (_text[i] != '(') {
+                return false;
+            }
+            int start = i += 1;
+            while (i < end && _text[i] != '(' && _text[i] != ')') {
+                i += 1;
+            }
+            if (i == end || _text[i] != ')' || i == start) {
+                return false;
+            }
+            i += 1;
+        }
+        return true;
+    }
+
+    /**
+     * Check the characters of the token last returned, which holds
+     * cycles, against ALPHABET and the set SEEN of the indices of
+     * characters already used in the same permutation, adding its own
+     * characters to SEEN.  Cycles must be parenthesized, without
+     * nesting.
+     */
+    void checkCycles(Alphabet alphabet, BitSet seen) {
+        boolean open = false;
+        int end = _tokenStart + tokenLength();
+        for (int i = _tokenStart; i < end; ) {
+            int ch = Character.codePointAt(_text, i, end);
+            if (ch == '(' || ch == ')') {
+                if (open == (ch == '(')) {
+                    throw errorAt(i - _tokenStart, "bad cycle notation");
+                }
+                open = !open;
+            } else if (!open) {
+                throw errorAt(i - _tokenStart, "bad cycle notation");
+            } else {
+                int x = alphabet.indexOf(ch);
+                if (x < 0) {
+                    throw errorAt(i - _tokenStart,
+                            "character %s not in alphabet",
+                            Character.toString(ch));
+                }
+                if (seen.get(x)) {
+                    throw errorAt(i - _tokenStart,
+                            "duplicate letters in perm");
+                }
+                seen.set(x);
+            }
+            i += Character.charCount(ch);
+        }
+        if (open) {
+            throw errorAt(end - _tokenStart, "bad cycle notation");
+        }
+    }
+
+    /**
+     * Check that every character of the token last returned, from char
+     * offset FROM on, is in ALPHABET, reporting any other as WHAT.
+     */
+    void checkLetters(Alphabet alphabet, int from, String what) {
+        int end = _tokenStart + tokenLength();
+        for (int i = _tokenStart + from; i < end; ) {
+            int ch = Character.codePointAt(_text, i, end);
+            if (!alphabet.contains(ch)) {
+                throw errorAt(i - _tokenStart, "%s %s not in alphabet",
+                        what, Character.toString(ch));
+            }
+            i += Character.charCount(ch);
+        }
+    }
+
+    /**
+     * Return the name of my source in error messages.
+     */
+    String source() {
+        return _source;
+    }
+
+    /**
+     * Return the line number of the token last returned.
+     */
+    int line() {
+        return _tokenLine;
+    }
+
+    /**
+     * Return the column of the first char of the token last returned.
+     */
+    int column() {
+        return _tokenColumn;
+    }
+
+    /**
+     * Return an error with a message formed from MSGFORMAT and
+     * ARGUMENTS, as for EnigmaException.error, located at the token
+     * last returned.
+     */
+    EnigmaException error(String msgFormat, Object... arguments) {
+        return errorAt(0, msgFormat, arguments);
+    }
+
+    /**
+     * Return an error as for error(MSGFORMAT, ARGUMENTS), located at
+     * the next token, or at the end of the text if none remains.
+     */
+    EnigmaException errorAhead(String msgFormat, Object... arguments) {
+        hasNext();
+        mark(_pos);
+        return error(msgFormat, arguments);
+    }
+
+    /**
+     * Return an error as for error(MSGFORMAT, ARGUMENTS), located
+     * OFFSET chars into the token last returned.
+     */
+    EnigmaException errorAt(int offset, String msgFormat,
+                            Object... arguments) {
+        return EnigmaException.error("%s:%d:%d: %s", _source, _tokenLine,
+                _tokenColumn + offset, String.format(msgFormat, arguments));
+    }
+
+    /**
+     * Skip whitespace, counting the lines passed.
+     */
+    private void skip() {
+        while (_pos < _end) {
+            char c = _text[_pos];
+            if (c == '\n' || c == '\r') {
+                newline();
+            } else if (Character.isWhitespace(c)) {
+                _pos += 1;
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Move past the line terminator at _pos, starting a new line.
+     */
+    private void newline() {
+        if (_text[_pos] == '\r' && _pos + 1 < _end
+            && _text[_pos + 1] == '\n') {
+            _pos += 1;
+        }
+        _pos += 1;
+        _line += 1;
+        _lineStart = _pos;
+    }
+
+    /**
+     * Return the index just past the token starting at _pos.
+     */
+    private int tokenEnd() {
+        int end = _pos;
+        while (end < _end && !Character.isWhitespace(_text[end])) {
+            end += 1;
+        }
+        return end;
+    }
+
+    /**
+     * Return the length of the token last returned.
+     */
+    private int tokenLength() {
+        int end = _tokenStart;
+        while (end < _end && !Character.isWhitespace(_text[end])) {
+            end += 1;
+        }
+        return end - _tokenStart;
+    }
+
+    /**
+     * Record a token starting at START on the current line.
+     */
+    private void mark(int start) {
+        _tokenStart = start;
+        _tokenLine = _line;
+        _tokenColumn = start - _lineStart + 1;
+    }
+
+    /**
+     * Charset in which files are decoded.
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+    /**
+     * Most digits in an int.
+     */
+    private static final int MAX_DIGITS = 10;
+
+    /**
+     * Name of the source in error messages.
+     */
+    private final String _source;
+    /**
+     * The text being tokenized.
+     */
+    private final char[] _text;
+    /**
+     * Index just past the end of the text.
+     */
+    private final int _end;
+    /**
+     * Index of the next unread char.
+     */
+    private int _pos;
+    /**
+     * Number of the line holding _pos.
+     */
+    private int _line;
+    /**
+     * Index of the first char of the line holding _pos.
+     */
+    private int _lineStart;
+    /**
+     * Index of the first char of the token last returned.
+     */
+    private int _tokenStart;
+    /**
+     * Line of the token last returned.
+     */
+    private int _tokenLine;
+    /**
+     * Column of the token last returned.
+     */
+    private int _tokenColumn;
+    /**
+     * Size of the text, as reported by bytes.
+     */
+    private long _bytes;
+}
@@ -0,0 +1,92 @@
+package enigma;
+
+import org.junit.Test;
+import org.junit.Rule;
+import org.junit.rules.Timeout;
+
+import java.util.BitSet;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the Tokenizer class.
+ *
+ * @author charlesellis
+ */
+public class TokenizerTest {
+
+    /**
+     * Testing time limit.
+     */
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(5);
+
+    /**
+     * Return a tokenizer over TEXT, called "t".
+     */
+    private Tokenizer tokens(String text) {
+        return new Tokenizer("t", text.toCharArray(), 1);
+    }
+
+    @Test
+    public void checkTokens() {
+        Tokenizer t = tokens("ABC DE\r\n 5 -3\r\t(AB)(C) x\n");
+        assertEquals("ABC DE", t.nextLine());
+        assertTrue(t.hasNextInt());
+        assertEquals(5, t.nextInt());
+        assertEquals(2, t.line());
+        assertEquals(2, t.column());
+        assertEquals(-3, t.nextInt());
+        assertFalse(t.hasNextInt());
+        assertTrue(t.hasNextCycles());
+        assertEquals("(AB)(C)", t.next());
+        assertEquals(3, t.line());
+        assertEquals(2, t.column());
+        assertFalse(t.hasNextCycles());
+        assertEquals("x", t.next());
+        assertFalse(t.hasNext());
+        try {
+            t.next("end");
+            fail("read past end");
+        } catch (EnigmaException excp) {
+            assertEquals("t:4:1: end", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void checkCycleTokens() {
+        for (String bad : new String[] {
+                "()", "(AB", "AB", "(A)B", "(A(B))", "(A)(" }) {
+            assertFalse(bad, tokens(bad).hasNextCycles());
+        }
+        assertFalse(tokens("99999999999").hasNextInt());
+        assertTrue(tokens("2147483647").hasNextInt());
+    }
+
+    @Test
+    public void checkErrors() {
+        Tokenizer t = tokens("N\n  (AB) (CDA)");
+        t.next();
+        BitSet seen = new BitSet();
+        t.next();
+        t.checkCycles(UPPER, seen);
+        t.next();
+        try {
+            t.checkCycles(UPPER, seen);
+            fail("duplicate accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("t:2:11: duplicate letters in perm",
+                    excp.getMessage());
+        }
+        try {
+            new Main(new String[] { "/nonexistent/config" });
+            fail("missing file accepted");
+        } catch (EnigmaException excp) {
+            assertEquals("could not open /nonexistent/config",
+                    excp.getMessage());
+        }
+    }
+
+}
@@ -14,7 +14,16 @@ public class UnitTest {
      * the arguments of runClasses to run other JUnit tests.
      */
     public static void main(String[] ignored) {
-        textui.runClasses(PermutationTest.class, MovingRotorTest.class);
+        textui.runClasses(AlphabetTest.class, PermutationTest.class, MovingRotorTest.class,
+                MachineTest.class, KeySpaceTest.class, KeystreamCacheTest.class,
+                EnigmaProcessorTest.class, EnigmaStreamTest.class,
+                WiringPoolTest.class, RotorCatalogTest.class,
+                TextStatsTest.class, TokenizerTest.class,
+                ConfigLoaderTest.class, KeySearchTest.class,
+                EnigmaEventsTest.class, KeystrokeStreamTest.class,
+                EngineTiersTest.class, CircuitCompilerTest.class,
+                ConfigHolderTest.class, PackedTextTest.class,
+                CheckpointTest.class, DirectoryTest.class);
     }
 
 }
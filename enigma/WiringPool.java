@@ -0,0 +1,165 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * An interning pool of compiled rotor wirings over one alphabet.  Every
+ * request for the same permutation, however its cycles are written,
+ * gets the same Permutation object, and so the same tables, which the
+ * rotors using it share while their ring settings are zero.  A cycle
+ * string seen before is not even parsed again.
+ *
+ * @author charlesellis
+ */
+class WiringPool {
+
+    /**
+     * An empty pool of permutations of ALPHABET.
+     */
+    WiringPool(Alphabet alphabet) {
+        _alphabet = alphabet;
+    }
+
+    /**
+     * Return the canonical permutation whose cycles are CYCLES, as
+     * accepted by the Permutation constructor.  A new permutation is
+     * compiled outside my lock, so that threads loading different
+     * rotors compile in parallel; should two threads compile the same
+     * cycles at once, the first to finish wins.
+     */
+    Permutation intern(String cycles) {
+        synchronized (this) {
+            _requests += 1;
+            Permutation result = _byCycles.get(cycles);
+            if (result != null) {
+                _saved += result.bytes();
+                return result;
+            }
+        }
+        Permutation perm = new Permutation(cycles, _alphabet);
+        Key key = new Key(perm.toArray());
+        synchronized (this) {
+            Permutation result = _byCycles.get(cycles);
+            if (result == null) {
+                result = canonical(perm, key);
+                _byCycles.put(cycles, result);
+            } else {
+                _saved += perm.bytes();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Return the canonical permutation equal to PERM, which must permute
+     * my alphabet.
+     */
+    Permutation intern(Permutation perm) {
+        if (perm.alphabet() != _alphabet) {
+            throw new IllegalArgumentException("wrong alphabet");
+        }
+        Key key = new Key(perm.toArray());
+        synchronized (this) {
+            _requests += 1;
+            return canonical(perm, key);
+        }
+    }
+
+    /**
+     * Return the permutation in my table equal to PERM, whose key is
+     * KEY, adding PERM if there is none.
+     */
+    private Permutation canonical(Permutation perm, Key key) {
+        Permutation result = _byTable.putIfAbsent(key, perm);
+        if (result == null) {
+            _bytes += perm.bytes();
+            return perm;
+        }
+        _saved += perm.bytes();
+        return result;
+    }
+
+    /**
+     * Return the number of permutations requested so far.
+     */
+    synchronized int requests() {
+        return _requests;
+    }
+
+    /**
+     * Return the number of distinct permutations held.
+     */
+    synchronized int distinct() {
+        return _byTable.size();
+    }
+
+    /**
+     * Return a one-line summary of my requests, the distinct wirings
+     * among them, and the table memory held and saved by sharing.
+     */
+    synchronized String stats() {
+        return String.format("%d wirings requested, %d distinct, "
+                + "%d table bytes held, %d saved", _requests,
+                _byTable.size(), _bytes, _saved);
+    }
+
+    /**
+     * A permutation table used as a hash key.
+     */
+    private static final class Key {
+
+        /**
+         * The key for TABLE.
+         */
+        Key(int[] table) {
+            _table = table;
+            _hash = Arrays.hashCode(table);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key
+                && Arrays.equals(_table, ((Key) obj)._table);
+        }
+
+        /**
+         * The table.
+         */
+        private final int[] _table;
+        /**
+         * Hash of _table.
+         */
+        private final int _hash;
+    }
+
+    /**
+     * Alphabet of my permutations.
+     */
+    private final Alphabet _alphabet;
+    /**
+     * Canonical permutations by the cycle strings they were built from.
+     */
+    private final HashMap<String, Permutation> _byCycles = new HashMap<>();
+    /**
+     * Canonical permutations by their tables.
+     */
+    private final HashMap<Key, Permutation> _byTable = new HashMap<>();
+    /**
+     * Number of permutations requested.
+     */
+    private int _requests;
+    /**
+     * Bytes of table held by the canonical permutations.
+     */
+    private long _bytes;
+    /**
+     * Bytes of table that requests would have built without sharing.
+     */
+    private long _saved;
+}
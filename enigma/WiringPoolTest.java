@@ -0,0 +1,44 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+/**
+ * The suite of all JUnit tests for the WiringPool class.
+ *
+ * @author charlesellis
+ */
+public class WiringPoolTest {
+
+    @Test
+    public void testSharing() {
+        WiringPool pool = new WiringPool(UPPER);
+        Permutation p = pool.intern("(ABC) (DE)");
+        assertSame(p, pool.intern("(ABC) (DE)"));
+        assertSame(p, pool.intern("(ED) (BCA)"));
+        assertSame(p, pool.intern(new Permutation("(CAB) (DE) (F)",
+                UPPER)));
+        assertNotSame(p, pool.intern("(ABC)"));
+        assertEquals(5, pool.requests());
+        assertEquals(2, pool.distinct());
+    }
+
+    @Test
+    public void testRingsStayPerRotor() {
+        WiringPool pool = new WiringPool(UPPER);
+        Rotor one = new MovingRotor("I", pool.intern(NAVALA.get("I")), "Q");
+        Rotor two = new MovingRotor("X", pool.intern(NAVALA.get("I")), "A");
+        assertSame(one.permutation(), two.permutation());
+        one.setRing(1);
+        for (int x = 0; x < 26; x += 1) {
+            assertEquals(two.permutation().permute(x), two.wiring(x));
+        }
+        assertNotEquals(two.wiring(0), one.wiring(0));
+        one.setRing(0);
+        assertEquals(two.wiring(0), one.wiring(0));
+    }
+
+}